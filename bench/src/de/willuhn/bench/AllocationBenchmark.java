@@ -0,0 +1,105 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Logger;
+
+/**
+ * Misst den Speicherverbrauch pro Meldung mit und ohne Garbage-freien Modus.
+ * Aussagekraeftig ist der Wert "gc.alloc.rate.norm" des GC-Profilers
+ * (<code>-prof gc</code>), den das Ant-Target "bench" automatisch aktiviert.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AllocationBenchmark
+{
+  /**
+   * Anzahl der Meldungen pro Aufruf.
+   */
+  public final static int BATCH = 1000;
+
+  /**
+   * true, wenn der Garbage-freie Modus aktiv sein soll.
+   */
+  @Param({"false","true"})
+  public boolean garbageFree;
+
+  private NullTarget target = null;
+  private Integer value = Integer.valueOf(42);
+
+  /**
+   * Registriert das Target.
+   */
+  @Setup
+  public void setup()
+  {
+    this.target = new NullTarget();
+    Logger.setLevel(Level.INFO);
+    Logger.setOverflowPolicy(Logger.OverflowPolicy.BLOCK);
+    Logger.setGarbageFree(this.garbageFree);
+    Logger.addTarget(this.target);
+  }
+
+  /**
+   * Entfernt das Target.
+   * @throws InterruptedException
+   */
+  @TearDown
+  public void tearDown() throws InterruptedException
+  {
+    Logger.flush();
+    Logger.removeTarget(this.target);
+  }
+
+  /**
+   * Meldung mit festem Text.
+   * @throws InterruptedException
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void plain() throws InterruptedException
+  {
+    for (int i=0;i<BATCH;++i)
+      Logger.info("benchmark message");
+    Logger.flush();
+  }
+
+  /**
+   * Meldung mit Pattern und Parameter.
+   * @throws InterruptedException
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void pattern() throws InterruptedException
+  {
+    for (int i=0;i<BATCH;++i)
+      Logger.info("benchmark message {0}",this.value);
+    Logger.flush();
+  }
+}
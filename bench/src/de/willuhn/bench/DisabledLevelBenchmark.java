@@ -0,0 +1,96 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.willuhn.logging.Category;
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Logger;
+
+/**
+ * Misst die Kosten eines Log-Aufrufs, dessen Level nicht aktiv ist.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DisabledLevelBenchmark
+{
+  private final static Category LOG = Logger.getCategory(DisabledLevelBenchmark.class);
+
+  private Integer value = Integer.valueOf(42);
+
+  /**
+   * Setzt das Level auf INFO.
+   */
+  @Setup
+  public void setup()
+  {
+    Logger.setLevel(Level.INFO);
+  }
+
+  /**
+   * Pruefung des Levels.
+   * @return true, wenn das Level aktiv ist.
+   */
+  @Benchmark
+  public boolean isLogging()
+  {
+    return Logger.isLogging(Level.DEBUG);
+  }
+
+  /**
+   * Statischer Aufruf mit festem Text.
+   */
+  @Benchmark
+  public void logger()
+  {
+    Logger.debug("benchmark message");
+  }
+
+  /**
+   * Statischer Aufruf mit Pattern und Parameter.
+   */
+  @Benchmark
+  public void loggerPattern()
+  {
+    Logger.debug("benchmark message {0}",this.value);
+  }
+
+  /**
+   * Aufruf ueber eine Kategorie.
+   */
+  @Benchmark
+  public void category()
+  {
+    LOG.debug("benchmark message");
+  }
+
+  /**
+   * Aufruf ueber eine Kategorie mit Pattern und Parameter.
+   */
+  @Benchmark
+  public void categoryPattern()
+  {
+    LOG.debug("benchmark message {0}",this.value);
+  }
+}
@@ -0,0 +1,108 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Logger;
+
+/**
+ * Misst die Dauer, bis eine Meldung in die Queue des Loggers gestellt ist,
+ * mit 1, 4, 16 und 64 gleichzeitig loggenden Threads.
+ * Die Meldungen werden von einem {@link NullTarget} verworfen. Die Queue
+ * ist gross genug, dass sie waehrend einer Iteration kaum voll wird. Ist sie
+ * es doch, wird die Meldung verworfen, statt zu warten. Gemessen wird so nur
+ * das Einstellen und nicht der Durchsatz des Logger-Threads.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-D" + Logger.PROPERTY_QUEUE_SIZE + "=1048576")
+@State(Scope.Benchmark)
+public class EnqueueBenchmark
+{
+  private NullTarget target = null;
+
+  /**
+   * Registriert das Target.
+   */
+  @Setup
+  public void setup()
+  {
+    this.target = new NullTarget();
+    Logger.setLevel(Level.INFO);
+    Logger.setOverflowPolicy(Logger.OverflowPolicy.DROP_NEWEST);
+    Logger.addTarget(this.target);
+  }
+
+  /**
+   * Wartet, bis alle Meldungen geschrieben sind, und entfernt das Target.
+   * @throws InterruptedException
+   */
+  @TearDown
+  public void tearDown() throws InterruptedException
+  {
+    Logger.flush();
+    Logger.removeTarget(this.target);
+  }
+
+  /**
+   * Ein loggender Thread.
+   */
+  @Benchmark
+  @Threads(1)
+  public void threads1()
+  {
+    Logger.info("benchmark message");
+  }
+
+  /**
+   * 4 loggende Threads.
+   */
+  @Benchmark
+  @Threads(4)
+  public void threads4()
+  {
+    Logger.info("benchmark message");
+  }
+
+  /**
+   * 16 loggende Threads.
+   */
+  @Benchmark
+  @Threads(16)
+  public void threads16()
+  {
+    Logger.info("benchmark message");
+  }
+
+  /**
+   * 64 loggende Threads.
+   */
+  @Benchmark
+  @Threads(64)
+  public void threads64()
+  {
+    Logger.info("benchmark message");
+  }
+}
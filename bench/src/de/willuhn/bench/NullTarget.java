@@ -0,0 +1,44 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.bench;
+
+import de.willuhn.logging.Message;
+import de.willuhn.logging.targets.Target;
+
+/**
+ * Target, das die Meldungen verwirft.
+ * Damit wird nur der Aufwand des Loggers selbst gemessen.
+ */
+public class NullTarget implements Target
+{
+  private long count = 0L;
+
+  /**
+   * @see de.willuhn.logging.targets.Target#write(de.willuhn.logging.Message)
+   */
+  public void write(Message message) throws Exception
+  {
+    count++;
+  }
+
+  /**
+   * Liefert die Anzahl der geschriebenen Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getCount()
+  {
+    return count;
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.Target#close()
+   */
+  public void close() throws Exception
+  {
+  }
+}
@@ -0,0 +1,105 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.willuhn.util.History;
+import de.willuhn.util.Queue;
+
+/**
+ * Misst {@link Queue} und {@link History}.
+ * Im Modus mit Producer und Consumer wird mit Timeout gewartet, damit sich
+ * die Threads am Ende einer Iteration nicht gegenseitig blockieren. Da der
+ * State pro Gruppe angelegt wird, bildet jede Single-Thread-Messung eine
+ * eigene Gruppe.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class QueueBenchmark
+{
+  private final static String VALUE = "value";
+
+  private Queue<String> queue     = null;
+  private History<String> history = null;
+
+  /**
+   * Erzeugt Queue und History.
+   */
+  @Setup
+  public void setup()
+  {
+    this.queue   = new Queue<String>(1024);
+    this.history = new History<String>(100);
+  }
+
+  /**
+   * Einfuegen und Entnehmen im selben Thread.
+   * @return das entnommene Element.
+   */
+  @Benchmark
+  @Group("offerPoll")
+  public String offerPoll()
+  {
+    this.queue.offer(VALUE);
+    return this.queue.poll();
+  }
+
+  /**
+   * Einfuegen in die volle History.
+   */
+  @Benchmark
+  @Group("historyPush")
+  public void historyPush()
+  {
+    this.history.push(VALUE);
+  }
+
+  /**
+   * Producer.
+   * @return true, wenn das Element eingefuegt wurde.
+   * @throws InterruptedException
+   */
+  @Benchmark
+  @Group("producerConsumer")
+  @GroupThreads(1)
+  public boolean producer() throws InterruptedException
+  {
+    return this.queue.offer(VALUE,10L,TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Consumer.
+   * @return das entnommene Element.
+   * @throws InterruptedException
+   */
+  @Benchmark
+  @Group("producerConsumer")
+  @GroupThreads(1)
+  public String consumer() throws InterruptedException
+  {
+    return this.queue.poll(10L,TimeUnit.MILLISECONDS);
+  }
+}
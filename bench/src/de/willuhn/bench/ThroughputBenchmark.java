@@ -0,0 +1,112 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.willuhn.io.FileUtil;
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Logger;
+import de.willuhn.logging.targets.LogrotateTarget;
+import de.willuhn.logging.targets.OutputStreamTarget;
+import de.willuhn.logging.targets.Target;
+
+/**
+ * Misst den Durchsatz vom Aufruf des Loggers bis in die Datei.
+ * Jeder Aufruf schreibt {@link #BATCH} Meldungen und wartet per
+ * {@link Logger#flush()}, bis sie vom Target geschrieben wurden.
+ * Die Dateien werden in einem temporaeren Verzeichnis angelegt.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark
+{
+  /**
+   * Anzahl der Meldungen pro Aufruf.
+   */
+  public final static int BATCH = 1000;
+
+  /**
+   * Das zu messende Target.
+   */
+  @Param({"stream","logrotate"})
+  public String target;
+
+  private File dir = null;
+  private Target t = null;
+
+  /**
+   * Legt das Verzeichnis an und registriert das Target.
+   * @throws IOException
+   */
+  @Setup
+  public void setup() throws IOException
+  {
+    this.dir = File.createTempFile("logbench",null);
+    this.dir.delete();
+    this.dir.mkdirs();
+
+    File file = new File(this.dir,"bench.log");
+    if ("logrotate".equals(this.target))
+      this.t = new LogrotateTarget(file,true);
+    else
+      this.t = new OutputStreamTarget(new BufferedOutputStream(new FileOutputStream(file)));
+
+    Logger.setLevel(Level.INFO);
+    Logger.setOverflowPolicy(Logger.OverflowPolicy.BLOCK);
+    Logger.addTarget(this.t);
+  }
+
+  /**
+   * Entfernt Target und Verzeichnis.
+   * @throws Exception
+   */
+  @TearDown
+  public void tearDown() throws Exception
+  {
+    Logger.flush();
+    Logger.removeTarget(this.t);
+    this.t.close();
+    FileUtil.deleteRecursive(this.dir);
+  }
+
+  /**
+   * Schreibt die Meldungen und wartet, bis sie in der Datei sind.
+   * @throws InterruptedException
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public void write() throws InterruptedException
+  {
+    for (int i=0;i<BATCH;++i)
+      Logger.info("benchmark message");
+    Logger.flush();
+  }
+}
@@ -14,6 +14,12 @@ package de.willuhn.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 /**
  * Ein OutputStream, der alle Daten, die erhaelt buffert und zeilenweise
@@ -21,17 +27,21 @@ import java.io.OutputStream;
  * man Daten zeilenweise verarbeiten, darf aber nur einen OutputStream
  * angeben, dann kann man von dieser Klasse ableiten, die Funktion <code>writeLine</code>
  * implementieren und kann bequem zeilenweise lesen.
- * Hinweis: Ist die Zeile laenger als der angegebene Buffer, wird bei Erreichen
- * der Buffer-Groesse auch schon vor dem Zeilenende geschrieben.  
+ * Die Bytes werden fortlaufend mit dem angegebenen Zeichensatz dekodiert,
+ * Multibyte-Zeichen (z.Bsp. UTF-8) bleiben also erhalten, auch wenn sie
+ * auf mehrere Aufrufe von <code>write</code> verteilt sind. Die Buffer werden
+ * wiederverwendet.
+ * Hinweis: Die Buffer-Groesse begrenzt nicht die Laenge der Zeile. Eine
+ * unvollstaendige letzte Zeile wird beim Schliessen des Streams uebergeben.
  */
 public abstract class LineOutputStream extends OutputStream {
 
-	private int bufferSize = 1024;
+  private final ByteBuffer bytes;
+  private final CharBuffer chars;
+  private final CharsetDecoder decoder;
 
-  private char[] buffer;
-
-	private StringBuffer line = new StringBuffer();
-	private int bufferCount = 0;
+  private final int bufferSize;
+  private StringBuilder line;
 
   /**
    * Erzeugt einen LineOutputStream mit 1024 Byte Buffer.
@@ -43,47 +53,147 @@ public abstract class LineOutputStream extends OutputStream {
 
   /**
    * Erzeugt einen LineOutputStream mit der angebenen Buffer-Groesse.
+   * Die Bytes werden mit dem Default-Zeichensatz des Systems dekodiert.
    * @param bufferSize Buffer-Groesse in Bytes.
    */
   public LineOutputStream(int bufferSize)
+  {
+    this(bufferSize,null);
+  }
+
+  /**
+   * Erzeugt einen LineOutputStream mit der angebenen Buffer-Groesse und Zeichensatz.
+   * @param bufferSize Buffer-Groesse in Bytes.
+   * @param encoding Zeichensatz der Bytes. Ist keiner angegeben, wird der Default-Zeichensatz des Systems verwendet.
+   */
+  public LineOutputStream(int bufferSize, String encoding)
   {
     super();
-    this.bufferSize = bufferSize;
-    buffer = new char[bufferSize];
+    this.bufferSize = Math.max(16,bufferSize);
+    this.bytes      = ByteBuffer.allocate(this.bufferSize);
+    this.chars      = CharBuffer.allocate(this.bufferSize);
+    this.line       = new StringBuilder(this.bufferSize);
+
+    Charset cs = encoding != null ? Charset.forName(encoding) : Charset.defaultCharset();
+    this.decoder = cs.newDecoder()
+                     .onMalformedInput(CodingErrorAction.REPLACE)
+                     .onUnmappableCharacter(CodingErrorAction.REPLACE);
   }
 
   /**
    * @see java.io.OutputStream#write(int)
    */
-  public final void write(int b) throws IOException {
-
-		// Wenn ein Linebreak kommt, schreiben wir raus
-		if (b == '\n')
-		{
-			line.append(buffer);
-			writeLine(line.toString().replaceAll("\\r|\\n",""));
-			line = new StringBuffer();
-			bufferCount = 0;
-			buffer = new char[bufferSize];
-			return;
-		}
-
-		// Meistens schreiben wir in den Char-Buffer
-  	if (bufferCount < bufferSize)
-  	{
-  		buffer[bufferCount++] = (char) b;
-  		return;
-  	}
-
-		// Charbuffer ist voll, wir haengens an die Zeile
-		line.append(buffer);
-		bufferCount = 0;
-		buffer = new char[bufferSize];
+  public final void write(int b) throws IOException
+  {
+    this.bytes.put((byte) b);
+
+    // Dekodiert wird erst beim Zeilenende oder wenn der Buffer voll ist
+    if ((b & 0xFF) == '\n' || !this.bytes.hasRemaining())
+      decode(false);
+  }
+
+  /**
+   * @see java.io.OutputStream#write(byte[], int, int)
+   */
+  public final void write(byte[] b, int off, int len) throws IOException
+  {
+    if (b == null)
+      throw new NullPointerException();
+    if (off < 0 || len < 0 || off + len > b.length || off + len < 0)
+      throw new IndexOutOfBoundsException();
+
+    while (len > 0)
+    {
+      int n = Math.min(len,this.bytes.remaining());
+      this.bytes.put(b,off,n);
+      off += n;
+      len -= n;
+      if (!this.bytes.hasRemaining())
+        decode(false);
+    }
+    decode(false);
+  }
+
+  /**
+   * Uebergibt die noch gepufferte, unvollstaendige Zeile.
+   * @see java.io.OutputStream#close()
+   */
+  public void close() throws IOException
+  {
+    decode(true);
+    while (this.decoder.flush(this.chars).isOverflow())
+      drain();
+    drain();
+    this.decoder.reset();
+
+    if (this.line.length() > 0)
+      emitLine();
+  }
+
+  /**
+   * Dekodiert die gepufferten Bytes und uebergibt dabei alle vollstaendigen Zeilen.
+   * Bytes eines noch unvollstaendigen Zeichens bleiben im Buffer.
+   * @param endOfInput true, wenn keine weiteren Bytes folgen.
+   * @throws IOException
+   */
+  private void decode(boolean endOfInput) throws IOException
+  {
+    this.bytes.flip();
+    while (true)
+    {
+      CoderResult r = this.decoder.decode(this.bytes,this.chars,endOfInput);
+      drain();
+      if (!r.isOverflow())
+        break;
+    }
+    this.bytes.compact();
+  }
+
+  /**
+   * Haengt die dekodierten Zeichen an die Zeile an und uebergibt sie beim Zeilenende.
+   * Zeilenumbrueche werden dabei entfernt.
+   * @throws IOException
+   */
+  private void drain() throws IOException
+  {
+    this.chars.flip();
+    char[] c  = this.chars.array();
+    int end   = this.chars.limit();
+    int start = 0;
+    for (int i=0;i<end;++i)
+    {
+      char ch = c[i];
+      if (ch != '\n' && ch != '\r')
+        continue;
+
+      this.line.append(c,start,i - start);
+      start = i + 1;
+      if (ch == '\n')
+        emitLine();
+    }
+    this.line.append(c,start,end - start);
+    this.chars.clear();
+  }
+
+  /**
+   * Uebergibt die aktuelle Zeile und leert sie.
+   * @throws IOException
+   */
+  private void emitLine() throws IOException
+  {
+    String s = this.line.toString();
+    this.line.setLength(0);
+
+    // Nach einer sehr langen Zeile geben wir den Speicher wieder frei
+    if (this.line.capacity() > 64 * this.bufferSize)
+      this.line = new StringBuilder(this.bufferSize);
+
+    writeLine(s);
   }
 
   /**
    * Wird aufgerufen, wenn eine Zeile vollstaendig ist und
-   * geschrieben werden kann oder aber der Buffer voll ist.
+   * geschrieben werden kann.
    * Wichtig: In der Zeile ggf. vorhandene Linewraps werden
    * entfernt. Sollen Die Ausgaben also z.Bsp. via System.out
    * geschrieben werden, dann bitte "println()" statt "print()"
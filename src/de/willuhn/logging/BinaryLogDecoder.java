@@ -0,0 +1,355 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import de.willuhn.io.IOUtil;
+import de.willuhn.logging.targets.BinaryTarget;
+
+/**
+ * Liest die von {@link BinaryTarget} geschriebenen Dateien und wandelt sie
+ * zurueck in Log-Meldungen. Kann auch von der Kommandozeile aus aufgerufen werden,
+ * um die Dateien im gewohnten Text-Format auszugeben.
+ */
+public class BinaryLogDecoder
+{
+  private InputStream is = null;
+
+  private final List<String> dictionary = new ArrayList<String>();
+  private long lastTime = 0L;
+
+  private byte[] data = new byte[1024];
+  private int pos     = 0;
+  private int limit   = 0;
+
+  /**
+   * ct.
+   * @param is der Stream mit den Binaer-Daten. Er wird nicht geschlossen.
+   * @throws IOException wenn der Stream nicht mit der Kennung des Formats beginnt.
+   */
+  public BinaryLogDecoder(InputStream is) throws IOException
+  {
+    this.is = is;
+    for (int i=0;i<BinaryTarget.MAGIC.length;++i)
+    {
+      if (is.read() != BinaryTarget.MAGIC[i])
+        throw new IOException("not a binary log file");
+    }
+    int version = is.read();
+    if (version < 1 || version > BinaryTarget.VERSION)
+      throw new IOException("unsupported version of binary log file: " + version);
+  }
+
+  /**
+   * Liest die naechste Log-Meldung.
+   * @return die Log-Meldung oder <code>null</code>, wenn das Ende erreicht ist.
+   * @throws IOException
+   */
+  public Message read() throws IOException
+  {
+    while (true)
+    {
+      if (!readRecord())
+        return null;
+
+      int type = this.data[this.pos++];
+      switch (type)
+      {
+        case BinaryTarget.TYPE_RESET:
+          this.dictionary.clear();
+          this.lastTime = 0L;
+          break;
+
+        case BinaryTarget.TYPE_STRING:
+          int id = (int) readVarint();
+          String s = readString();
+          while (this.dictionary.size() < id)
+            this.dictionary.add(null);
+          this.dictionary.set(id - 1,s);
+          break;
+
+        case BinaryTarget.TYPE_MESSAGE:
+          long time     = this.lastTime + readZigZag();
+          String lname  = lookup(readVarint());
+          int lvalue    = (int) readZigZag();
+          String host   = lookup(readVarint());
+          String clazz  = lookup(readVarint());
+          String method = lookup(readVarint());
+          String text   = readString();
+          this.lastTime = time;
+          return new Message(time == 0L ? null : new Date(time),getLevel(lname,lvalue),host,clazz,method,text);
+
+        default:
+          // unbekannter Typ einer neueren Version - ueberspringen
+          break;
+      }
+    }
+  }
+
+  /**
+   * Liefert das Log-Level mit dem angegebenen Namen.
+   * Ist es nicht bekannt, wird es angelegt.
+   * @param name Name des Levels.
+   * @param value Wertigkeit des Levels.
+   * @return das Level oder <code>null</code>, wenn kein Name angegeben ist.
+   */
+  private static Level getLevel(String name, int value)
+  {
+    if (name == null)
+      return null;
+    Level l = Level.findByName(name);
+    return l != null ? l : new Level(name,value);
+  }
+
+  /**
+   * Liefert den String mit der angegebenen ID aus dem Woerterbuch.
+   * @param id die ID.
+   * @return der String oder <code>null</code> bei ID 0.
+   * @throws IOException wenn die ID nicht im Woerterbuch enthalten ist.
+   */
+  private String lookup(long id) throws IOException
+  {
+    if (id == 0L)
+      return null;
+    if (id > this.dictionary.size() || this.dictionary.get((int) id - 1) == null)
+      throw new IOException("unknown dictionary id: " + id);
+    return this.dictionary.get((int) id - 1);
+  }
+
+  /**
+   * Liest den naechsten Record in den Puffer.
+   * @return false, wenn das Ende des Streams erreicht ist.
+   * @throws IOException
+   */
+  private boolean readRecord() throws IOException
+  {
+    long len = 0L;
+    int shift = 0;
+    int b = 0;
+    do
+    {
+      b = this.is.read();
+      if (b == -1)
+      {
+        if (shift == 0)
+          return false;
+        throw new EOFException("truncated binary log file");
+      }
+      len |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    }
+    while ((b & 0x80) != 0);
+
+    if (len <= 0L || len > Integer.MAX_VALUE)
+      throw new IOException("invalid record length: " + len);
+
+    int size = (int) len;
+    if (this.data.length < size)
+      this.data = new byte[Math.max(size,this.data.length * 2)];
+
+    int read = 0;
+    while (read < size)
+    {
+      int n = this.is.read(this.data,read,size - read);
+      if (n == -1)
+        throw new EOFException("truncated binary log file");
+      read += n;
+    }
+    this.pos   = 0;
+    this.limit = size;
+    return true;
+  }
+
+  /**
+   * Liest eine positive Zahl mit variabler Laenge aus dem Record.
+   * @return die Zahl.
+   * @throws IOException
+   */
+  private long readVarint() throws IOException
+  {
+    long value = 0L;
+    int shift = 0;
+    while (true)
+    {
+      if (this.pos >= this.limit)
+        throw new IOException("corrupt record in binary log file");
+      int b = this.data[this.pos++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+      shift += 7;
+    }
+  }
+
+  /**
+   * Liest eine ggf. negative Zahl mit variabler Laenge aus dem Record.
+   * @return die Zahl.
+   * @throws IOException
+   */
+  private long readZigZag() throws IOException
+  {
+    long v = readVarint();
+    return (v >>> 1) ^ -(v & 1L);
+  }
+
+  /**
+   * Liest einen String mit vorangestellter Laenge aus dem Record.
+   * @return der String.
+   * @throws IOException
+   */
+  private String readString() throws IOException
+  {
+    int len = (int) readVarint();
+    if (len < 0 || this.pos + len > this.limit)
+      throw new IOException("corrupt record in binary log file");
+    String s = new String(this.data,this.pos,len,"UTF-8");
+    this.pos += len;
+    return s;
+  }
+
+  /**
+   * Gibt die angegebenen Binaer-Log-Dateien im Text-Format auf STDOUT aus.
+   * @param args Kommandozeilen-Parameter.
+   * @throws Exception
+   */
+  public final static void main(String[] args) throws Exception
+  {
+    if (args == null || args.length == 0)
+      usage();
+
+    Level level = null;
+    long from   = Long.MIN_VALUE;
+    long to     = Long.MAX_VALUE;
+    List<String> files = new ArrayList<String>();
+
+    for (int i=0;i<args.length;++i)
+    {
+      String s = args[i].trim();
+      if (s.length() == 0)
+        continue;
+
+      if (!s.startsWith("-"))
+      {
+        files.add(s);
+        continue;
+      }
+
+      if (i + 1 >= args.length)
+        usage();
+      String value = args[++i].trim();
+
+      if (s.equals("-level"))
+      {
+        level = Level.findByName(value.toUpperCase());
+        if (level == null)
+          error("unknown log level: " + value);
+      }
+      else if (s.equals("-from"))
+        from = parseDate(value);
+      else if (s.equals("-to"))
+        to = parseDate(value);
+      else
+        usage();
+    }
+
+    if (files.size() == 0)
+      usage();
+
+    PrintStream out = System.out;
+    for (String file:files)
+    {
+      InputStream is = null;
+      try
+      {
+        is = new BufferedInputStream(new FileInputStream(file));
+        BinaryLogDecoder decoder = new BinaryLogDecoder(is);
+        Message msg = null;
+        while ((msg = decoder.read()) != null)
+        {
+          if (msg.getTime() < from || msg.getTime() > to)
+            continue;
+          if (level != null && (msg.getLevel() == null || msg.getLevel().getValue() < level.getValue()))
+            continue;
+          out.println(msg.toString());
+        }
+      }
+      catch (IOException e)
+      {
+        System.err.println(file + ": " + e.getMessage());
+      }
+      finally
+      {
+        IOUtil.close(is);
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Parst ein Datum im Format "yyyy-MM-dd HH:mm:ss" bzw. "yyyy-MM-dd".
+   * @param s das Datum.
+   * @return das Datum in Millisekunden seit 1970.
+   */
+  private static long parseDate(String s)
+  {
+    String[] patterns = new String[]{"yyyy-MM-dd HH:mm:ss","yyyy-MM-dd HH:mm","yyyy-MM-dd"};
+    for (int i=0;i<patterns.length;++i)
+    {
+      try
+      {
+        SimpleDateFormat df = new SimpleDateFormat(patterns[i]);
+        df.setLenient(false);
+        return df.parse(s).getTime();
+      }
+      catch (ParseException e)
+      {
+        // naechstes Format probieren
+      }
+    }
+    error("invalid date: " + s);
+    return 0L;
+  }
+
+  /**
+   * Gibt eine Fehlermeldung auf STDERR aus und beendet das Programm mit dem
+   * Return-Code 3.
+   * @param message
+   */
+  private static void error(String message)
+  {
+    System.err.println(message);
+    System.exit(3);
+  }
+
+  /**
+   * Gibt die Kommandozeilen-Optionen auf STDERR aus und beendet das Programm mit dem
+   * Return-Code 2.
+   */
+  private static void usage()
+  {
+    PrintStream s = System.err;
+
+    s.println("usage: java -cp de_willuhn_util.jar " + BinaryLogDecoder.class.getName() + " [options] <file> [<file>...]\n");
+    s.println("  options:");
+    s.println("    -level <level>           only messages with at least this level (TRACE, DEBUG, INFO, WARN, ERROR)");
+    s.println("    -from <date>             only messages from this date on (yyyy-MM-dd[ HH:mm[:ss]])");
+    s.println("    -to <date>               only messages up to this date (yyyy-MM-dd[ HH:mm[:ss]])");
+    System.exit(2);
+  }
+}
@@ -0,0 +1,274 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+/**
+ * Benannte Log-Kategorie, typischerweise pro Klasse.
+ * Das Log-Level einer Kategorie wird von der naechsthoeheren Ebene des
+ * Namens geerbt (z.Bsp. "de.willuhn.io.FileCopy" von "de.willuhn.io"),
+ * sofern per {@link Logger#setLevel(String, Level)} nichts anderes festgelegt ist.
+ * Das wirksame Level wird bei jeder Aenderung vorab berechnet, sodass die
+ * Pruefung, ob eine Meldung geloggt wird, nur ein einziges Feld liest.
+ * <p>
+ * Verwendung:
+ * <pre>
+ * private final static Category LOG = Logger.getCategory(MyClass.class);
+ * ...
+ * LOG.debug("connecting to {0}",host);
+ * </pre>
+ */
+public final class Category
+{
+  private final String name;
+
+  // Wertigkeit des wirksamen Levels. Wird vom Logger bei Aenderungen neu gesetzt.
+  private volatile int threshold;
+
+  /**
+   * ct.
+   * @param name Name der Kategorie.
+   * @param threshold Wertigkeit des wirksamen Levels.
+   */
+  Category(String name, int threshold)
+  {
+    this.name      = name;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Liefert den Namen der Kategorie.
+   * @return Name der Kategorie.
+   */
+  public String getName()
+  {
+    return this.name;
+  }
+
+  /**
+   * Liefert das wirksame Log-Level der Kategorie.
+   * @return das wirksame Log-Level.
+   */
+  public Level getLevel()
+  {
+    return Logger.getLevel(this.name);
+  }
+
+  /**
+   * Prueft, ob Meldungen mit dem angegeben Log-Level in dieser Kategorie geloggt werden.
+   * @param l das zu testende Log-Level.
+   * @return true, wenn Meldungen mit dem angegeben Log-Level geloggt werden.
+   */
+  public boolean isLogging(Level l)
+  {
+    return l != null && l.getValue() >= this.threshold;
+  }
+
+  /**
+   * Setzt die Wertigkeit des wirksamen Levels.
+   * @param threshold die Wertigkeit.
+   */
+  void setThreshold(int threshold)
+  {
+    this.threshold = threshold;
+  }
+
+  /**
+   * Liefert die Wertigkeit des wirksamen Levels.
+   * @return die Wertigkeit.
+   */
+  int getThreshold()
+  {
+    return this.threshold;
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "trace" ins Log.
+   * @param message zu loggende Nachricht.
+   */
+  public void trace(String message)
+  {
+    if (Level.TRACE.getValue() >= this.threshold)
+      Logger.log(Level.TRACE,message,null,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "trace" ins Log.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat}.
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public void trace(String pattern, Object... args)
+  {
+    if (Level.TRACE.getValue() >= this.threshold)
+      Logger.log(Level.TRACE,pattern,args,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "trace" ins Log.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public void trace(MessageSupplier supplier)
+  {
+    if (Level.TRACE.getValue() >= this.threshold)
+      Logger.log(Level.TRACE,null,null,supplier,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "debug" ins Log.
+   * @param message zu loggende Nachricht.
+   */
+  public void debug(String message)
+  {
+    if (Level.DEBUG.getValue() >= this.threshold)
+      Logger.log(Level.DEBUG,message,null,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "debug" ins Log.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat}.
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public void debug(String pattern, Object... args)
+  {
+    if (Level.DEBUG.getValue() >= this.threshold)
+      Logger.log(Level.DEBUG,pattern,args,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "debug" ins Log.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public void debug(MessageSupplier supplier)
+  {
+    if (Level.DEBUG.getValue() >= this.threshold)
+      Logger.log(Level.DEBUG,null,null,supplier,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "info" ins Log.
+   * @param message zu loggende Nachricht.
+   */
+  public void info(String message)
+  {
+    if (Level.INFO.getValue() >= this.threshold)
+      Logger.log(Level.INFO,message,null,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "info" ins Log.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat}.
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public void info(String pattern, Object... args)
+  {
+    if (Level.INFO.getValue() >= this.threshold)
+      Logger.log(Level.INFO,pattern,args,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "info" ins Log.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public void info(MessageSupplier supplier)
+  {
+    if (Level.INFO.getValue() >= this.threshold)
+      Logger.log(Level.INFO,null,null,supplier,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "warn" ins Log.
+   * @param message zu loggende Nachricht.
+   */
+  public void warn(String message)
+  {
+    if (Level.WARN.getValue() >= this.threshold)
+      Logger.log(Level.WARN,message,null,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "warn" ins Log.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat}.
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public void warn(String pattern, Object... args)
+  {
+    if (Level.WARN.getValue() >= this.threshold)
+      Logger.log(Level.WARN,pattern,args,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "warn" ins Log.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public void warn(MessageSupplier supplier)
+  {
+    if (Level.WARN.getValue() >= this.threshold)
+      Logger.log(Level.WARN,null,null,supplier,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "error" ins Log.
+   * @param message zu loggende Nachricht.
+   */
+  public void error(String message)
+  {
+    if (Level.ERROR.getValue() >= this.threshold)
+      Logger.log(Level.ERROR,message,null,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "error" ins Log.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat}.
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public void error(String pattern, Object... args)
+  {
+    if (Level.ERROR.getValue() >= this.threshold)
+      Logger.log(Level.ERROR,pattern,args,null,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "error" ins Log.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public void error(MessageSupplier supplier)
+  {
+    if (Level.ERROR.getValue() >= this.threshold)
+      Logger.log(Level.ERROR,null,null,supplier,null);
+  }
+
+  /**
+   * Schreibt den Fehler ins Log.
+   * @param message zu loggende Nachricht.
+   * @param t Exception oder Error.
+   */
+  public void error(String message, Throwable t)
+  {
+    if (Level.ERROR.getValue() >= this.threshold)
+      Logger.log(Level.ERROR,message,null,null,t);
+  }
+
+  /**
+   * Schreibt eine Log-Meldung mit direkter Angabe des Log-Levels.
+   * @param level Log-Level.
+   * @param message zu loggende Nachricht.
+   * @param t optionale Angabe einer Exception.
+   */
+  public void write(Level level, String message, Throwable t)
+  {
+    if (level != null && level.getValue() >= this.threshold)
+      Logger.log(level,message,null,null,t);
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    return this.name;
+  }
+}
@@ -0,0 +1,93 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Zaehler, der auf mehrere Zellen verteilt ist.
+ * Jeder Thread zaehlt in der Zelle, die zu seiner ID gehoert. Die Zellen
+ * liegen in verschiedenen Cache-Lines, sodass loggende Threads sich beim
+ * Zaehlen nicht gegenseitig ausbremsen. Erst beim Auslesen wird summiert.
+ */
+class Counter
+{
+  /**
+   * Anzahl der Zellen. Zweierpotenz, abhaengig von der Anzahl der Prozessoren.
+   */
+  final static int STRIPES = stripes();
+
+  // Abstand der Zellen in longs. 8 * 8 Bytes = eine Cache-Line
+  private final static int PAD = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+  /**
+   * Erhoeht den Zaehler um 1.
+   */
+  void increment()
+  {
+    cells.incrementAndGet(stripe() * PAD);
+  }
+
+  /**
+   * Erhoeht den Zaehler um den angegebenen Wert.
+   * @param x der Wert.
+   */
+  void add(long x)
+  {
+    cells.addAndGet(stripe() * PAD,x);
+  }
+
+  /**
+   * Liefert die Summe aller Zellen.
+   * Waehrend gezaehlt wird, ist sie nur eine Momentaufnahme.
+   * @return die Summe.
+   */
+  long get()
+  {
+    long sum = 0L;
+    for (int i=0;i<STRIPES;++i)
+      sum += cells.get(i * PAD);
+    return sum;
+  }
+
+  /**
+   * Setzt den Zaehler zurueck.
+   */
+  void reset()
+  {
+    for (int i=0;i<STRIPES;++i)
+      cells.set(i * PAD,0L);
+  }
+
+  /**
+   * Liefert die Nummer der Zelle des aktuellen Threads.
+   * @return Nummer der Zelle.
+   */
+  static int stripe()
+  {
+    // Die IDs werden fortlaufend vergeben. Die Multiplikation verteilt sie
+    // trotzdem gleichmaessig, falls nur jeder n-te Thread loggt.
+    long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+    return (int) (h >>> 32) & (STRIPES - 1);
+  }
+
+  /**
+   * Ermittelt die Anzahl der Zellen.
+   * @return die naechste Zweierpotenz ab der Anzahl der Prozessoren, hoechstens 64.
+   */
+  private static int stripes()
+  {
+    int cpus = Math.min(Runtime.getRuntime().availableProcessors(),64);
+    int n = 1;
+    while (n < cpus)
+      n <<= 1;
+    return n;
+  }
+}
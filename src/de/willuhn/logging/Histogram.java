@@ -0,0 +1,163 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Einfaches Histogramm fuer Latenzen in Nanosekunden.
+ * Die Werte werden in Zweierpotenz-Klassen gezaehlt. Die Perzentile sind
+ * daher nur auf den Faktor 2 genau, dafuer kommt das Erfassen ohne Lock
+ * und ohne Objekt-Erzeugung aus. Wie beim {@link Counter} zaehlt jeder
+ * Thread in einer eigenen Zeile, erst beim Auslesen wird summiert.
+ */
+public class Histogram
+{
+  // Pro Zeile 63 Klassen und die Summe der Werte. Die Klasse 63 wird nie
+  // benoetigt, da die Werte nicht negativ sind. Auf 72 longs aufgerundet,
+  // damit die Zeilen nicht in derselben Cache-Line liegen.
+  private final static int SUM    = 63;
+  private final static int STRIDE = 72;
+
+  private final int stripes;
+  private final AtomicLongArray cells;
+  private final AtomicLong max = new AtomicLong(0L);
+
+  /**
+   * ct.
+   */
+  public Histogram()
+  {
+    this(Counter.STRIPES);
+  }
+
+  /**
+   * ct.
+   * @param stripes Anzahl der Zeilen.
+   */
+  private Histogram(int stripes)
+  {
+    this.stripes = stripes;
+    this.cells   = new AtomicLongArray(stripes * STRIDE);
+  }
+
+  /**
+   * Erfasst einen Wert.
+   * @param nanos der Wert in Nanosekunden.
+   */
+  void record(long nanos)
+  {
+    if (nanos < 0L)
+      nanos = 0L;
+
+    // Klasse i enthaelt die Werte von 2^i bis 2^(i+1)-1
+    int row = (Counter.stripe() & (this.stripes - 1)) * STRIDE;
+    cells.incrementAndGet(row + (nanos == 0L ? 0 : 63 - Long.numberOfLeadingZeros(nanos)));
+    cells.addAndGet(row + SUM,nanos);
+
+    // Neue Maxima sind selten - meist bleibt es beim Lesen
+    long m = max.get();
+    while (nanos > m && !max.compareAndSet(m,nanos))
+      m = max.get();
+  }
+
+  /**
+   * Liefert eine Kopie des aktuellen Stands.
+   * @return Kopie des Histogramms.
+   */
+  public Histogram snapshot()
+  {
+    Histogram h = new Histogram(1);
+    for (int i=0;i<STRIDE;++i)
+      h.cells.set(i,get(i));
+    h.max.set(this.max.get());
+    return h;
+  }
+
+  /**
+   * Liefert die Anzahl der erfassten Werte.
+   * @return Anzahl der Werte.
+   */
+  public long getCount()
+  {
+    long c = 0L;
+    for (int i=0;i<SUM;++i)
+      c += get(i);
+    return c;
+  }
+
+  /**
+   * Liefert den Durchschnitt der erfassten Werte.
+   * @return Durchschnitt in Nanosekunden.
+   */
+  public long getMean()
+  {
+    long c = getCount();
+    return c == 0L ? 0L : get(SUM) / c;
+  }
+
+  /**
+   * Liefert den groessten erfassten Wert.
+   * @return groesster Wert in Nanosekunden.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * Liefert das angegebene Perzentil.
+   * @param percent das Perzentil, z.Bsp. 99.0.
+   * @return Obergrenze der Klasse, in die das Perzentil faellt, in Nanosekunden.
+   */
+  public long getPercentile(double percent)
+  {
+    long[] buckets = new long[SUM];
+    long c = 0L;
+    for (int i=0;i<SUM;++i)
+    {
+      buckets[i] = get(i);
+      c += buckets[i];
+    }
+    if (c == 0L)
+      return 0L;
+
+    long rank = (long) Math.ceil(c * percent / 100d);
+    long seen = 0L;
+    for (int i=0;i<SUM;++i)
+    {
+      seen += buckets[i];
+      if (seen >= rank)
+        return Math.min((1L << (i + 1)) - 1L,max.get());
+    }
+    return max.get();
+  }
+
+  /**
+   * Liefert die Summe einer Spalte ueber alle Zeilen.
+   * @param column die Spalte.
+   * @return die Summe.
+   */
+  private long get(int column)
+  {
+    long sum = 0L;
+    for (int i=0;i<this.stripes;++i)
+      sum += cells.get(i * STRIDE + column);
+    return sum;
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    return "count: " + getCount() + ", mean: " + getMean() + "ns, 50%: " + getPercentile(50d) +
+           "ns, 99%: " + getPercentile(99d) + "ns, max: " + getMax() + "ns";
+  }
+}
@@ -13,11 +13,9 @@
 
 package de.willuhn.logging;
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
+import java.text.MessageFormat;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
 import java.util.logging.Handler;
 import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
@@ -34,20 +32,29 @@ import java.util.logging.LogRecord;
 public class JavaLoggingHandler extends Handler
 {
   private final static Handler singleton = new JavaLoggingHandler();
-  
-  private static Map logMapping = new HashMap();
+
+  // Zuordnung der Java-Levels zu unseren, absteigend nach Wertigkeit. Ein
+  // Java-Level wird dem ersten Eintrag zugeordnet, dessen Wertigkeit es erreicht.
+  // Damit werden auch eigene Levels von Anwendungen ohne Lookup abgebildet.
+  private final static int[] JUL_VALUES = new int[] {
+    java.util.logging.Level.SEVERE.intValue(),
+    java.util.logging.Level.WARNING.intValue(),
+    java.util.logging.Level.CONFIG.intValue(),
+    java.util.logging.Level.FINER.intValue(),
+    Integer.MIN_VALUE
+  };
+  private final static Level[] LEVELS = new Level[] {
+    Level.ERROR,
+    Level.WARN,
+    Level.INFO,
+    Level.DEBUG,
+    Level.TRACE
+  };
+
   static
   {
     try
     {
-      logMapping.put(java.util.logging.Level.CONFIG,Level.INFO);
-      logMapping.put(java.util.logging.Level.FINE,Level.DEBUG);
-      logMapping.put(java.util.logging.Level.FINER,Level.DEBUG);
-      logMapping.put(java.util.logging.Level.FINEST,Level.TRACE);
-      logMapping.put(java.util.logging.Level.INFO,Level.INFO);
-      logMapping.put(java.util.logging.Level.SEVERE,Level.ERROR);
-      logMapping.put(java.util.logging.Level.WARNING,Level.WARN);
-
       // Wir deaktivieren alle Logger von Java
       java.util.logging.Logger logger = java.util.logging.Logger.getLogger("");
       Handler[] handlers = logger.getHandlers();
@@ -71,40 +78,52 @@ public class JavaLoggingHandler extends Handler
     }
   }
 
+  /**
+   * Liefert das zum Java-Level passende Log-Level.
+   * @param l das Java-Level.
+   * @return das Log-Level.
+   */
+  static Level toLevel(java.util.logging.Level l)
+  {
+    if (l == null)
+      return Level.DEFAULT;
+    int value = l.intValue();
+    int i = 0;
+    while (value < JUL_VALUES[i])
+      i++;
+    return LEVELS[i];
+  }
+
+  /**
+   * Ueberschrieben, um Meldungen, die ohnehin nicht geloggt wuerden, ohne
+   * Lock und ohne Aufbereitung zu verwerfen. Zuerst werden Level und Filter
+   * des Handlers geprueft, danach die Kategorie. Als Kategorie dient der
+   * Name des Java-Loggers.
+   * @see java.util.logging.Handler#isLoggable(java.util.logging.LogRecord)
+   */
+  public boolean isLoggable(LogRecord record)
+  {
+    if (!super.isLoggable(record))
+      return false;
+    return Logger.isLogging(toLevel(record.getLevel()),record.getLoggerName());
+  }
+
   /**
    * Ueberschrieben, um die Ausgaben in unseren Logger umzuleiten.
+   * Parameter und Exception des Records werden erst im Logger-Thread zum
+   * Text der Meldung zusammengesetzt, der Stacktrace wie bei
+   * {@link Logger#error(String, Throwable)}. Der Zeitpunkt wird aus dem
+   * Record uebernommen, Klasse und Methode ebenfalls - aber erst im
+   * Logger-Thread, da der Record sonst hier den Stack nach dem Aufrufer
+   * durchsucht. Sind sie im Record nicht explizit angegeben, werden sie wie
+   * bei den Meldungen des Loggers selbst aus der Aufrufer-Position ermittelt.
    * @see java.util.logging.Handler#publish(java.util.logging.LogRecord)
    */
-  public synchronized void publish(LogRecord record)
+  public void publish(LogRecord record)
   {
-    if (record == null)
+    if (!isLoggable(record))
       return;
-    
-    Level level = (Level) logMapping.get(record.getLevel());
-    if (level == null)
-      level = Level.DEFAULT;
-        
-    String message = record.getMessage();
-    Throwable t    = record.getThrown();
-    
-    if (t != null)
-    {
-      ByteArrayOutputStream bos = null;
-      try {
-        bos = new ByteArrayOutputStream();
-        t.printStackTrace(new PrintStream(bos));
-        message += "\n" + bos.toString();
-      }
-      finally {
-        try {
-          bos.close();
-        }
-        catch (Exception npe) {}
-      }
-    }
-    
-    Message msg = new Message(new Date(record.getMillis()),level,record.getSourceClassName(),record.getSourceMethodName(),message);
-    Logger.write(msg);
+    Logger.log(toLevel(record.getLevel()),record.getMillis(),record,null,null,new RecordText(record),record.getThrown());
   }
 
   /**
@@ -122,6 +141,76 @@ public class JavaLoggingHandler extends Handler
   }
   
   
+  /**
+   * Setzt den Text eines Records im Logger-Thread zusammen.
+   * Das Verhalten entspricht dem von {@link java.util.logging.Formatter#formatMessage(LogRecord)}.
+   */
+  private static class RecordText implements MessageSupplier
+  {
+    private final LogRecord record;
+
+    /**
+     * ct.
+     * @param record der Record.
+     */
+    private RecordText(LogRecord record)
+    {
+      this.record = record;
+    }
+
+    /**
+     * @see de.willuhn.logging.MessageSupplier#get()
+     */
+    public String get()
+    {
+      String text = record.getMessage();
+      ResourceBundle bundle = record.getResourceBundle();
+      if (bundle != null && text != null)
+      {
+        try
+        {
+          text = bundle.getString(text);
+        }
+        catch (MissingResourceException e)
+        {
+          // dann eben der Original-Text
+        }
+      }
+
+      Object[] params = record.getParameters();
+      if (text != null && params != null && params.length > 0 && hasPlaceholder(text))
+      {
+        try
+        {
+          text = MessageFormat.format(text,params);
+        }
+        catch (IllegalArgumentException e)
+        {
+          // dann eben der Original-Text
+        }
+      }
+
+      return text;
+    }
+
+    /**
+     * Prueft, ob der Text Platzhalter der Form "{0}" enthaelt.
+     * @param text der Text.
+     * @return true, wenn er Platzhalter enthaelt.
+     */
+    private static boolean hasPlaceholder(String text)
+    {
+      int i = text.indexOf('{');
+      while (i != -1 && i + 1 < text.length())
+      {
+        if (Character.isDigit(text.charAt(i + 1)))
+          return true;
+        i = text.indexOf('{',i + 1);
+      }
+      return false;
+    }
+  }
+
 }
 
 
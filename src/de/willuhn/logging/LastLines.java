@@ -0,0 +1,126 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Haelt die letzten Log-Meldungen in einem Ring fester Groesse.
+ * Geschrieben wird nur vom Logger-Thread, und zwar ohne Lock: Die Daten der
+ * Meldung werden in den Eintrag der laufenden Nummer kopiert und verdraengen
+ * dabei die aelteste. Leser blockieren den Logger-Thread nicht.
+ * <p>
+ * Die Eintraege gehoeren dem Ring und werden wiederverwendet, sodass auch
+ * im Garbage-freien Modus nichts erzeugt wird. Jeder Eintrag traegt eine
+ * Versionsnummer (Seqlock): Der Logger-Thread setzt sie vor dem Beschreiben
+ * auf 0 und danach auf die laufende Nummer der Meldung. Leser pruefen sie
+ * vor und nach dem Kopieren und lassen den Eintrag weg, wenn er sich
+ * zwischendurch geaendert hat. Da alle Felder volatile sind, kann keines
+ * der Lese-Zugriffe hinter die zweite Pruefung rutschen.
+ */
+class LastLines
+{
+  private final Entry[] entries;
+
+  // Anzahl der abgeschlossenen Eintragungen
+  private volatile long count = 0L;
+
+  /**
+   * ct.
+   * @param size Anzahl der zu merkenden Meldungen.
+   */
+  LastLines(int size)
+  {
+    this.entries = new Entry[size];
+    for (int i=0;i<size;++i)
+      this.entries[i] = new Entry();
+  }
+
+  /**
+   * Traegt die Meldung ein und verdraengt dabei ggf. die aelteste.
+   * Darf nur vom Logger-Thread aufgerufen werden.
+   * @param msg die Meldung.
+   */
+  void record(Message msg)
+  {
+    // Text und Aufrufer gleich hier aufloesen, damit das nicht bei den Lesern passiert
+    String text   = msg.getText();
+    String clazz  = msg.getLoggingClass();
+    String method = msg.getLoggingMethod();
+
+    long n = this.count;
+    Entry e = this.entries[(int) (n % this.entries.length)];
+
+    e.stamp  = 0L; // wird gerade beschrieben
+    e.time   = msg.getTime();
+    e.level  = msg.getLevel();
+    e.host   = msg.getHost();
+    e.clazz  = clazz;
+    e.method = method;
+    e.text   = text;
+    e.thrown = msg.getThrowable();
+    e.stamp  = n + 1;
+
+    this.count = n + 1;
+  }
+
+  /**
+   * Liefert Kopien der gemerkten Meldungen, die aelteste zuerst.
+   * @return Kopien der Meldungen.
+   */
+  Message[] toArray()
+  {
+    int size = this.entries.length;
+    long end = this.count;
+    long first = Math.max(0L,end - size);
+
+    List<Message> result = new ArrayList<Message>((int) (end - first));
+    for (long k=first;k<end;++k)
+    {
+      Entry e = this.entries[(int) (k % size)];
+
+      // Eintrag k traegt die Nummer k + 1. Eine andere Nummer bedeutet,
+      // dass er inzwischen verdraengt wurde bzw. gerade beschrieben wird.
+      long stamp = e.stamp;
+      if (stamp != k + 1)
+        continue;
+
+      long time        = e.time;
+      Level level      = e.level;
+      String host      = e.host;
+      String clazz     = e.clazz;
+      String method    = e.method;
+      String text      = e.text;
+      Throwable thrown = e.thrown;
+
+      if (e.stamp != stamp)
+        continue;
+
+      Message c = new Message();
+      c.initResolved(time,level,host,clazz,method,text,thrown);
+      result.add(c);
+    }
+    return result.toArray(new Message[result.size()]);
+  }
+
+  /**
+   * Ein Eintrag des Rings.
+   */
+  private static class Entry
+  {
+    private volatile long stamp      = 0L;
+    private volatile long time       = 0L;
+    private volatile Level level     = null;
+    private volatile String host     = null;
+    private volatile String clazz    = null;
+    private volatile String method   = null;
+    private volatile String text     = null;
+    private volatile Throwable thrown = null;
+  }
+}
@@ -0,0 +1,701 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import de.willuhn.io.IOUtil;
+import de.willuhn.logging.targets.ArchiveIndex;
+
+/**
+ * Durchsucht die von {@link de.willuhn.logging.targets.LogrotateTarget}
+ * geschriebenen Log-Dateien und Archive nach Meldungen.
+ * Liegt zum Archiv ein {@link ArchiveIndex}, werden nur die Bloecke gelesen
+ * und entpackt, die laut Index passende Meldungen enthalten koennen. Ohne
+ * Index wird die ganze Datei gelesen.
+ * Kann auch von der Kommandozeile aus aufgerufen werden.
+ * <p>
+ * Die Zeilen werden wieder in Log-Meldungen zerlegt. Zeilen, die nicht mit
+ * den Feldern einer Log-Meldung beginnen (z.Bsp. Stacktraces), gehoeren zur
+ * vorherigen Meldung. Zeitstempel, die sich nicht parsen lassen, werden
+ * beim Filtern nach Zeitraum nicht beruecksichtigt.
+ */
+public class LogArchiveReader
+{
+  private final File file;
+  private final ArchiveIndex index;
+  private Charset charset = Charset.defaultCharset();
+
+  private long from    = Long.MIN_VALUE;
+  private long to      = Long.MAX_VALUE;
+  private Level level  = null;
+  private String clazz = null;
+
+  private TimestampFormat[] formats = null;
+  private int lastFormat = 0;
+
+  // Zuletzt geparster Zeitstempel. Meist folgen viele Zeilen mit demselben.
+  private String lastText = null;
+  private long lastTime   = 0L;
+
+  // Noch zu lesende Bloecke. Bei null wird die ganze Datei gelesen.
+  private List<ArchiveIndex.Block> blocks = null;
+  private int next = 0;
+  private boolean started = false;
+
+  private RandomAccessFile raf = null;
+  private BufferedReader reader = null;
+
+  // Bereits gelesene erste Zeile der naechsten Meldung
+  private String line = null;
+  private Header header = null;
+
+  private int blocksRead = 0;
+
+  /**
+   * ct.
+   * @param file die Log-Datei bzw. das Archiv.
+   * @throws IOException wenn der vorhandene Index nicht gelesen werden kann.
+   */
+  public LogArchiveReader(File file) throws IOException
+  {
+    this.file = file;
+    File f = ArchiveIndex.getFile(file);
+    this.index = f.exists() ? ArchiveIndex.read(f) : null;
+    if (this.index != null && this.index.getCharset() != null)
+      this.charset = Charset.forName(this.index.getCharset());
+  }
+
+  /**
+   * Liefert den Index des Archivs.
+   * @return der Index oder <code>null</code>, wenn keiner vorhanden ist.
+   */
+  public ArchiveIndex getIndex()
+  {
+    return this.index;
+  }
+
+  /**
+   * Legt fest, dass nur Meldungen ab diesem Zeitpunkt geliefert werden.
+   * @param from Zeitpunkt in Millisekunden seit 1970.
+   */
+  public void setFrom(long from)
+  {
+    this.from = from;
+  }
+
+  /**
+   * Legt fest, dass nur Meldungen bis zu diesem Zeitpunkt geliefert werden.
+   * @param to Zeitpunkt in Millisekunden seit 1970.
+   */
+  public void setTo(long to)
+  {
+    this.to = to;
+  }
+
+  /**
+   * Legt fest, dass nur Meldungen ab diesem Level geliefert werden.
+   * @param level das Level.
+   */
+  public void setLevel(Level level)
+  {
+    this.level = level;
+  }
+
+  /**
+   * Legt fest, dass nur Meldungen von Klassen geliefert werden, deren Name
+   * damit beginnt. Damit kann auch nach Packages gesucht werden.
+   * @param clazz Name bzw. Anfang des Namens der Klasse.
+   */
+  public void setLoggingClass(String clazz)
+  {
+    this.clazz = clazz;
+  }
+
+  /**
+   * Legt das Format der Zeitstempel fest.
+   * Default: Das beim Logger eingestellte Format, ersatzweise die
+   * vordefinierten Formate von {@link TimestampFormat}.
+   * @param format das Format.
+   */
+  public void setTimestampFormat(TimestampFormat format)
+  {
+    this.formats = new TimestampFormat[]{format.newInstance()};
+    this.lastFormat = 0;
+  }
+
+  /**
+   * Legt den Zeichensatz der Datei fest, falls kein Index vorhanden ist.
+   * Default: Der Default-Zeichensatz der Plattform.
+   * @param encoding Name des Zeichensatzes, z.Bsp. "UTF-8".
+   */
+  public void setEncoding(String encoding)
+  {
+    if (this.index == null)
+      this.charset = Charset.forName(encoding);
+  }
+
+  /**
+   * Liefert die Anzahl der bisher gelesenen Bloecke.
+   * @return Anzahl der gelesenen Bloecke.
+   */
+  public int getBlocksRead()
+  {
+    return this.blocksRead;
+  }
+
+  /**
+   * Liest die naechste passende Log-Meldung.
+   * @return die Log-Meldung oder <code>null</code>, wenn das Ende erreicht ist.
+   * @throws IOException
+   */
+  public Message read() throws IOException
+  {
+    if (!this.started)
+      start();
+
+    while (true)
+    {
+      if (this.reader == null && !nextBlock())
+        return null;
+
+      Message msg = readMessage();
+      if (msg == null)
+      {
+        closeBlock();
+        continue;
+      }
+      if (accept(msg))
+        return msg;
+    }
+  }
+
+  /**
+   * Schliesst die Datei.
+   */
+  public void close()
+  {
+    closeBlock();
+    IOUtil.close(this.raf);
+    this.raf = null;
+  }
+
+  /**
+   * Ermittelt die zu lesenden Bloecke.
+   * @throws IOException
+   */
+  private void start() throws IOException
+  {
+    this.started = true;
+    if (this.formats == null)
+    {
+      this.formats = new TimestampFormat[]{
+        Message.getTimestampFormat().newInstance(),
+        TimestampFormat.date(),
+        TimestampFormat.iso8601(),
+        TimestampFormat.iso8601UTC(),
+        TimestampFormat.epoch()
+      };
+    }
+
+    if (this.index == null)
+      return;
+
+    this.blocks = new ArrayList<ArchiveIndex.Block>();
+    for (ArchiveIndex.Block b:this.index.getBlocks())
+    {
+      if (b.matches(this.from,this.to,this.level,this.clazz))
+        this.blocks.add(b);
+    }
+    if (this.blocks.size() > 0)
+      this.raf = new RandomAccessFile(this.file,"r");
+  }
+
+  /**
+   * Oeffnet den naechsten zu lesenden Block.
+   * @return true, wenn ein Block geoeffnet wurde, false, wenn keiner mehr vorhanden ist.
+   * @throws IOException
+   */
+  private boolean nextBlock() throws IOException
+  {
+    InputStream is = null;
+    if (this.blocks == null)
+    {
+      // Ohne Index die ganze Datei, aber nur einmal
+      if (this.blocksRead > 0)
+        return false;
+      is = new FileInputStream(this.file);
+      if (this.file.getName().endsWith(".gz"))
+        is = new GZIPInputStream(is,64 * 1024);
+    }
+    else
+    {
+      if (this.next >= this.blocks.size())
+        return false;
+      ArchiveIndex.Block b = this.blocks.get(this.next++);
+      is = new Range(this.raf,b.getOffset(),b.getLength());
+      if (this.index.isCompressed())
+        is = new GZIPInputStream(is,64 * 1024);
+    }
+    this.blocksRead++;
+    this.reader = new BufferedReader(new InputStreamReader(is,this.charset),64 * 1024);
+    return true;
+  }
+
+  /**
+   * Schliesst den aktuellen Block.
+   */
+  private void closeBlock()
+  {
+    IOUtil.close(this.reader);
+    this.reader = null;
+    this.line = null;
+    this.header = null;
+  }
+
+  /**
+   * Liest die naechste Log-Meldung aus dem aktuellen Block.
+   * @return die Log-Meldung oder <code>null</code>, wenn das Ende des Blocks erreicht ist.
+   * @throws IOException
+   */
+  private Message readMessage() throws IOException
+  {
+    String s = this.line;
+    Header h = this.header;
+    this.line = null;
+    this.header = null;
+    if (s == null)
+    {
+      s = this.reader.readLine();
+      if (s == null)
+        return null;
+      h = parseHeader(s);
+    }
+
+    StringBuilder text = new StringBuilder(h != null ? h.text : s);
+    String l = null;
+    while ((l = this.reader.readLine()) != null)
+    {
+      Header next = parseHeader(l);
+      if (next != null)
+      {
+        this.line = l;
+        this.header = next;
+        break;
+      }
+      text.append('\n').append(l);
+    }
+
+    if (h == null)
+      return new Message(null,null,null,null,null,text.toString());
+    Date date = h.time == 0L ? null : new Date(h.time);
+    return new Message(date,h.level,h.host,h.clazz,h.method,text.toString());
+  }
+
+  /**
+   * Prueft, ob die Meldung den Kriterien entspricht.
+   * @param msg die Meldung.
+   * @return true, wenn sie den Kriterien entspricht.
+   */
+  private boolean accept(Message msg)
+  {
+    long time = msg.getTime();
+    if (time != 0L && (time < this.from || time > this.to))
+      return false;
+    if (this.level != null && (msg.getLevel() == null || msg.getLevel().getValue() < this.level.getValue()))
+      return false;
+    if (this.clazz != null && (msg.getLoggingClass() == null || !msg.getLoggingClass().startsWith(this.clazz)))
+      return false;
+    return true;
+  }
+
+  /**
+   * Zerlegt die Felder am Anfang einer Zeile im Format von {@link Message#toString()}:
+   * "[Host][Zeitstempel][Level][Klasse.Methode] Text".
+   * Host, Zeitstempel sowie Klasse und Methode sind optional.
+   * @param s die Zeile.
+   * @return die Felder oder <code>null</code>, wenn die Zeile nicht mit einer Log-Meldung beginnt.
+   */
+  private Header parseHeader(String s)
+  {
+    if (s.length() == 0 || s.charAt(0) != '[')
+      return null;
+
+    List<String> fields = new ArrayList<String>(4);
+    int pos = 0;
+    while (pos < s.length() && s.charAt(pos) == '[' && fields.size() < 4)
+    {
+      int end = s.indexOf(']',pos);
+      if (end < 0)
+        return null;
+      fields.add(s.substring(pos + 1,end));
+      pos = end + 1;
+    }
+    if (pos >= s.length() || s.charAt(pos) != ' ')
+      return null;
+
+    int l = -1;
+    Level level = null;
+    for (int i=0;i<fields.size() && level == null;++i)
+    {
+      level = Level.findByName(fields.get(i));
+      l = i;
+    }
+    if (level == null || l > 2 || fields.size() - l > 2)
+      return null;
+
+    Header h = new Header();
+    h.level = level;
+    h.text  = s.substring(pos + 1);
+    if (l == 2)
+    {
+      h.host = fields.get(0);
+      h.time = parseTime(fields.get(1));
+    }
+    else if (l == 1)
+    {
+      h.time = parseTime(fields.get(0));
+      if (h.time == 0L)
+        h.host = fields.get(0);
+    }
+    if (l + 1 < fields.size())
+    {
+      String cm = fields.get(l + 1);
+      int dot = cm.lastIndexOf('.');
+      if (dot < 0)
+        return null;
+      h.clazz  = cm.substring(0,dot);
+      h.method = cm.substring(dot + 1);
+    }
+    return h;
+  }
+
+  /**
+   * Parst den Zeitstempel.
+   * Das zuletzt erfolgreiche Format wird zuerst probiert.
+   * @param s der Zeitstempel.
+   * @return Zeitstempel in Millisekunden oder 0, wenn er nicht geparst werden konnte.
+   */
+  private long parseTime(String s)
+  {
+    if (s.equals(this.lastText))
+      return this.lastTime;
+    this.lastText = s;
+    this.lastTime = parseTime0(s);
+    return this.lastTime;
+  }
+
+  /**
+   * Parst den Zeitstempel ohne Cache.
+   * @param s der Zeitstempel.
+   * @return Zeitstempel in Millisekunden oder 0, wenn er nicht geparst werden konnte.
+   */
+  private long parseTime0(String s)
+  {
+    for (int i=0;i<this.formats.length;++i)
+    {
+      int k = (this.lastFormat + i) % this.formats.length;
+      try
+      {
+        long time = this.formats[k].parse(s);
+        this.lastFormat = k;
+        return time;
+      }
+      catch (ParseException e)
+      {
+        // naechstes Format probieren
+      }
+    }
+    return 0L;
+  }
+
+  /**
+   * Die Felder am Anfang einer Zeile.
+   */
+  private static class Header
+  {
+    private String host   = null;
+    private long time     = 0L;
+    private Level level   = null;
+    private String clazz  = null;
+    private String method = null;
+    private String text   = null;
+  }
+
+  /**
+   * Liest einen Ausschnitt der Datei.
+   */
+  private static class Range extends InputStream
+  {
+    private final RandomAccessFile raf;
+    private long pos;
+    private long remaining;
+
+    /**
+     * ct.
+     * @param raf die Datei.
+     * @param offset Beginn des Ausschnitts.
+     * @param length Laenge des Ausschnitts.
+     */
+    private Range(RandomAccessFile raf, long offset, long length)
+    {
+      this.raf       = raf;
+      this.pos       = offset;
+      this.remaining = length;
+    }
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException
+    {
+      byte[] b = new byte[1];
+      return read(b,0,1) == -1 ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (this.remaining <= 0L)
+        return -1;
+      this.raf.seek(this.pos);
+      int read = this.raf.read(b,off,(int) Math.min(len,this.remaining));
+      if (read > 0)
+      {
+        this.pos += read;
+        this.remaining -= read;
+      }
+      return read;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException
+    {
+      return (int) Math.min(Integer.MAX_VALUE,this.remaining);
+    }
+
+    /**
+     * Die Datei wird von {@link LogArchiveReader#close()} geschlossen.
+     * @see java.io.InputStream#close()
+     */
+    public void close() throws IOException
+    {
+    }
+  }
+
+  /**
+   * Durchsucht die angegebenen Log-Dateien und gibt die passenden Meldungen auf STDOUT aus.
+   * @param args Kommandozeilen-Parameter.
+   * @throws Exception
+   */
+  public final static void main(String[] args) throws Exception
+  {
+    if (args == null || args.length == 0)
+      usage();
+
+    Level level     = null;
+    long from       = Long.MIN_VALUE;
+    long to         = Long.MAX_VALUE;
+    String clazz    = null;
+    String encoding = null;
+    TimestampFormat format = null;
+    boolean stats   = false;
+    List<String> files = new ArrayList<String>();
+
+    for (int i=0;i<args.length;++i)
+    {
+      String s = args[i].trim();
+      if (s.length() == 0)
+        continue;
+
+      if (!s.startsWith("-"))
+      {
+        files.add(s);
+        continue;
+      }
+
+      if (s.equals("-stats"))
+      {
+        stats = true;
+        continue;
+      }
+
+      if (i + 1 >= args.length)
+        usage();
+      String value = args[++i].trim();
+
+      if (s.equals("-level"))
+      {
+        level = Level.findByName(value.toUpperCase());
+        if (level == null)
+          error("unknown log level: " + value);
+      }
+      else if (s.equals("-from"))
+        from = parseDate(value);
+      else if (s.equals("-to"))
+        to = parseDate(value);
+      else if (s.equals("-class"))
+        clazz = value;
+      else if (s.equals("-encoding"))
+        encoding = value;
+      else if (s.equals("-format"))
+        format = parseFormat(value);
+      else
+        usage();
+    }
+
+    if (files.size() == 0)
+      usage();
+
+    // Die Meldungen im selben Format wieder ausgeben
+    if (format != null)
+      Message.setTimestampFormat(format);
+
+    PrintStream out = System.out;
+    for (String file:files)
+    {
+      LogArchiveReader reader = null;
+      try
+      {
+        long start = System.currentTimeMillis();
+        reader = new LogArchiveReader(new File(file));
+        reader.setFrom(from);
+        reader.setTo(to);
+        reader.setLevel(level);
+        reader.setLoggingClass(clazz);
+        if (format != null)
+          reader.setTimestampFormat(format);
+        if (encoding != null)
+          reader.setEncoding(encoding);
+
+        int found = 0;
+        Message msg = null;
+        while ((msg = reader.read()) != null)
+        {
+          out.println(msg.toString());
+          found++;
+        }
+
+        if (stats)
+        {
+          ArchiveIndex index = reader.getIndex();
+          String blocks = index == null ? "no index" : (reader.getBlocksRead() + " of " + index.getBlocks().size() + " blocks read");
+          System.err.println(file + ": " + found + " messages, " + blocks + ", " + (System.currentTimeMillis() - start) + " ms");
+        }
+      }
+      catch (IOException e)
+      {
+        System.err.println(file + ": " + e.getMessage());
+      }
+      finally
+      {
+        if (reader != null)
+          reader.close();
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Parst das Format der Zeitstempel.
+   * @param s "date", "iso8601", "epoch" oder ein Muster von SimpleDateFormat.
+   * @return das Format.
+   */
+  private static TimestampFormat parseFormat(String s)
+  {
+    if (s.equals("date"))
+      return TimestampFormat.date();
+    if (s.equals("iso8601"))
+      return TimestampFormat.iso8601();
+    if (s.equals("epoch"))
+      return TimestampFormat.epoch();
+    try
+    {
+      return TimestampFormat.pattern(s);
+    }
+    catch (IllegalArgumentException e)
+    {
+      error("invalid timestamp format: " + s);
+      return null;
+    }
+  }
+
+  /**
+   * Parst ein Datum im Format "yyyy-MM-dd HH:mm:ss" bzw. "yyyy-MM-dd".
+   * @param s das Datum.
+   * @return das Datum in Millisekunden seit 1970.
+   */
+  private static long parseDate(String s)
+  {
+    String[] patterns = new String[]{"yyyy-MM-dd HH:mm:ss","yyyy-MM-dd HH:mm","yyyy-MM-dd"};
+    for (int i=0;i<patterns.length;++i)
+    {
+      try
+      {
+        SimpleDateFormat df = new SimpleDateFormat(patterns[i]);
+        df.setLenient(false);
+        return df.parse(s).getTime();
+      }
+      catch (ParseException e)
+      {
+        // naechstes Format probieren
+      }
+    }
+    error("invalid date: " + s);
+    return 0L;
+  }
+
+  /**
+   * Gibt eine Fehlermeldung auf STDERR aus und beendet das Programm mit dem
+   * Return-Code 3.
+   * @param message
+   */
+  private static void error(String message)
+  {
+    System.err.println(message);
+    System.exit(3);
+  }
+
+  /**
+   * Gibt die Kommandozeilen-Optionen auf STDERR aus und beendet das Programm mit dem
+   * Return-Code 2.
+   */
+  private static void usage()
+  {
+    PrintStream s = System.err;
+
+    s.println("usage: java -cp de_willuhn_util.jar " + LogArchiveReader.class.getName() + " [options] <file> [<file>...]\n");
+    s.println("  options:");
+    s.println("    -level <level>           only messages with at least this level (TRACE, DEBUG, INFO, WARN, ERROR)");
+    s.println("    -from <date>             only messages from this date on (yyyy-MM-dd[ HH:mm[:ss]])");
+    s.println("    -to <date>               only messages up to this date (yyyy-MM-dd[ HH:mm[:ss]])");
+    s.println("    -class <name>            only messages from classes starting with this name");
+    s.println("    -format <format>         timestamp format of the log file (date, iso8601, epoch or a SimpleDateFormat pattern)");
+    s.println("    -encoding <charset>      charset of log files without index");
+    s.println("    -stats                   print number of messages and blocks read to STDERR");
+    System.exit(2);
+  }
+}
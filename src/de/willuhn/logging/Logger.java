@@ -13,18 +13,36 @@
 
 package de.willuhn.logging;
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Date;
+import java.io.Flushable;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.LogRecord;
 
+import javax.management.ObjectName;
+
+import de.willuhn.logging.targets.BatchTarget;
+import de.willuhn.logging.targets.Syncable;
 import de.willuhn.logging.targets.Target;
-import de.willuhn.util.History;
-import de.willuhn.util.Queue;
-import de.willuhn.util.Queue.QueueFullException;
+import de.willuhn.util.RingBuffer;
 
 /**
  * Kleiner System-Logger.
+ * <p>
+ * Bei den statischen Funktionen wie {@link #info(String)} ermittelt der
+ * Logger Klasse und Methode des Aufrufers selbst. Dafuer wird im loggenden
+ * Thread ein Throwable erzeugt, das den kompletten Stack festhaelt - das
+ * kostet mit der Tiefe des Stacks. Nur das Auswerten erfolgt im Logger-Thread.
+ * Das passiert erst, nachdem Level und Kategorie geprueft wurden, Meldungen
+ * unterhalb des Levels kosten also nichts davon. Wer es auch bei den anderen
+ * sparen will, gibt die Klasse per {@link Category} bzw.
+ * {@link #write(Level, String, String, String, String, Throwable)} an oder
+ * begrenzt es per {@link #setCallerLevel(Level)}.
  * @author willuhn
  */
 public class Logger
@@ -33,21 +51,125 @@ public class Logger
   // maximale Groesse des Log-Puffers (Zeilen-Anzahl)
   private final static int BUFFER_SIZE = 200;
 
-	// Die Liste der Log-Targets
-	private static ArrayList targets = new ArrayList();
+
+  /**
+   * Name des System-Properties, ueber das die Kapazitaet der Log-Queue festgelegt werden kann.
+   * Default: 4096 Meldungen.
+   */
+  public final static String PROPERTY_QUEUE_SIZE = "de.willuhn.logging.queue.size";
+
+  /**
+   * Name des System-Properties, ueber das das Verhalten bei voller Log-Queue festgelegt werden kann.
+   * Moegliche Werte siehe {@link OverflowPolicy}. Default: STDOUT.
+   */
+  public final static String PROPERTY_QUEUE_OVERFLOW = "de.willuhn.logging.queue.overflow";
+
+  /**
+   * Name des System-Properties, ueber das der Garbage-freie Modus aktiviert werden kann.
+   * Siehe {@link Logger#setGarbageFree(boolean)}. Default: false.
+   */
+  public final static String PROPERTY_GARBAGE_FREE = "de.willuhn.logging.garbagefree";
+
+  /**
+   * Legt fest, was passieren soll, wenn die Log-Queue voll ist.
+   */
+  public static enum OverflowPolicy
+  {
+    /**
+     * Der schreibende Thread wartet, bis wieder Platz in der Queue ist.
+     */
+    BLOCK,
+
+    /**
+     * Die neue Meldung wird verworfen.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Die aelteste Meldung in der Queue wird verworfen.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Die neue Meldung wird direkt auf STDOUT ausgegeben.
+     */
+    STDOUT
+  }
+
+	// Die Liste der Log-Targets. Der Logger-Thread iteriert ohne Lock ueber
+	// eine Momentaufnahme, Aenderungen sind selten.
+	private final static CopyOnWriteArrayList<Target> targets = new CopyOnWriteArrayList<Target>();
 
   // Eine History mit den letzten Log-Eintraegen. Kann ganz nuetzlich sein,
   // wenn man irgendwo in der Anwendung mal die letzten Zeilen des Logs ansehen will.
-  private static History lastLines = new History(BUFFER_SIZE);
+  private static LastLines lastLines = new LastLines(BUFFER_SIZE);
 
-	private static Level level = Level.DEFAULT;
+	private static volatile Level level = Level.DEFAULT;
+
+  // Abweichende Log-Level einzelner Kategorien bzw. Packages.
+  private final static Map<String,Level> levels = new HashMap<String,Level>();
+
+  // Lock fuer Aenderungen an den Leveln. Kein Monitor, damit wartende
+  // virtuelle Threads ihren Carrier-Thread nicht blockieren.
+  private final static ReentrantLock levelLock = new ReentrantLock();
+
+  // Die bisher angeforderten Kategorien
+  private final static ConcurrentHashMap<String,Category> categories = new ConcurrentHashMap<String,Category>();
+
+  // Niedrigste und hoechste Wertigkeit ueber alle Kategorien. Liegt das Level einer
+  // Meldung ausserhalb, muss die Kategorie nicht ermittelt werden.
+  private static volatile int minLevel = Level.DEFAULT.getValue();
+  private static volatile int maxLevel = Level.DEFAULT.getValue();
+
+  private static volatile OverflowPolicy overflow = OverflowPolicy.STDOUT;
+
+  private static volatile Level callerLevel = Level.TRACE;
+
+  // Zeitfenster, innerhalb dessen gleiche Stacktraces nur einmal ausgegeben werden
+  private static volatile long stackTraceWindow = 60 * 1000L;
+
+  private static volatile boolean garbageFree = Boolean.getBoolean(PROPERTY_GARBAGE_FREE);
+
+  // Pool mit wiederverwendbaren Messages fuer den Garbage-freien Modus
+  private static RingBuffer<Message> pool = null;
 
 	private static LoggerThread lt = null;
+
+  // Laufzeit-Statistiken
+  private static LoggerMonitor monitor = null;
+
+  // Ermittelt die aufrufende Klasse fuer die Pruefung der Kategorie
+  private final static CallerContext CALLER_CONTEXT = createCallerContext();
 	
 	static
 	{
-		lt = new LoggerThread("Logger-Thread");
+    String policy = System.getProperty(PROPERTY_QUEUE_OVERFLOW);
+    if (policy != null && policy.length() > 0)
+    {
+      try
+      {
+        overflow = OverflowPolicy.valueOf(policy.trim().toUpperCase());
+      }
+      catch (IllegalArgumentException e)
+      {
+        System.err.println("invalid value for " + PROPERTY_QUEUE_OVERFLOW + ": " + policy);
+      }
+    }
+		int capacity = Integer.getInteger(PROPERTY_QUEUE_SIZE,4096).intValue();
+		pool = new RingBuffer<Message>(capacity);
+		lt = new LoggerThread("Logger-Thread",capacity);
+		monitor = new LoggerMonitor(lt.queue);
 		lt.start();
+
+		try
+		{
+		  ManagementFactory.getPlatformMBeanServer().registerMBean(monitor,new ObjectName(LoggerMonitor.OBJECT_NAME));
+		}
+		catch (Throwable t)
+		{
+		  // ignore - z.Bsp. wenn die Klasse von mehreren Classloadern geladen wurde
+		  // und das MBean bereits existiert. Die Statistiken gibts dann nur per getStats().
+		}
 	}
   
 	/**
@@ -58,37 +180,364 @@ public class Logger
 	{
 		if (target == null)
 			return;
-		synchronized (targets)
-		{
-			targets.add(target);
-		}
+		if (!(target instanceof TargetQueue))
+		  monitor.target(target);
+		targets.add(target);
 	}
 
+  /**
+   * Fuegt der Liste der Ausgabe-Targets ein weiteres hinzu, welches eine eigene
+   * Queue und einen eigenen Thread erhaelt. Ein langsames Target (z.Bsp. ein
+   * nicht erreichbarer Syslog-Server) bremst so die anderen Targets nicht aus.
+   * @param target Ausgabe-Target.
+   * @param capacity Kapazitaet der Queue des Targets.
+   * @param policy Verhalten, wenn die Queue des Targets voll ist.
+   * @param timeout maximale Wartezeit in Millisekunden bei voller Queue und
+   * {@link OverflowPolicy#BLOCK}. Danach wird die Meldung verworfen. Wird auch beim
+   * Schliessen als maximale Wartezeit verwendet. Bei 0 wird beim Schliessen
+   * unbegrenzt und bei voller Queue hoechstens 10 Sekunden gewartet.
+   */
+  public static void addTarget(Target target, int capacity, OverflowPolicy policy, long timeout)
+  {
+    if (target == null)
+      return;
+    TargetQueue queue = new TargetQueue(target,capacity,policy == null ? OverflowPolicy.BLOCK : policy,timeout,monitor.target(target));
+    queue.start();
+    addTarget(queue);
+  }
+
   /**
    * Entfernt ein Target aus der Liste.
+   * Hatte das Target eine eigene Queue, werden die darin noch enthaltenen
+   * Meldungen vorher geschrieben.
    * @param target zu entfernendes Target.
    */
   public static void removeTarget(Target target)
   {
     if (target == null)
       return;
-    synchronized(targets)
+    TargetQueue queue = null;
+    for (Target t:targets)
     {
-      targets.remove(target);
+      if (t == target || (t instanceof TargetQueue && ((TargetQueue)t).getTarget() == target))
+      {
+        // Nur wenn wir es entfernt haben, beenden wir auch die Queue
+        if (targets.remove(t) && (t instanceof TargetQueue))
+          queue = (TargetQueue) t;
+        break;
+      }
     }
+    monitor.remove(target);
+    if (queue != null)
+      queue.shutdown();
   }
 
 	/**
 	 * Setzt den Log-Level.
+	 * Kategorien, fuer die kein eigenes Level festgelegt ist, uebernehmen es.
    * @param level Log-Level.
    */
   public static void setLevel(Level level)
 	{
 		if (level == null)
 			return;
-		Logger.level = level;
+		levelLock.lock();
+		try
+		{
+		  Logger.level = level;
+		  updateLevels();
+		}
+		finally
+		{
+		  levelLock.unlock();
+		}
 	}
 
+  /**
+   * Legt das Log-Level fuer eine Kategorie fest.
+   * Es gilt auch fuer alle darunter liegenden Kategorien, sofern fuer diese
+   * nicht ebenfalls ein Level festgelegt ist. Ein Level fuer "de.willuhn.io"
+   * gilt also z.Bsp. auch fuer "de.willuhn.io.FileCopy".
+   * <p>
+   * Am effizientesten ist die Pruefung fuer Meldungen, die ueber eine
+   * {@link Category} geschrieben werden. Bei den statischen Funktionen
+   * des Loggers muss die aufrufende Klasse ermittelt werden, wenn das
+   * Level der Meldung zwischen den festgelegten Leveln liegt.
+   * @param category Name der Kategorie, typischerweise ein Package- oder Klassen-Name.
+   * @param level Log-Level der Kategorie oder <code>null</code>, um das
+   * Level wieder von der uebergeordneten Kategorie zu erben.
+   */
+  public static void setLevel(String category, Level level)
+  {
+    if (category == null || category.length() == 0)
+    {
+      setLevel(level);
+      return;
+    }
+    levelLock.lock();
+    try
+    {
+      if (level == null)
+        levels.remove(category);
+      else
+        levels.put(category,level);
+      updateLevels();
+    }
+    finally
+    {
+      levelLock.unlock();
+    }
+  }
+
+  /**
+   * Liefert das wirksame Log-Level einer Kategorie.
+   * Das ist das fuer die Kategorie selbst oder die naechste uebergeordnete
+   * Kategorie festgelegte Level bzw. das globale Level.
+   * @param category Name der Kategorie.
+   * @return das wirksame Log-Level.
+   */
+  public static Level getLevel(String category)
+  {
+    levelLock.lock();
+    try
+    {
+      return resolveLevel(category);
+    }
+    finally
+    {
+      levelLock.unlock();
+    }
+  }
+
+  /**
+   * Liefert die Kategorie mit dem angegebenen Namen.
+   * @param name Name der Kategorie.
+   * @return die Kategorie.
+   */
+  public static Category getCategory(String name)
+  {
+    if (name == null)
+      name = "";
+    Category c = categories.get(name);
+    if (c != null)
+      return c;
+
+    levelLock.lock();
+    try
+    {
+      // Innerhalb des Locks anlegen, damit sie eine gleichzeitige
+      // Aenderung der Level nicht verpasst.
+      c = categories.get(name);
+      if (c == null)
+      {
+        c = new Category(name,resolveLevel(name).getValue());
+        categories.put(name,c);
+      }
+      return c;
+    }
+    finally
+    {
+      levelLock.unlock();
+    }
+  }
+
+  /**
+   * Liefert die Kategorie fuer die angegebene Klasse.
+   * @param clazz die Klasse.
+   * @return die Kategorie.
+   */
+  public static Category getCategory(Class<?> clazz)
+  {
+    return getCategory(clazz == null ? null : clazz.getName());
+  }
+
+  /**
+   * Ermittelt das wirksame Level der Kategorie.
+   * Muss innerhalb von <code>levelLock</code> aufgerufen werden.
+   * @param name Name der Kategorie.
+   * @return das wirksame Level.
+   */
+  private static Level resolveLevel(String name)
+  {
+    while (name != null && name.length() > 0)
+    {
+      Level l = levels.get(name);
+      if (l != null)
+        return l;
+      int dot = name.lastIndexOf('.');
+      name = dot == -1 ? null : name.substring(0,dot);
+    }
+    return level;
+  }
+
+  /**
+   * Berechnet die wirksamen Level aller Kategorien neu.
+   * Muss innerhalb von <code>levelLock</code> aufgerufen werden.
+   */
+  private static void updateLevels()
+  {
+    int min = level.getValue();
+    int max = min;
+    Iterator<Level> it = levels.values().iterator();
+    while (it.hasNext())
+    {
+      int v = it.next().getValue();
+      min = Math.min(min,v);
+      max = Math.max(max,v);
+    }
+
+    // Der Bereich wird vor den Kategorien erweitert und erst danach verkleinert.
+    // So wird eine Meldung nie vorab verworfen, obwohl ihre Kategorie sie
+    // bereits bzw. noch loggen wuerde.
+    minLevel = Math.min(minLevel,min);
+    maxLevel = Math.max(maxLevel,max);
+
+    Iterator<Category> ci = categories.values().iterator();
+    while (ci.hasNext())
+    {
+      Category c = ci.next();
+      c.setThreshold(resolveLevel(c.getName()).getValue());
+    }
+
+    minLevel = min;
+    maxLevel = max;
+  }
+
+  /**
+   * Legt fest, was passieren soll, wenn die Log-Queue voll ist.
+   * @param policy das Verhalten bei voller Queue.
+   */
+  public static void setOverflowPolicy(OverflowPolicy policy)
+  {
+    if (policy == null)
+      return;
+    Logger.overflow = policy;
+  }
+
+  /**
+   * Liefert das Verhalten bei voller Log-Queue.
+   * @return das Verhalten bei voller Queue.
+   */
+  public static OverflowPolicy getOverflowPolicy()
+  {
+    return overflow;
+  }
+
+  /**
+   * Aktiviert den Garbage-freien Modus.
+   * Hierbei werden die vom Logger erzeugten Message-Objekte nach dem Schreiben
+   * wiederverwendet, statt fuer jede Log-Meldung ein neues zu erzeugen.
+   * Targets duerfen sich in diesem Modus keine Referenzen auf die Messages merken.
+   * <p>
+   * Klasse und Methode des Aufrufers werden in diesem Modus nicht automatisch
+   * ermittelt, da hierfuer pro Meldung ein Throwable erzeugt werden muesste.
+   * Die Einstellung von {@link #setCallerLevel(Level)} wird dann ignoriert.
+   * Wer auf die Angabe nicht verzichten will, muss sie per
+   * {@link #write(Level, String, String, String, String, Throwable)} explizit
+   * uebergeben oder den Modus deaktiviert lassen.
+   * @param b true, wenn der Garbage-freie Modus aktiv sein soll.
+   */
+  public static void setGarbageFree(boolean b)
+  {
+    Logger.garbageFree = b;
+  }
+
+  /**
+   * Prueft, ob der Garbage-freie Modus aktiv ist.
+   * @return true, wenn der Garbage-freie Modus aktiv ist.
+   */
+  public static boolean isGarbageFree()
+  {
+    return garbageFree;
+  }
+
+  /**
+   * Legt fest, ab welchem Log-Level Klasse und Methode des Aufrufers
+   * ermittelt werden, wenn sie nicht explizit angegeben sind.
+   * Das kostet pro Meldung einen Stack-Snapshot im loggenden Thread.
+   * Default: TRACE - also fuer alle Meldungen.
+   * Im Garbage-freien Modus wird der Aufrufer nie ermittelt (siehe {@link #setGarbageFree(boolean)}).
+   * @param level Mindest-Level. Bei <code>null</code> wird der Aufrufer nie ermittelt.
+   */
+  public static void setCallerLevel(Level level)
+  {
+    Logger.callerLevel = level;
+  }
+
+  /**
+   * Liefert das Log-Level, ab dem Klasse und Methode des Aufrufers ermittelt werden.
+   * @return Mindest-Level oder <code>null</code>, wenn der Aufrufer nie ermittelt wird.
+   */
+  public static Level getCallerLevel()
+  {
+    return callerLevel;
+  }
+
+  /**
+   * Legt das Zeitfenster fest, innerhalb dessen gleiche Stacktraces nur einmal
+   * vollstaendig geloggt werden. Wiederholungen enthalten nur noch die erste
+   * Zeile der Exception und einen Verweis auf die Nummer des Stacktraces.
+   * Default: 60 Sekunden.
+   * @param millis Zeitfenster in Millisekunden. Bei 0 wird jeder Stacktrace vollstaendig geloggt.
+   */
+  public static void setStackTraceWindow(long millis)
+  {
+    Logger.stackTraceWindow = Math.max(0L,millis);
+  }
+
+  /**
+   * Liefert das Zeitfenster, innerhalb dessen gleiche Stacktraces nur einmal
+   * vollstaendig geloggt werden.
+   * @return Zeitfenster in Millisekunden.
+   */
+  public static long getStackTraceWindow()
+  {
+    return stackTraceWindow;
+  }
+
+  /**
+   * Legt das Format der Zeitstempel in den Log-Meldungen fest.
+   * Jeder Thread, der Meldungen formatiert, verwendet eine eigene Instanz davon.
+   * Default: {@link TimestampFormat#date()}.
+   * @param format das Format. Bei <code>null</code> wird der Default verwendet.
+   */
+  public static void setTimestampFormat(TimestampFormat format)
+  {
+    Message.setTimestampFormat(format == null ? TimestampFormat.date() : format);
+  }
+
+  /**
+   * Liefert das Format der Zeitstempel in den Log-Meldungen.
+   * Die Instanz ist nicht thread-safe. Wer selbst damit formatieren will,
+   * sollte sich per {@link TimestampFormat#newInstance()} eine eigene erzeugen.
+   * @return das Format.
+   */
+  public static TimestampFormat getTimestampFormat()
+  {
+    return Message.getTimestampFormat();
+  }
+
+  /**
+   * Begrenzt die Anzahl der Meldungen des Levels pro Aufrufer (Klasse und Methode).
+   * Pro Sekunde werden hoechstens <code>perSecond</code> Meldungen eines Aufrufers
+   * geschrieben, danach nur noch jede <code>sampling</code>-te. Wie viele Meldungen
+   * eines Aufrufers unterdrueckt wurden, wird alle 10 Sekunden in einer
+   * zusammenfassenden Meldung ausgegeben.
+   * Die Pruefung erfolgt im Logger-Thread. Unterdrueckte Meldungen kosten den
+   * loggenden Thread daher nur das Einstellen in die Queue, die Targets
+   * erreichen sie nicht.
+   * Die Limits koennen jederzeit geaendert werden.
+   * @param level das Level.
+   * @param perSecond maximale Anzahl der Meldungen pro Sekunde und Aufrufer. Bei 0 wird das Limit entfernt.
+   * @param sampling danach wird nur noch jede n-te Meldung geschrieben. Bei 0 gar keine mehr.
+   */
+  public static void setRateLimit(Level level, int perSecond, int sampling)
+  {
+    if (level == null)
+      return;
+    lt.limiter.setLimit(level,perSecond,sampling);
+  }
+
 	/**
 	 * Liefert den aktuellen Log-Level.
    * @return Log-Level.
@@ -100,6 +549,8 @@ public class Logger
   
   /**
    * Prueft, ob Meldungen mit dem angegeben Log-Level derzeit geloggt werden.
+   * Beruecksichtigt nur das globale Level. Fuer einzelne Kategorien siehe
+   * {@link Category#isLogging(Level)}.
    * @param l das zu testende Log-Level.
    * @return true, wenn Meldungen mit dem angegeben Log-Level derzeit geloggt werden.
    */
@@ -108,6 +559,21 @@ public class Logger
     return l != null && l.getValue() >= Logger.level.getValue();
   }
 
+  /**
+   * Prueft, ob Meldungen mit dem angegeben Log-Level in der Kategorie geloggt werden.
+   * Die Kategorie wird nur nachgeschlagen, wenn es abweichende Levels gibt.
+   * @param l das zu testende Log-Level.
+   * @param name Name der Kategorie.
+   * @return true, wenn Meldungen mit dem angegeben Log-Level geloggt werden.
+   */
+  static boolean isLogging(Level l, String name)
+  {
+    int value = l.getValue();
+    if (value < minLevel)
+      return false;
+    return value >= maxLevel || value >= getCategory(name).getThreshold();
+  }
+
   /**
    * Schreibt eine Message vom Typ "trace" ins Log.
    * @param message zu loggende Nachricht.
@@ -117,6 +583,29 @@ public class Logger
     write(Level.TRACE,message);
   }
 
+  /**
+   * Schreibt eine Message vom Typ "trace" ins Log.
+   * Der Text wird nur dann formatiert, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat} (<code>{0}</code>, <code>{1}</code>, ...).
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public static void trace(String pattern, Object... args)
+  {
+    write(Level.TRACE,pattern,args,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "trace" ins Log.
+   * Der Supplier wird nur dann aufgerufen, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public static void trace(MessageSupplier supplier)
+  {
+    write(Level.TRACE,null,null,supplier);
+  }
+
   /**
    * Schreibt eine Message vom Typ "debug" ins Log.
    * @param message zu loggende Nachricht.
@@ -126,6 +615,29 @@ public class Logger
     write(Level.DEBUG,message);
   }
 
+  /**
+   * Schreibt eine Message vom Typ "debug" ins Log.
+   * Der Text wird nur dann formatiert, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat} (<code>{0}</code>, <code>{1}</code>, ...).
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public static void debug(String pattern, Object... args)
+  {
+    write(Level.DEBUG,pattern,args,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "debug" ins Log.
+   * Der Supplier wird nur dann aufgerufen, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public static void debug(MessageSupplier supplier)
+  {
+    write(Level.DEBUG,null,null,supplier);
+  }
+
   /**
    * Schreibt eine Message vom Typ "info" ins Log.
    * @param message zu loggende Nachricht.
@@ -135,6 +647,29 @@ public class Logger
     write(Level.INFO,message);
   }
 
+  /**
+   * Schreibt eine Message vom Typ "info" ins Log.
+   * Der Text wird nur dann formatiert, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat} (<code>{0}</code>, <code>{1}</code>, ...).
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public static void info(String pattern, Object... args)
+  {
+    write(Level.INFO,pattern,args,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "info" ins Log.
+   * Der Supplier wird nur dann aufgerufen, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public static void info(MessageSupplier supplier)
+  {
+    write(Level.INFO,null,null,supplier);
+  }
+
   /**
    * Schreibt eine Message vom Typ "warn" ins Log.
    * @param message zu loggende Nachricht.
@@ -144,6 +679,29 @@ public class Logger
     write(Level.WARN,message);
   }
 
+  /**
+   * Schreibt eine Message vom Typ "warn" ins Log.
+   * Der Text wird nur dann formatiert, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat} (<code>{0}</code>, <code>{1}</code>, ...).
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public static void warn(String pattern, Object... args)
+  {
+    write(Level.WARN,pattern,args,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "warn" ins Log.
+   * Der Supplier wird nur dann aufgerufen, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public static void warn(MessageSupplier supplier)
+  {
+    write(Level.WARN,null,null,supplier);
+  }
+
   /**
    * Schreibt eine Message vom Typ "error" ins Log.
    * @param message zu loggende Nachricht.
@@ -153,6 +711,29 @@ public class Logger
     write(Level.ERROR,message);
   }
 
+  /**
+   * Schreibt eine Message vom Typ "error" ins Log.
+   * Der Text wird nur dann formatiert, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param pattern Text der Nachricht mit Platzhaltern im Format von {@link java.text.MessageFormat} (<code>{0}</code>, <code>{1}</code>, ...).
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   */
+  public static void error(String pattern, Object... args)
+  {
+    write(Level.ERROR,pattern,args,null);
+  }
+
+  /**
+   * Schreibt eine Message vom Typ "error" ins Log.
+   * Der Supplier wird nur dann aufgerufen, wenn das Log-Level aktiv ist - und zwar
+   * erst im Logger-Thread.
+   * @param supplier liefert den Text der Nachricht.
+   */
+  public static void error(MessageSupplier supplier)
+  {
+    write(Level.ERROR,null,null,supplier);
+  }
+
 	/**
 	 * Schreibt den Fehler ins Log.
 	 * @param message zu loggende Nachricht.
@@ -165,63 +746,159 @@ public class Logger
 
   /**
    * Flusht die noch nicht geschriebenen Log-Meldungen.
-   * Eigentlich macht die Funktion nichts anderes, als solange
-   * zu warten, bis die Queue leer ist ;).
+   * Die Funktion wartet, bis alle bis zum Aufruf eingegangenen Meldungen
+   * an die Targets uebergeben wurden.
    * @throws InterruptedException
    */
   public static void flush() throws InterruptedException
   {
-    while(lt.messages.size() > 0)
+    flush(0L);
+  }
+
+  /**
+   * Flusht die noch nicht geschriebenen Log-Meldungen.
+   * Die Funktion wartet, bis alle bis zum Aufruf eingegangenen Meldungen
+   * an die Targets uebergeben wurden oder der Timeout abgelaufen ist.
+   * @param timeout maximale Wartezeit in Millisekunden. Bei 0 wird unbegrenzt gewartet.
+   * @return true, wenn alle Meldungen geschrieben wurden, false bei Timeout.
+   * @throws InterruptedException
+   */
+  public static boolean flush(long timeout) throws InterruptedException
+  {
+    return flush(timeout,false);
+  }
+
+  /**
+   * Flusht die noch nicht geschriebenen Log-Meldungen und wartet, bis sie
+   * auf der Platte sind. Das betrifft alle Targets, die {@link Syncable} implementieren.
+   * @throws InterruptedException
+   */
+  public static void sync() throws InterruptedException
+  {
+    flush(0L,true);
+  }
+
+  /**
+   * Flusht die noch nicht geschriebenen Log-Meldungen.
+   * Die Funktion wartet, bis alle bis zum Aufruf eingegangenen Meldungen
+   * an die Targets uebergeben wurden oder der Timeout abgelaufen ist.
+   * @param timeout maximale Wartezeit in Millisekunden. Bei 0 wird unbegrenzt gewartet.
+   * @param sync true, wenn anschliessend bei allen Targets, die {@link Syncable}
+   * implementieren, ein fsync ausgefuehrt werden soll. Der fsync selbst wird
+   * nicht auf den Timeout angerechnet.
+   * @return true, wenn alle Meldungen geschrieben wurden, false bei Timeout.
+   * @throws InterruptedException
+   */
+  public static boolean flush(long timeout, boolean sync) throws InterruptedException
+  {
+    long start = System.currentTimeMillis();
+    if (!lt.await(lt.queue.getWritePosition(),timeout))
+      return false;
+
+    // Jetzt noch auf die Targets mit eigener Queue warten
+    Object[] list = targets.toArray();
+    for (int i=0;i<list.length;++i)
     {
-      Thread.sleep(100l);
+      if (!(list[i] instanceof TargetQueue))
+        continue;
+
+      long remaining = 0L;
+      if (timeout > 0L)
+      {
+        remaining = timeout - (System.currentTimeMillis() - start);
+        if (remaining <= 0L)
+          return false;
+      }
+      if (!((TargetQueue) list[i]).await(remaining))
+        return false;
+    }
+
+    if (!sync)
+      return true;
+
+    for (int i=0;i<list.length;++i)
+    {
+      Object t = list[i];
+      if (t instanceof TargetQueue)
+        t = ((TargetQueue) t).getTarget();
+      if (!(t instanceof Syncable))
+        continue;
+      try
+      {
+        ((Syncable) t).sync();
+      }
+      catch (Exception e)
+      {
+        QueueWorker.println("alert: unable to sync log target " + t + ": " + e);
+      }
     }
+    return true;
   }
 
   /**
    * Schliesst den Logger und die damit verbundene Log-Datei.
    */
   public static void close()
+  {
+    close(0L);
+  }
+
+  /**
+   * Schliesst den Logger und die damit verbundene Log-Datei.
+   * @param timeout maximale Wartezeit in Millisekunden, bis die noch
+   * in der Queue befindlichen Meldungen geschrieben wurden. Bei 0 wird unbegrenzt gewartet.
+   * @return true, wenn alle Meldungen geschrieben wurden, false bei Timeout.
+   */
+  public static boolean close(long timeout)
 	{
 		lt.shutdown();
 
-		// Wir muessen noch etwas warten, bis der Thread alle Eintraege
+		// Wir muessen noch warten, bis der Thread alle Eintraege
 		// aus der Queue geschrieben hat.
+		boolean finished = false;
 		try {
-			while (!lt.finished())
-			{
-				Thread.sleep(50);
-			}
+		  finished = lt.awaitFinished(timeout);
 		}
-		catch (Exception e)
+		catch (InterruptedException e)
 		{
 			e.printStackTrace();
 			lt.interrupt();
 		}
 
-		synchronized (targets)
+		// Erst aus der Liste nehmen, dann schliessen. Ein nach Ablauf des
+		// Timeouts noch laufender Logger-Thread beginnt so keine neuen Batches mehr.
+		Object[] list = targets.toArray();
+		targets.clear();
+		for (int i=0;i<list.length;++i)
 		{
-			Target target = null;
-			for (int i=0;i<targets.size();++i)
+			try {
+				((Target) list[i]).close();
+			}
+			catch (Exception io)
 			{
-				target = (Target) targets.get(i);
-				try {
-					target.close();
-				}
-				catch (Exception io)
-				{
-				}
 			}
-			targets = new ArrayList();
 		}
+		monitor.clear();
+		return finished;
 	}
 
+  /**
+   * Liefert eine Momentaufnahme der Laufzeit-Statistiken des Loggers.
+   * Die Statistiken sind ausserdem per JMX unter {@link LoggerMonitor#OBJECT_NAME} abrufbar.
+   * @return Momentaufnahme der Statistiken.
+   */
+  public static LoggerStats getStats()
+  {
+    return monitor.snapshot();
+  }
+
   /**
    * Liefert die letzten Zeilen des Logs.
    * @return Array mit den letzten Log-Eintraegen (einer pro Index).
    */
   public static Message[] getLastLines()
   {
-    return (Message[]) lastLines.toArray(new Message[lastLines.size()]);
+    return lastLines.toArray();
   }
 
   /**
@@ -255,46 +932,212 @@ public class Logger
    * @param t optionale Angabe einer Exception.
    */
   public static void write(Level level, String host, String clazz, String method, String message, Throwable t)
+  {
+    Message msg = createMessage(level,host,clazz,method,message,t);
+    if (msg != null)
+      write(msg);
+  }
+
+  /**
+   * Schreibt eine Log-Meldung, deren Text erst im Logger-Thread erzeugt wird.
+   * @param level Log-Level.
+   * @param pattern Text der Nachricht mit Platzhaltern.
+   * @param args die einzusetzenden Werte. Ist der letzte Wert eine Exception ohne Platzhalter, wird ihr Stacktrace mitgeloggt.
+   * @param supplier alternativ der Supplier, der den Text liefert.
+   */
+  private static void write(Level level, String pattern, Object[] args, MessageSupplier supplier)
+  {
+    Message msg = createMessage(level,null,null,null,pattern,null);
+    if (msg == null)
+      return;
+    msg.setDeferredText(args,supplier);
+    write(msg);
+  }
+
+  /**
+   * Schreibt eine Log-Meldung einer {@link Category}.
+   * Das Log-Level wurde von der Kategorie bereits geprueft.
+   * @param level Log-Level.
+   * @param text Text der Nachricht bzw. Pattern, wenn Parameter angegeben sind.
+   * @param args optionale Parameter fuer das Pattern.
+   * @param supplier optionaler Supplier, der den Text liefert.
+   * @param t optionale Angabe einer Exception.
+   */
+  static void log(Level level, String text, Object[] args, MessageSupplier supplier, Throwable t)
+  {
+    log(level,System.currentTimeMillis(),null,text,args,supplier,t);
+  }
+
+  /**
+   * Schreibt eine Log-Meldung mit vorgegebenem Zeitpunkt.
+   * Wird vom {@link JavaLoggingHandler} verwendet, um die Angaben des
+   * LogRecord zu uebernehmen. Das Log-Level wurde bereits geprueft.
+   * @param level Log-Level.
+   * @param time Zeitpunkt der Meldung in Millisekunden.
+   * @param record optionaler Record, dessen Klasse und Methode erst im Logger-Thread gelesen werden.
+   * @param text Text der Nachricht bzw. Pattern, wenn Parameter angegeben sind.
+   * @param args optionale Parameter fuer das Pattern.
+   * @param supplier optionaler Supplier, der den Text liefert.
+   * @param t optionale Angabe einer Exception.
+   */
+  static void log(Level level, long time, LogRecord record, String text, Object[] args, MessageSupplier supplier, Throwable t)
+  {
+    Message msg = newMessage(level,time,null,null,null,text,t);
+    if (record != null)
+      msg.setSource(record);
+    if (args != null || supplier != null)
+      msg.setDeferredText(args,supplier);
+    write(msg);
+  }
+
+  /**
+   * Erzeugt die Message, sofern das Log-Level aktiv ist.
+   * @param level Log-Levels.
+   * @param host optionale Angabe des Hostnamens.
+   * @param clazz Name der loggenden Klasse.
+   * @param method Name der loggenden Funktion.
+   * @param message zu loggende Nachricht.
+   * @param t optionale Angabe einer Exception.
+   * @return die Message oder <code>null</code>, wenn das Log-Level nicht aktiv ist.
+   */
+  private static Message createMessage(Level level, String host, String clazz, String method, String message, Throwable t)
   {
     // Wir checken, ob der uebergebene Level mindestens genauso wertig ist,
     // wie unser aktueller
-    if (level.getValue() < Logger.level.getValue())
-      return;
+    int value = level.getValue();
+    if (value < minLevel)
+      return null;
+
+    if (value < maxLevel)
+    {
+      // Es gibt Kategorien mit abweichendem Level. Dann muessen wir
+      // nachsehen, zu welcher Kategorie die Meldung gehoert. Und zwar hier,
+      // damit verworfene Meldungen weder Message noch Stacktrace kosten und
+      // keinen Platz in der Queue belegen.
+      String name = clazz != null ? clazz : findCallerClass();
+      if (value < getCategory(name).getThreshold())
+        return null;
+    }
+    return newMessage(level,System.currentTimeMillis(),host,clazz,method,message,t);
+  }
 
+  /**
+   * Erzeugt den {@link CallerContext}.
+   * @return der Kontext oder <code>null</code>, wenn ein installierter
+   * SecurityManager das nicht erlaubt.
+   */
+  private static CallerContext createCallerContext()
+  {
+    try
+    {
+      return new CallerContext();
+    }
+    catch (SecurityException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Ermittelt den Namen der aufrufenden Klasse.
+   * Wenn moeglich, ueber den Klassen-Kontext des {@link CallerContext}. Der
+   * enthaelt nur die Klassen der Aufrufkette, ohne fuer jede Ebene ein
+   * StackTraceElement mit Klassen- und Methodennamen zu erzeugen.
+   * @return Name der Klasse oder <code>null</code>, wenn er nicht ermittelbar ist.
+   */
+  private static String findCallerClass()
+  {
+    if (CALLER_CONTEXT != null)
+      return CALLER_CONTEXT.getCallerClass();
+    StackTraceElement caller = findCaller(new Throwable().getStackTrace());
+    return caller == null ? null : caller.getClassName();
+  }
+
+  /**
+   * Erzeugt die Message.
+   * @param level Log-Levels.
+   * @param time Zeitpunkt der Meldung in Millisekunden.
+   * @param host optionale Angabe des Hostnamens.
+   * @param clazz Name der loggenden Klasse.
+   * @param method Name der loggenden Funktion.
+   * @param message zu loggende Nachricht.
+   * @param t optionale Angabe einer Exception.
+   * @return die Message.
+   */
+  private static Message newMessage(Level level, long time, String host, String clazz, String method, String message, Throwable t)
+  {
+    Message msg = null;
+    boolean recycle = garbageFree;
+    if (recycle)
+      msg = pool.poll();
+    if (msg == null)
+      msg = new Message();
+    msg.init(time,level,host,clazz,method,message,recycle);
+
+    // Der Stacktrace wird erst im Logger-Thread an den Text angehaengt
     if (t != null)
+      msg.setThrowable(t);
+
+    // Wenn Klasse/Methode fehlen, merken wir uns die Aufrufer-Position. Der
+    // Stacktrace wird erst im Logger-Thread ausgewertet. Im Garbage-freien
+    // Modus verzichten wir darauf, da das Throwable jedesmal neu erzeugt wird.
+    Level cl = callerLevel;
+    if (!recycle && (clazz == null || method == null) && cl != null && level.getValue() >= cl.getValue())
+      msg.setLocation(new Throwable());
+
+    return msg;
+  }
+
+  /**
+   * Liefert das erste Element des Stacktraces ausserhalb des Loggers.
+   * Die Klassen von java.util.logging und {@link JavaLoggingHandler} werden
+   * ebenfalls uebersprungen.
+   * @param stack der Stacktrace.
+   * @return der Aufrufer oder <code>null</code>, wenn er nicht ermittelbar ist.
+   */
+  static StackTraceElement findCaller(StackTraceElement[] stack)
+  {
+    if (stack == null)
+      return null;
+    for (int i=0;i<stack.length;++i)
     {
-      ByteArrayOutputStream bos = null;
-      try {
-        bos = new ByteArrayOutputStream();
-        t.printStackTrace(new PrintStream(bos));
-        message += "\n" + bos.toString();
-      }
-      finally {
-        try {
-          bos.close();
-        }
-        catch (Exception npe) {}
-      }
+      String name = stack[i].getClassName();
+      if (Logger.class.getName().equals(name) || Category.class.getName().equals(name))
+        continue;
+      if (name.startsWith("java.util.logging.") || name.startsWith(JavaLoggingHandler.class.getName()))
+        continue;
+      return stack[i];
     }
+    return null;
+  }
+
 
-    if (clazz == null || method == null)
+  /**
+   * Liefert die Klassen der Aufrufkette. {@link SecurityManager#getClassContext()}
+   * ist dafuer der einzige Weg, der ohne Stacktrace auskommt.
+   */
+  private static class CallerContext extends SecurityManager
+  {
+    /**
+     * Liefert den Namen der ersten Klasse ausserhalb des Loggers.
+     * @return Name der Klasse oder <code>null</code>, wenn er nicht ermittelbar ist.
+     */
+    private String getCallerClass()
     {
-      // Wir suchen den Verursacher, in dem wir den Stacktrace hochwandern,
-      // bis wir nicht mehr selbst drin stehen
-      StackTraceElement[] stack = new Throwable().getStackTrace();
-      if (stack != null)
+      Class<?>[] context = getClassContext();
+      if (context == null)
+        return null;
+      for (int i=0;i<context.length;++i)
       {
-        for (int i=0;i<stack.length;++i)
-        {
-          clazz = stack[i].getClassName();
-          method = stack[i].getMethodName();
-          if (!Logger.class.getName().equals(clazz))
-            break;
-        }
+        Class<?> c = context[i];
+        if (c == CallerContext.class || c == Logger.class || c == Category.class || c == JavaLoggingHandler.class)
+          continue;
+        if (c.getName().startsWith("java.util.logging."))
+          continue;
+        return c.getName();
       }
+      return null;
     }
-
-    write(new Message(new Date(),level,host,clazz,method,message));
   }
 
   /**
@@ -303,30 +1146,42 @@ public class Logger
    */
   public static void write(Message message)
   {
-    lastLines.push(message);
     lt.write(message);
   }
 
+  /**
+   * Gibt eine Message nach dem Schreiben zur Wiederverwendung frei,
+   * sofern sie aus dem Pool stammt.
+   * @param msg die Message.
+   */
+  private static void release(Message msg)
+  {
+    if (msg == null || !msg.isRecyclable())
+      return;
+    msg.init(0L,null,null,null,null,null,false);
+    pool.offer(msg);
+  }
+
   /**
    * Das eigentliche Schreiben erfolgt in einem extra Thread damit's hoffentlich schneller geht.
    */
-  private static class LoggerThread extends Thread
+  private static class LoggerThread extends QueueWorker
   {
-  	
-  	private Queue messages = new Queue(Queue.CAPACITY_MAX / 2);
-  	
-  	private boolean quit = false;
-  	private boolean finished = false;
+    // Erzeugt die Stacktraces. Wird nur von diesem Thread verwendet.
+    private final ThrowableRenderer renderer = new ThrowableRenderer();
+
+    // Limits pro Aufrufer
+    private final RateLimiter limiter = new RateLimiter();
 
   	/**
      * ct.
      * @param name Name des Loggers.
      * Wird fuer die Bezeichnung des Logger-Threads verwendet.
+     * @param capacity Kapazitaet der Queue.
      */
-    public LoggerThread(String name)
+    public LoggerThread(String name, int capacity)
   	{
-  		super(name);
-      setDaemon(true);
+  		super(name,capacity);
   	}
 
     /**
@@ -336,118 +1191,182 @@ public class Logger
     private void write(Message msg)
 		{
 			if (quit)
+			{
+			  monitor.dropped();
+			  release(msg);
 				return; // wir nehmen keine Log-Meldungen mehr entgegen.
+			}
 
-			// Das machen wir in einer Schleife solange, bis Hinzufuegen
-			// zur Queue erfolgreich war. OK, wir haben eine Maximal-Zahl von Versuchen ;)
-			int retryCount = 1000;
-			int count = 0;
-			while (true)
+			long start = monitor.start();
+			Level level = msg.getLevel();
+			if (queue.offer(msg))
 			{
-				if (count++ >= retryCount)
-				{
-					println("***** [WARN] Logger queue full, writing to STDOUT *****");
-					println(msg.toString());
-					return;
-				}
-
-				try
-				{
-					messages.push(msg);
-					return;
-				}
-				catch (QueueFullException e)
-				{
-					// try again ;)
-				}
+			  wakeup();
+			  monitor.enqueued(level,start);
+			  return;
 			}
-		}
 
-		/**
-     * Beendet den Logger-Thread.
-     */
-    private void shutdown()
-		{
-			this.quit = true;
+			switch (overflow)
+			{
+			  case BLOCK:
+			    // Der Logger-Thread selbst (z.Bsp. beim Rotieren im Target) darf
+			    // nicht auf sich selbst warten.
+			    if (Thread.currentThread() == this)
+			    {
+			      monitor.spilled();
+			      println(msg.toString());
+			      release(msg);
+			      return;
+			    }
+
+			    // Wir warten, bis der Logger-Thread wieder Platz geschaffen hat
+			    while (!queue.offer(msg))
+			    {
+			      if (quit)
+			      {
+			        monitor.dropped();
+			        release(msg);
+			        return;
+			      }
+			      wakeup();
+			      LockSupport.parkNanos(100000L);
+			    }
+			    wakeup();
+			    monitor.enqueued(level,start);
+			    return;
+
+			  case DROP_NEWEST:
+			    monitor.dropped();
+			    release(msg);
+			    return;
+
+			  case DROP_OLDEST:
+			    // Die aelteste Meldung rauswerfen, bis die neue reinpasst
+			    while (!queue.offer(msg))
+			    {
+			      Message old = queue.poll();
+			      if (old != null)
+			        monitor.dropped();
+			      release(old);
+			    }
+			    wakeup();
+			    monitor.enqueued(level,start);
+			    return;
+
+			  default:
+			    monitor.spilled();
+			    println("***** [WARN] Logger queue full, writing to STDOUT *****");
+			    println(msg.toString());
+			    release(msg);
+			}
 		}
 
-		/**
-		 * Liefert true, wenn der Thread die letzten Meldungen rausgeschrieben hat.
-     * @return true, wenn alles rausgeschrieben ist.
+    /**
+     * Uebergibt die Meldungen an alle Targets.
+     * Meldungen, die ein Limit ueberschreiten, werden vorher aussortiert.
+     * @see de.willuhn.logging.QueueWorker#dispatch(de.willuhn.logging.Message[], int)
      */
-    private boolean finished()
-		{
-			return finished;
-		}
-    
+    void dispatch(Message[] batch, int count)
+    {
+      if (limiter.isActive())
+      {
+        // Die durchgelassenen Meldungen nach vorn tauschen. Die anderen
+        // bleiben im Array, damit sie anschliessend freigegeben werden.
+        int n = 0;
+        for (int i=0;i<count;++i)
+        {
+          Message msg = batch[i];
+          if (limiter.allow(msg))
+          {
+            batch[i] = batch[n];
+            batch[n++] = msg;
+          }
+          else
+          {
+            msg.setSuppressed(true);
+            monitor.suppressed();
+          }
+        }
+        count = n;
+      }
+
+      long window = stackTraceWindow;
+      for (int i=0;i<count;++i)
+      {
+        if (batch[i].getThrowable() != null)
+          batch[i].renderThrowable(renderer,window);
+      }
+
+      send(batch,count);
+
+      Message[] summary = limiter.summary(System.currentTimeMillis(),false);
+      if (summary != null)
+        send(summary,summary.length);
+    }
+
     /**
-     * Gibt den Text auf STDOUT aus.
-     * @param text auszugebender Text.
+     * Uebergibt die Meldungen an alle Targets.
+     * Targets, die {@link BatchTarget} implementieren, erhalten alle Meldungen
+     * in einem Aufruf, die anderen einzeln.
+     * @param batch die Meldungen.
+     * @param count Anzahl der Meldungen.
      */
-    private void println(String text)
+    private void send(Message[] batch, int count)
     {
-      try
+      if (count == 0)
+        return;
+
+      // Ohne Lock, die Iteration arbeitet auf einer Momentaufnahme der Liste
+      if (targets.size() == 0)
       {
-        System.out.println(text);
+        for (int i=0;i<count;++i)
+          println(batch[i].toString());
+        return;
       }
-      catch (Exception e)
+
+      for (Target target:targets)
       {
-        // ignore - wenn STDOUT kaputt ist, koennen wir uns eh nicht mehr artikulieren ;)
+        // Targets mit eigener Queue erfassen ihre Statistik selbst
+        writeTo(target,batch,count,(target instanceof TargetQueue) ? null : monitor.target(target));
       }
     }
 
     /**
-     * @see java.lang.Runnable#run()
+     * @see de.willuhn.logging.QueueWorker#done(de.willuhn.logging.Message)
      */
-    public void run()
+    void done(Message msg)
     {
-    	Message msg = null;
-			while(true)
-			{
-				if (messages.size() == 0 && quit)
-				{
-					finished = true;
-					return;
-				}
-
-				if (messages.size() == 0)
-				{
-					// nichts zum Schreiben da, dann warten wir etwas
-					try
-					{
-						sleep(100);
-					}
-					catch (InterruptedException e)
-					{
-					}
-					continue;
-				}
-
-				msg = (Message) messages.pop();
-
-				Target target = null;
-				synchronized (targets)
-				{
-					if (targets.size() == 0)
-					{
-						println(msg.toString());
-						continue;
-					}
-
-					for (int i=0;i<targets.size();++i)
-					{
-						target = (Target) targets.get(i);
-						try
-						{
-							target.write(msg);
-						}
-						catch (Exception e)
-						{
-							println("alert: error while logging the following message: " + msg.toString());
-						}
-					}
-				}
-			}
+      if (!msg.isSuppressed())
+        lastLines.record(msg);
+      release(msg);
+    }
+
+    /**
+     * Schreibt die Puffer aller Targets, die {@link Flushable} implementieren.
+     * @see de.willuhn.logging.QueueWorker#idle()
+     */
+    void idle()
+    {
+      // Faellige Zusammenfassungen der Limits ausgeben. Beim Beenden auch die restlichen.
+      Message[] summary = limiter.summary(System.currentTimeMillis(),quit);
+      if (summary != null)
+        send(summary,summary.length);
+
+      for (Target target:targets)
+      {
+        flush(target);
+      }
+    }
+
+    /**
+     * Solange unterdrueckte Meldungen noch nicht zusammengefasst wurden,
+     * wachen wir zur naechsten Zusammenfassung auf.
+     * @see de.willuhn.logging.QueueWorker#idleTimeout()
+     */
+    long idleTimeout()
+    {
+      long wait = limiter.nextSummary(System.currentTimeMillis());
+      return wait < 0L ? 0L : Math.max(1L,wait);
     }
   }
 
@@ -0,0 +1,384 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.willuhn.logging.targets.Target;
+import de.willuhn.util.RingBuffer;
+
+/**
+ * Sammelt die Laufzeit-Statistiken des Loggers.
+ * Die Zaehler werden ohne Lock aktualisiert und sind auf mehrere Zellen
+ * verteilt, damit sich loggende Threads nicht gegenseitig ausbremsen. Die
+ * Dauer zum Einstellen in die Queue wird nur stichprobenartig gemessen.
+ * Die Instanz wird vom Logger unter {@link #OBJECT_NAME} beim MBean-Server
+ * der JVM registriert.
+ */
+public class LoggerMonitor implements LoggerMonitorMBean
+{
+  /**
+   * Name, unter dem das MBean registriert wird.
+   */
+  public final static String OBJECT_NAME = "de.willuhn.logging:type=Logger";
+
+  // Gemessen wird die Dauer bei jeder 16. Meldung
+  private final static long SAMPLE_MASK = 15L;
+
+  private final RingBuffer<Message> queue;
+
+  // Anzahl der Meldungen je Level in der Reihenfolge TRACE, DEBUG, INFO, WARN, ERROR
+  private final Counter[] enqueued = new Counter[]{new Counter(),new Counter(),new Counter(),new Counter(),new Counter()};
+  private final Counter dropped    = new Counter();
+  private final Counter spilled    = new Counter();
+  private final Counter suppressed = new Counter();
+  private final AtomicLong peak    = new AtomicLong(0L);
+  private final Histogram latency  = new Histogram();
+
+  private final ConcurrentHashMap<Target,TargetMetrics> targets = new ConcurrentHashMap<Target,TargetMetrics>();
+
+  /**
+   * ct.
+   * @param queue die Queue des Loggers.
+   */
+  LoggerMonitor(RingBuffer<Message> queue)
+  {
+    this.queue = queue;
+  }
+
+  /**
+   * Liefert den Startzeitpunkt fuer die Messung der Dauer des Einstellens.
+   * Gemessen wird nur bei jeder 16. Meldung, damit nicht jeder Aufruf
+   * zweimal {@link System#nanoTime()} aufrufen muss.
+   * @return Startzeitpunkt in Nanosekunden oder 0, wenn nicht gemessen wird.
+   */
+  long start()
+  {
+    if ((queue.getWritePosition() & SAMPLE_MASK) != 0L)
+      return 0L;
+    long start = System.nanoTime();
+    return start == 0L ? 1L : start;
+  }
+
+  /**
+   * Erfasst eine in die Queue gestellte Meldung.
+   * @param level Log-Level der Meldung.
+   * @param start Startzeitpunkt des Einstellens aus {@link #start()}.
+   */
+  void enqueued(Level level, long start)
+  {
+    enqueued[index(level)].increment();
+    if (start != 0L)
+      latency.record(System.nanoTime() - start);
+
+    long size = queue.getWritePosition() - queue.getReadPosition();
+    long p = peak.get();
+    while (size > p && !peak.compareAndSet(p,size))
+      p = peak.get();
+  }
+
+  /**
+   * Erfasst eine verworfene Meldung.
+   */
+  void dropped()
+  {
+    dropped.increment();
+  }
+
+  /**
+   * Erfasst eine auf STDOUT ausgegebene Meldung.
+   */
+  void spilled()
+  {
+    spilled.increment();
+  }
+
+  /**
+   * Erfasst eine wegen eines Limits nicht geschriebene Meldung.
+   */
+  void suppressed()
+  {
+    suppressed.increment();
+  }
+
+  /**
+   * Liefert die Statistik des Targets und legt sie bei Bedarf an.
+   * @param target das Target.
+   * @return die Statistik des Targets.
+   */
+  TargetMetrics target(Target target)
+  {
+    TargetMetrics m = targets.get(target);
+    if (m != null)
+      return m;
+    m = new TargetMetrics(target.toString());
+    TargetMetrics prev = targets.putIfAbsent(target,m);
+    return prev != null ? prev : m;
+  }
+
+  /**
+   * Entfernt die Statistik des Targets.
+   * @param target das Target.
+   */
+  void remove(Target target)
+  {
+    targets.remove(target);
+  }
+
+  /**
+   * Entfernt die Statistiken aller Targets.
+   */
+  void clear()
+  {
+    targets.clear();
+  }
+
+  /**
+   * Liefert eine Momentaufnahme aller Statistiken.
+   * @return Momentaufnahme.
+   */
+  public LoggerStats snapshot()
+  {
+    long[] levels = new long[enqueued.length];
+    for (int i=0;i<levels.length;++i)
+      levels[i] = enqueued[i].get();
+
+    List<LoggerStats.TargetStats> list = new ArrayList<LoggerStats.TargetStats>();
+    Iterator<TargetMetrics> it = targets.values().iterator();
+    while (it.hasNext())
+    {
+      TargetMetrics m = it.next();
+      list.add(new LoggerStats.TargetStats(m.name,m.written.get(),m.errors.get(),m.dropped.get(),m.latency.snapshot()));
+    }
+
+    return new LoggerStats(levels,dropped.get(),spilled.get(),suppressed.get(),getQueueSize(),getQueuePeak(),getQueueCapacity(),
+                           latency.snapshot(),list.toArray(new LoggerStats.TargetStats[list.size()]));
+  }
+
+  /**
+   * Liefert den Index des Zaehlers fuer das Level.
+   * @param level das Level.
+   * @return Index des Zaehlers.
+   */
+  static int index(Level level)
+  {
+    int value = level == null ? Level.INFO.getValue() : level.getValue();
+    if (value < Level.DEBUG.getValue()) return 0;
+    if (value < Level.INFO.getValue())  return 1;
+    if (value < Level.WARN.getValue())  return 2;
+    if (value < Level.ERROR.getValue()) return 3;
+    return 4;
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueued()
+   */
+  public long getEnqueued()
+  {
+    long sum = 0L;
+    for (int i=0;i<enqueued.length;++i)
+      sum += enqueued[i].get();
+    return sum;
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueuedTrace()
+   */
+  public long getEnqueuedTrace()
+  {
+    return enqueued[0].get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueuedDebug()
+   */
+  public long getEnqueuedDebug()
+  {
+    return enqueued[1].get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueuedInfo()
+   */
+  public long getEnqueuedInfo()
+  {
+    return enqueued[2].get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueuedWarn()
+   */
+  public long getEnqueuedWarn()
+  {
+    return enqueued[3].get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueuedError()
+   */
+  public long getEnqueuedError()
+  {
+    return enqueued[4].get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getDropped()
+   */
+  public long getDropped()
+  {
+    return dropped.get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getSpilled()
+   */
+  public long getSpilled()
+  {
+    return spilled.get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getSuppressed()
+   */
+  public long getSuppressed()
+  {
+    return suppressed.get();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getQueueSize()
+   */
+  public int getQueueSize()
+  {
+    return queue.size();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getQueuePeak()
+   */
+  public int getQueuePeak()
+  {
+    return (int) Math.min(peak.get(),queue.capacity());
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getQueueCapacity()
+   */
+  public int getQueueCapacity()
+  {
+    return queue.capacity();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueueLatencyMean()
+   */
+  public long getEnqueueLatencyMean()
+  {
+    return latency.getMean();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueueLatency99()
+   */
+  public long getEnqueueLatency99()
+  {
+    return latency.getPercentile(99d);
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getEnqueueLatencyMax()
+   */
+  public long getEnqueueLatencyMax()
+  {
+    return latency.getMax();
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getTargetErrors()
+   */
+  public long getTargetErrors()
+  {
+    long sum = 0L;
+    Iterator<TargetMetrics> it = targets.values().iterator();
+    while (it.hasNext())
+      sum += it.next().errors.get();
+    return sum;
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#getTargetStatistics()
+   */
+  public String[] getTargetStatistics()
+  {
+    LoggerStats.TargetStats[] stats = snapshot().getTargets();
+    String[] result = new String[stats.length];
+    for (int i=0;i<stats.length;++i)
+      result[i] = stats[i].toString();
+    return result;
+  }
+
+  /**
+   * @see de.willuhn.logging.LoggerMonitorMBean#resetQueuePeak()
+   */
+  public void resetQueuePeak()
+  {
+    peak.set(0L);
+  }
+
+  /**
+   * Die Statistik eines einzelnen Targets.
+   */
+  static class TargetMetrics
+  {
+    private final String name;
+    private final AtomicLong written = new AtomicLong(0L);
+    private final AtomicLong errors  = new AtomicLong(0L);
+    private final AtomicLong dropped = new AtomicLong(0L);
+    private final Histogram latency  = new Histogram();
+
+    /**
+     * ct.
+     * @param name Name des Targets.
+     */
+    private TargetMetrics(String name)
+    {
+      this.name = name;
+    }
+
+    /**
+     * Erfasst geschriebene Meldungen.
+     * @param count Anzahl der Meldungen.
+     * @param nanos Dauer des Schreibens in Nanosekunden.
+     */
+    void written(int count, long nanos)
+    {
+      written.addAndGet(count);
+      latency.record(nanos);
+    }
+
+    /**
+     * Erfasst einen Fehler beim Schreiben.
+     */
+    void error()
+    {
+      errors.incrementAndGet();
+    }
+
+    /**
+     * Erfasst eine verworfene Meldung.
+     */
+    void dropped()
+    {
+      dropped.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+/**
+ * MBean-Interface fuer die Laufzeit-Statistiken des Loggers.
+ * Alle Zeiten werden in Nanosekunden geliefert.
+ */
+public interface LoggerMonitorMBean
+{
+  /**
+   * Liefert die Anzahl der insgesamt in die Queue gestellten Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueued();
+
+  /**
+   * Liefert die Anzahl der in die Queue gestellten Meldungen vom Typ "trace".
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueuedTrace();
+
+  /**
+   * Liefert die Anzahl der in die Queue gestellten Meldungen vom Typ "debug".
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueuedDebug();
+
+  /**
+   * Liefert die Anzahl der in die Queue gestellten Meldungen vom Typ "info".
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueuedInfo();
+
+  /**
+   * Liefert die Anzahl der in die Queue gestellten Meldungen vom Typ "warn".
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueuedWarn();
+
+  /**
+   * Liefert die Anzahl der in die Queue gestellten Meldungen vom Typ "error".
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueuedError();
+
+  /**
+   * Liefert die Anzahl der wegen voller Queue verworfenen Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getDropped();
+
+  /**
+   * Liefert die Anzahl der wegen voller Queue auf STDOUT ausgegebenen Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getSpilled();
+
+  /**
+   * Liefert die Anzahl der wegen eines Limits pro Aufrufer nicht geschriebenen Meldungen.
+   * @return Anzahl der Meldungen.
+   * @see Logger#setRateLimit(Level, int, int)
+   */
+  public long getSuppressed();
+
+  /**
+   * Liefert die aktuelle Anzahl der Meldungen in der Queue.
+   * @return Anzahl der Meldungen.
+   */
+  public int getQueueSize();
+
+  /**
+   * Liefert die bisher hoechste Anzahl der Meldungen in der Queue.
+   * @return Anzahl der Meldungen.
+   */
+  public int getQueuePeak();
+
+  /**
+   * Liefert die Kapazitaet der Queue.
+   * @return Kapazitaet.
+   */
+  public int getQueueCapacity();
+
+  /**
+   * Liefert die durchschnittliche Dauer zum Einstellen einer Meldung in die Queue.
+   * Gemessen wird nur bei jeder 16. Meldung.
+   * @return Dauer in Nanosekunden.
+   */
+  public long getEnqueueLatencyMean();
+
+  /**
+   * Liefert das 99%-Perzentil der Dauer zum Einstellen einer Meldung in die Queue.
+   * Gemessen wird nur bei jeder 16. Meldung.
+   * @return Dauer in Nanosekunden.
+   */
+  public long getEnqueueLatency99();
+
+  /**
+   * Liefert die maximale Dauer zum Einstellen einer Meldung in die Queue.
+   * Gemessen wird nur bei jeder 16. Meldung.
+   * @return Dauer in Nanosekunden.
+   */
+  public long getEnqueueLatencyMax();
+
+  /**
+   * Liefert die Summe der Fehler beim Schreiben in die Targets.
+   * @return Anzahl der Fehler.
+   */
+  public long getTargetErrors();
+
+  /**
+   * Liefert fuer jedes Target eine Zeile mit dessen Statistiken.
+   * @return Statistiken der Targets.
+   */
+  public String[] getTargetStatistics();
+
+  /**
+   * Setzt den Hoechststand der Queue zurueck.
+   */
+  public void resetQueuePeak();
+}
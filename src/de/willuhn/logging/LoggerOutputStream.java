@@ -31,6 +31,17 @@ public class LoggerOutputStream extends LineOutputStream {
     this.level = logLevel;
   }
 
+  /**
+   * ct.
+   * @param logLevel das Log-Level, mit dem der OutputStream schreiben soll.
+   * @param encoding Zeichensatz der geschriebenen Bytes.
+   */
+  public LoggerOutputStream(Level logLevel, String encoding)
+  {
+    super(1024,encoding);
+    this.level = logLevel;
+  }
+
   /**
    * @see de.willuhn.io.LineOutputStream#writeLine(java.lang.String)
    */
@@ -0,0 +1,228 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+/**
+ * Momentaufnahme der Laufzeit-Statistiken des Loggers.
+ * Alle Zeiten sind in Nanosekunden angegeben.
+ */
+public class LoggerStats
+{
+  private final long[] enqueued;
+  private final long dropped;
+  private final long spilled;
+  private final long suppressed;
+  private final int queueSize;
+  private final int queuePeak;
+  private final int queueCapacity;
+  private final Histogram latency;
+  private final TargetStats[] targets;
+
+  /**
+   * ct.
+   */
+  LoggerStats(long[] enqueued, long dropped, long spilled, long suppressed, int queueSize, int queuePeak, int queueCapacity,
+              Histogram latency, TargetStats[] targets)
+  {
+    this.enqueued      = enqueued;
+    this.dropped       = dropped;
+    this.spilled       = spilled;
+    this.suppressed    = suppressed;
+    this.queueSize     = queueSize;
+    this.queuePeak     = queuePeak;
+    this.queueCapacity = queueCapacity;
+    this.latency       = latency;
+    this.targets       = targets;
+  }
+
+  /**
+   * Liefert die Anzahl der insgesamt in die Queue gestellten Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueued()
+  {
+    long sum = 0L;
+    for (int i=0;i<enqueued.length;++i)
+      sum += enqueued[i];
+    return sum;
+  }
+
+  /**
+   * Liefert die Anzahl der in die Queue gestellten Meldungen des Levels.
+   * @param level das Level.
+   * @return Anzahl der Meldungen.
+   */
+  public long getEnqueued(Level level)
+  {
+    return enqueued[LoggerMonitor.index(level)];
+  }
+
+  /**
+   * Liefert die Anzahl der wegen voller Queue verworfenen Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getDropped()
+  {
+    return dropped;
+  }
+
+  /**
+   * Liefert die Anzahl der wegen voller Queue auf STDOUT ausgegebenen Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getSpilled()
+  {
+    return spilled;
+  }
+
+  /**
+   * Liefert die Anzahl der wegen eines Limits pro Aufrufer nicht geschriebenen Meldungen.
+   * @return Anzahl der Meldungen.
+   */
+  public long getSuppressed()
+  {
+    return suppressed;
+  }
+
+  /**
+   * Liefert die Anzahl der Meldungen in der Queue.
+   * @return Anzahl der Meldungen.
+   */
+  public int getQueueSize()
+  {
+    return queueSize;
+  }
+
+  /**
+   * Liefert die bisher hoechste Anzahl der Meldungen in der Queue.
+   * @return Anzahl der Meldungen.
+   */
+  public int getQueuePeak()
+  {
+    return queuePeak;
+  }
+
+  /**
+   * Liefert die Kapazitaet der Queue.
+   * @return Kapazitaet.
+   */
+  public int getQueueCapacity()
+  {
+    return queueCapacity;
+  }
+
+  /**
+   * Liefert das Histogramm der Dauer zum Einstellen einer Meldung in die Queue.
+   * @return Histogramm.
+   */
+  public Histogram getEnqueueLatency()
+  {
+    return latency;
+  }
+
+  /**
+   * Liefert die Statistiken der Targets.
+   * @return Statistiken der Targets.
+   */
+  public TargetStats[] getTargets()
+  {
+    return targets;
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    StringBuffer sb = new StringBuffer();
+    sb.append("enqueued: " + getEnqueued() + ", dropped: " + dropped + ", spilled: " + spilled + ", suppressed: " + suppressed);
+    sb.append(", queue: " + queueSize + "/" + queueCapacity + " (peak " + queuePeak + ")");
+    sb.append(", enqueue latency: [" + latency + "]");
+    for (int i=0;i<targets.length;++i)
+      sb.append("\n  " + targets[i]);
+    return sb.toString();
+  }
+
+  /**
+   * Momentaufnahme der Statistik eines einzelnen Targets.
+   */
+  public static class TargetStats
+  {
+    private final String name;
+    private final long written;
+    private final long errors;
+    private final long dropped;
+    private final Histogram latency;
+
+    /**
+     * ct.
+     */
+    TargetStats(String name, long written, long errors, long dropped, Histogram latency)
+    {
+      this.name    = name;
+      this.written = written;
+      this.errors  = errors;
+      this.dropped = dropped;
+      this.latency = latency;
+    }
+
+    /**
+     * Liefert den Namen des Targets.
+     * @return Name des Targets.
+     */
+    public String getName()
+    {
+      return name;
+    }
+
+    /**
+     * Liefert die Anzahl der geschriebenen Meldungen.
+     * @return Anzahl der Meldungen.
+     */
+    public long getWritten()
+    {
+      return written;
+    }
+
+    /**
+     * Liefert die Anzahl der Fehler beim Schreiben.
+     * @return Anzahl der Fehler.
+     */
+    public long getErrors()
+    {
+      return errors;
+    }
+
+    /**
+     * Liefert die Anzahl der Meldungen, die wegen voller Queue des Targets verworfen wurden.
+     * @return Anzahl der Meldungen.
+     */
+    public long getDropped()
+    {
+      return dropped;
+    }
+
+    /**
+     * Liefert das Histogramm der Dauer fuer das Schreiben eines Stapels von Meldungen.
+     * @return Histogramm.
+     */
+    public Histogram getWriteLatency()
+    {
+      return latency;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+      return name + ": written: " + written + ", errors: " + errors + ", dropped: " + dropped +
+             ", write latency: [" + latency + "]";
+    }
+  }
+}
@@ -12,20 +12,72 @@
  **********************************************************************/
 package de.willuhn.logging;
 
+import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.LogRecord;
 
 /**
  * Eine zu loggende Nachricht.
  */
 public class Message
 {
-	private Date date 	  = null;
+  // Das eingestellte Format der Zeitstempel. Dient nur als Vorlage fuer
+  // die Instanzen der einzelnen Threads.
+  private static volatile TimestampFormat timestampFormat = TimestampFormat.date();
+
+  // Schuetzt das Aufloesen von Text und Aufrufer. Eines fuer alle Messages,
+  // damit nicht jede Meldung ein eigenes Lock erzeugt. Aufgeloest wird fast
+  // immer im Logger-Thread, es ist also praktisch nie umkaempft. Kein Monitor,
+  // da dabei fremder Code (Supplier, toString() der Parameter) laeuft, der
+  // einen virtuellen Thread sonst an seinen Carrier-Thread binden wuerde.
+  private final static ReentrantLock LOCK = new ReentrantLock();
+
+  // Pro Thread die Vorlage und die daraus erzeugte Instanz, damit kein Lock noetig ist.
+  private final static ThreadLocal<TimestampFormat[]> FORMATS = new ThreadLocal<TimestampFormat[]>() {
+    protected TimestampFormat[] initialValue()
+    {
+      return new TimestampFormat[2];
+    }
+  };
+
+	private long time 	  = 0L;
 	private Level level   = null;
   private String host   = null;
 	private String text   = null;
 	private String clazz  = null;
 	private String method = null;
 
+  // Stacktrace-Position des Aufrufers. Wird erst bei Bedarf ausgewertet.
+  private volatile Throwable location = null;
+
+  // Record von java.util.logging mit ggf. explizit angegebenem Aufrufer
+  private volatile LogRecord source = null;
+
+  // Parameter bzw. Supplier fuer den erst bei Bedarf erzeugten Text.
+  private volatile Object[] args = null;
+  private volatile MessageSupplier supplier = null;
+
+  // Exception, deren Stacktrace erst bei Bedarf an den Text angehaengt wird
+  private volatile Throwable thrown = null;
+  private volatile boolean rendered = false;
+
+  // true, wenn die Message nach dem Schreiben wiederverwendet werden darf
+  private boolean recyclable = false;
+
+  // true, wenn die Message wegen eines Limits nicht geschrieben wurde
+  private boolean suppressed = false;
+
+
+  /**
+   * ct.
+   * Erzeugt eine leere Message, die per {@link #init(long, Level, String, String, String, String, boolean)} befuellt wird.
+   */
+  Message()
+  {
+  }
+
   /**
    * ct.
    * @param d
@@ -50,13 +102,92 @@ public class Message
    */
   Message(Date d, Level l, String host, String clazz, String method, String text)
 	{
-		this.date = d;
-		this.level = l;
-    this.host = host;
-		this.clazz = clazz;
-		this.method = method;
-		this.text = text;
+    init(d == null ? 0L : d.getTime(),l,host,clazz,method,text,false);
 	}
+
+  /**
+   * Befuellt die Message neu.
+   * Wird verwendet, um Message-Objekte wiederzuverwenden.
+   * @param time Zeitstempel in Millisekunden seit 1970 oder 0, wenn er nicht bekannt ist.
+   * @param l
+   * @param host
+   * @param clazz
+   * @param method
+   * @param text
+   * @param recyclable true, wenn die Message nach dem Schreiben wiederverwendet werden darf.
+   */
+  void init(long time, Level l, String host, String clazz, String method, String text, boolean recyclable)
+  {
+    this.time       = time;
+    this.level      = l;
+    this.host       = host;
+    this.clazz      = clazz;
+    this.method     = method;
+    this.text       = text;
+    this.location   = null;
+    this.source     = null;
+    this.args       = null;
+    this.supplier   = null;
+    this.thrown     = null;
+    this.rendered   = false;
+    this.recyclable = recyclable;
+    this.suppressed = false;
+  }
+
+  /**
+   * Uebernimmt die Daten der angegebenen Message.
+   * Noch nicht aufgeloeste Texte und Aufrufer werden dabei aufgeloest.
+   * @param m die zu kopierende Message.
+   */
+  void copyFrom(Message m)
+  {
+    initResolved(m.time,m.level,m.host,m.getLoggingClass(),m.getLoggingMethod(),m.getText(),m.thrown);
+  }
+
+  /**
+   * Befuellt die Message mit bereits aufgeloesten Daten.
+   * Der Stacktrace der Exception ist im Text bereits enthalten.
+   * @param time Zeitstempel in Millisekunden seit 1970 oder 0, wenn er nicht bekannt ist.
+   * @param l
+   * @param host
+   * @param clazz
+   * @param method
+   * @param text
+   * @param t die Exception oder <code>null</code>.
+   */
+  void initResolved(long time, Level l, String host, String clazz, String method, String text, Throwable t)
+  {
+    init(time,l,host,clazz,method,text,false);
+    this.thrown   = t;
+    this.rendered = true;
+  }
+
+  /**
+   * Prueft, ob die Message nach dem Schreiben wiederverwendet werden darf.
+   * @return true, wenn sie wiederverwendet werden darf.
+   */
+  boolean isRecyclable()
+  {
+    return this.recyclable;
+  }
+
+  /**
+   * Markiert die Message als wegen eines Limits nicht geschrieben.
+   * @param b true, wenn sie nicht geschrieben wurde.
+   */
+  void setSuppressed(boolean b)
+  {
+    this.suppressed = b;
+  }
+
+  /**
+   * Prueft, ob die Message wegen eines Limits nicht geschrieben wurde.
+   * @return true, wenn sie nicht geschrieben wurde.
+   */
+  boolean isSuppressed()
+  {
+    return this.suppressed;
+  }
 	
 	/**
 	 * Datum, an dem die Nachricht ausgeloest wurde.
@@ -64,9 +195,18 @@ public class Message
    */
   public Date getDate()
 	{
-		return date;
+		return time == 0L ? null : new Date(time);
 	}
 
+  /**
+   * Zeitstempel, an dem die Nachricht ausgeloest wurde.
+   * @return Zeitstempel in Millisekunden seit 1970 oder 0, wenn er nicht bekannt ist.
+   */
+  public long getTime()
+  {
+    return time;
+  }
+
 	/**
 	 * Liefert das LogLevel der Nachricht.
    * @return LogLevel.
@@ -91,15 +231,29 @@ public class Message
    */
   public String getText()
 	{
+    if (args != null || supplier != null || (thrown != null && !rendered))
+      resolveText();
 		return text;
 	}
 
+  /**
+   * Liefert die mitgeloggte Exception.
+   * Deren Stacktrace ist im Text der Nachricht bereits enthalten.
+   * @return die Exception oder <code>null</code>.
+   */
+  public Throwable getThrowable()
+  {
+    return thrown;
+  }
+
 	/**
 	 * Liefert den Namen der loggenden Klasse.
    * @return Name der loggenden Klasse.
    */
   public String getLoggingClass()
 	{
+    if (location != null || source != null)
+      resolveLocation();
 		return clazz;
 	}
 
@@ -109,14 +263,243 @@ public class Message
    */
   public String getLoggingMethod()
 	{
+    if (location != null || source != null)
+      resolveLocation();
 		return method;
 	}
+
   /**
-   * @see java.lang.Object#toString()
+   * Liefert den Text der Nachricht, ohne Parameter einzusetzen oder den
+   * Stacktrace anzuhaengen. Bei Meldungen mit Parametern also das Pattern,
+   * bei einem Supplier der Name seiner Klasse. Wird vom Logger-Thread
+   * verwendet, um Meldungen ohne Aufrufer-Position zuzuordnen.
+   * @return das Pattern bzw. der Text.
    */
-  public String toString()
+  String getPattern()
+  {
+    MessageSupplier s = this.supplier;
+    if (s != null)
+      return s.getClass().getName();
+    return this.text;
+  }
+
+  /**
+   * Speichert die Aufrufer-Position, aus der Klasse und Methode erst
+   * bei Bedarf ermittelt werden. Beim Erzeugen des Throwable haelt die JVM
+   * den kompletten Stack des loggenden Threads fest, das kostet dort mit der
+   * Tiefe des Stacks. Erst das Umwandeln in StackTraceElements und die Suche
+   * nach dem Aufrufer erfolgen im Logger-Thread.
+   * @param t die Aufrufer-Position.
+   */
+  void setLocation(Throwable t)
+  {
+    this.location = t;
+  }
+
+  /**
+   * Speichert den Record von java.util.logging, dessen Klasse und Methode erst
+   * bei Bedarf gelesen werden. Das Lesen veranlasst den Record, den Aufrufer
+   * per Stack-Walk zu suchen, sofern er nicht explizit angegeben wurde. Das
+   * darf nicht im loggenden Thread passieren. Im Logger-Thread findet der
+   * Record keinen Aufrufer, dann gilt die per {@link #setLocation(Throwable)}
+   * gespeicherte Position.
+   * @param record der Record.
+   */
+  void setSource(LogRecord record)
+  {
+    this.source = record;
+  }
+
+  /**
+   * Speichert die Parameter, aus denen der Text erst bei Bedarf erzeugt wird.
+   * Ist ein Supplier angegeben, liefert dieser den Text. Andernfalls wird der
+   * Text der Message als Pattern im Format von {@link MessageFormat} verwendet.
+   * Ist der letzte Wert eine Exception, die von keinem Platzhalter verwendet
+   * wird, wird sie als Exception der Message uebernommen (z.Bsp. bei
+   * <code>Logger.info("failed",e)</code>).
+   * @param args die in das Pattern einzusetzenden Werte.
+   * @param supplier optionaler Supplier fuer den Text.
+   */
+  void setDeferredText(Object[] args, MessageSupplier supplier)
+  {
+    if (supplier == null && this.thrown == null && args != null && args.length > 0)
+    {
+      int last = args.length - 1;
+      if ((args[last] instanceof Throwable) && !usesArgument(this.text,last))
+      {
+        this.thrown   = (Throwable) args[last];
+        this.rendered = false;
+        Object[] copy = new Object[last];
+        System.arraycopy(args,0,copy,0,last);
+        args = copy;
+      }
+    }
+    this.args = args;
+    this.supplier = supplier;
+  }
+
+  /**
+   * Prueft, ob das Pattern einen Platzhalter fuer den Wert mit dem angegebenen Index enthaelt.
+   * @param pattern das Pattern.
+   * @param index der Index des Wertes.
+   * @return true, wenn ein Platzhalter <code>{index}</code> oder <code>{index,...}</code> enthalten ist.
+   */
+  private static boolean usesArgument(String pattern, int index)
+  {
+    if (pattern == null)
+      return false;
+    String s = "{" + index;
+    int pos = pattern.indexOf(s);
+    while (pos != -1)
+    {
+      int end = pos + s.length();
+      if (end < pattern.length())
+      {
+        char c = pattern.charAt(end);
+        if (c == '}' || c == ',')
+          return true;
+      }
+      pos = pattern.indexOf(s,end);
+    }
+    return false;
+  }
+
+  /**
+   * Speichert die Exception, deren Stacktrace erst bei Bedarf an den Text
+   * angehaengt wird.
+   * @param t die Exception.
+   */
+  void setThrowable(Throwable t)
+  {
+    this.thrown = t;
+    this.rendered = false;
+  }
+
+  /**
+   * Haengt den Stacktrace der Exception mit Hilfe des Renderers an den Text an.
+   * Gleiche Stacktraces werden dabei innerhalb des Zeitfensters nur einmal
+   * vollstaendig ausgegeben. Wird nur vom Logger-Thread aufgerufen.
+   * @param renderer der Renderer.
+   * @param window Zeitfenster in Millisekunden.
+   */
+  void renderThrowable(ThrowableRenderer renderer, long window)
+  {
+    LOCK.lock();
+    try
+    {
+      if (this.thrown == null || this.rendered)
+        return;
+      resolveDeferred();
+      this.text = renderer.render(this.text,this.thrown,this.time,window);
+      this.rendered = true;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Erzeugt den Text aus Pattern und Parametern bzw. dem Supplier und haengt
+   * ggf. den vollstaendigen Stacktrace der Exception an.
+   */
+  private void resolveText()
+  {
+    LOCK.lock();
+    try
+    {
+      resolveDeferred();
+      if (this.thrown != null && !this.rendered)
+      {
+        this.text = ThrowableRenderer.render(this.text,this.thrown);
+        this.rendered = true;
+      }
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Erzeugt den Text aus Pattern und Parametern bzw. dem Supplier.
+   */
+  private void resolveDeferred()
+  {
+    if (this.supplier != null)
+    {
+      try
+      {
+        this.text = this.supplier.get();
+      }
+      catch (Exception e)
+      {
+        this.text = "unable to create log message: " + e;
+      }
+    }
+    else if (this.args != null && this.args.length > 0 && this.text != null)
+    {
+      try
+      {
+        this.text = MessageFormat.format(this.text,this.args);
+      }
+      catch (IllegalArgumentException e)
+      {
+        // Ungueltiges Pattern - dann haengen wir die Werte einfach an
+        this.text = this.text + " " + Arrays.asList(this.args);
+      }
+    }
+    this.supplier = null;
+    this.args = null;
+  }
+
+  /**
+   * Ermittelt Klasse und Methode des Aufrufers.
+   * Die im Record explizit angegebenen haben Vorrang. Ansonsten wandern wir
+   * den Stacktrace hoch, bis wir nicht mehr im Logger bzw. in einer Kategorie stehen.
+   */
+  private void resolveLocation()
+  {
+    LOCK.lock();
+    try
+    {
+      LogRecord r = this.source;
+      if (r != null)
+      {
+        String c = r.getSourceClassName();
+        if (c != null)
+        {
+          this.clazz = c;
+          this.method = r.getSourceMethodName();
+          this.location = null;
+        }
+        this.source = null;
+      }
+
+      Throwable t = this.location;
+      if (t == null)
+        return; // wurde inzwischen schon aufgeloest
+
+      StackTraceElement caller = Logger.findCaller(t.getStackTrace());
+      if (caller != null)
+      {
+        this.clazz = caller.getClassName();
+        this.method = caller.getMethodName();
+      }
+      this.location = null;
+    }
+    finally
+    {
+      LOCK.unlock();
+    }
+  }
+  /**
+   * Haengt die Text-Darstellung der Nachricht an den StringBuilder an.
+   * So koennen Targets einen wiederverwendbaren Puffer benutzen.
+   * @param sb der StringBuilder.
+   */
+  public void format(StringBuilder sb)
   {
-    StringBuffer sb = new StringBuffer();
     if (this.host != null && this.host.length() > 0)
     {
       sb.append("[");
@@ -124,10 +507,10 @@ public class Message
       sb.append("]");
     }
     
-    if (this.date != null)
+    if (this.time != 0L)
     {
       sb.append("[");
-      sb.append(this.date.toString());
+      localTimestampFormat().format(this.time,sb);
       sb.append("]");
     }
     
@@ -138,6 +521,8 @@ public class Message
       sb.append("]");
     }
     
+    String clazz  = getLoggingClass();
+    String method = getLoggingMethod();
 		if (clazz != null && method != null)
     {
       sb.append("[");
@@ -148,8 +533,52 @@ public class Message
     }
     
 		sb.append(" ");
-		sb.append(text);
-		return sb.toString();
+		sb.append(getText());
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder();
+    format(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Legt das Format der Zeitstempel fest.
+   * @param format das Format.
+   */
+  static void setTimestampFormat(TimestampFormat format)
+  {
+    timestampFormat = format;
+  }
+
+  /**
+   * Liefert das eingestellte Format der Zeitstempel.
+   * @return das Format.
+   */
+  static TimestampFormat getTimestampFormat()
+  {
+    return timestampFormat;
+  }
+
+  /**
+   * Liefert die Instanz des eingestellten Formats fuer den aktuellen Thread.
+   * Wurde das Format inzwischen geaendert, wird eine neue Instanz erzeugt.
+   * @return die Instanz.
+   */
+  private static TimestampFormat localTimestampFormat()
+  {
+    TimestampFormat[] f = FORMATS.get();
+    TimestampFormat template = timestampFormat;
+    if (f[0] != template)
+    {
+      f[0] = template;
+      f[1] = template.newInstance();
+    }
+    return f[1];
   }
 
 }
@@ -0,0 +1,24 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+/**
+ * Liefert den Text einer Log-Meldung erst bei Bedarf.
+ * Wird z.Bsp. an {@link Logger#debug(MessageSupplier)} uebergeben, damit der
+ * Text nur dann erzeugt wird, wenn das Log-Level auch tatsaechlich aktiv ist.
+ * Die Funktion wird im Logger-Thread aufgerufen. Sie sollte daher keine
+ * Objekte verwenden, die der loggende Thread anschliessend noch aendert.
+ */
+public interface MessageSupplier
+{
+  /**
+   * Liefert den Text der Log-Meldung.
+   * @return Text der Log-Meldung.
+   */
+  public String get();
+}
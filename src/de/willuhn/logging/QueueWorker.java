@@ -0,0 +1,339 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.io.Flushable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.willuhn.logging.targets.BatchTarget;
+import de.willuhn.logging.targets.Target;
+import de.willuhn.util.RingBuffer;
+
+/**
+ * Basis-Klasse fuer Threads, die Log-Meldungen aus einer Queue abholen und schreiben.
+ * Ist die Queue leer, legt sich der Thread schlafen, bis er von einem
+ * Producer geweckt wird. Andere Threads koennen per {@link #await(long, long)}
+ * warten, bis alle bis dahin eingegangenen Meldungen geschrieben wurden.
+ */
+abstract class QueueWorker extends Thread
+{
+  // maximale Anzahl der Meldungen, die am Stueck geschrieben werden
+  private final static int BATCH_SIZE = 256;
+
+  /**
+   * Die Queue mit den zu schreibenden Meldungen.
+   */
+  final RingBuffer<Message> queue;
+
+  /**
+   * true, wenn keine Meldungen mehr angenommen werden.
+   */
+  volatile boolean quit = false;
+
+  // true, solange der Thread schlafen gelegt ist und geweckt werden muss
+  private volatile boolean parked = false;
+
+  // Lese-Position der Queue, bis zu der alle Meldungen geschrieben wurden
+  private volatile long completed = 0L;
+
+  // Wird von await() verwendet, um auf den Thread zu warten
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition progress = lock.newCondition();
+  private final AtomicInteger waiting = new AtomicInteger(0);
+  private final CountDownLatch finished = new CountDownLatch(1);
+
+  /**
+   * ct.
+   * @param name Name des Threads.
+   * @param capacity Kapazitaet der Queue.
+   */
+  QueueWorker(String name, int capacity)
+  {
+    super(name);
+    setDaemon(true);
+    this.queue = new RingBuffer<Message>(capacity);
+  }
+
+  /**
+   * Schreibt die Meldungen.
+   * @param batch die Meldungen.
+   * @param count Anzahl der Meldungen.
+   */
+  abstract void dispatch(Message[] batch, int count);
+
+  /**
+   * Wird fuer jede Meldung aufgerufen, nachdem sie geschrieben wurde.
+   * @param msg die Meldung.
+   */
+  abstract void done(Message msg);
+
+  /**
+   * Wird aufgerufen, bevor sich der Thread mangels Arbeit schlafen legt.
+   */
+  void idle()
+  {
+  }
+
+  /**
+   * Liefert die maximale Dauer, die der Thread mangels Arbeit schlafen soll.
+   * Danach wird erneut {@link #idle()} aufgerufen.
+   * @return maximale Dauer in Millisekunden oder 0, wenn er schlafen soll, bis er geweckt wird.
+   */
+  long idleTimeout()
+  {
+    return 0L;
+  }
+
+  /**
+   * Weckt den Thread auf, falls er gerade schlaeft.
+   */
+  void wakeup()
+  {
+    if (parked)
+      LockSupport.unpark(this);
+  }
+
+  /**
+   * Beendet den Thread, nachdem die restlichen Meldungen geschrieben wurden.
+   */
+  void shutdown()
+  {
+    this.quit = true;
+    LockSupport.unpark(this);
+  }
+
+  /**
+   * Wartet, bis alle Meldungen bis zur angegebenen Position geschrieben wurden.
+   * @param position die Schreib-Position der Queue.
+   * @param timeout maximale Wartezeit in Millisekunden. Bei 0 wird unbegrenzt gewartet.
+   * @return true, wenn alle Meldungen geschrieben wurden, false bei Timeout.
+   * @throws InterruptedException
+   */
+  boolean await(long position, long timeout) throws InterruptedException
+  {
+    if (completed >= position)
+      return true;
+
+    // Aus dem Thread selbst heraus wuerden wir auf uns selbst warten.
+    if (Thread.currentThread() == this)
+      return false;
+
+    long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    waiting.incrementAndGet();
+    lock.lock();
+    try
+    {
+      while (completed < position)
+      {
+        if (finished.getCount() == 0)
+          return false; // Thread ist beendet, da kommt nichts mehr
+
+        if (timeout <= 0L)
+        {
+          progress.await();
+          continue;
+        }
+
+        if (nanos <= 0L)
+          return false;
+        nanos = progress.awaitNanos(nanos);
+      }
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+      waiting.decrementAndGet();
+    }
+  }
+
+  /**
+   * Wartet, bis der Thread die letzten Meldungen rausgeschrieben hat und beendet ist.
+   * @param timeout maximale Wartezeit in Millisekunden. Bei 0 wird unbegrenzt gewartet.
+   * @return true, wenn alles rausgeschrieben ist.
+   * @throws InterruptedException
+   */
+  boolean awaitFinished(long timeout) throws InterruptedException
+  {
+    if (Thread.currentThread() == this)
+      return false;
+
+    if (timeout <= 0L)
+    {
+      finished.await();
+      return true;
+    }
+    return finished.await(timeout,TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Aktualisiert die Position der geschriebenen Meldungen und benachrichtigt
+   * die ggf. in await() wartenden Threads.
+   */
+  private void complete()
+  {
+    completed = queue.getReadPosition();
+    if (waiting.get() == 0)
+      return;
+
+    lock.lock();
+    try
+    {
+      progress.signalAll();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Uebergibt die Meldungen an das Target.
+   * Targets, die {@link BatchTarget} implementieren, erhalten alle Meldungen
+   * in einem Aufruf, die anderen einzeln.
+   * @param target das Target.
+   * @param batch die Meldungen.
+   * @param count Anzahl der Meldungen.
+   * @param metrics optionale Statistik, in der Dauer und Fehler erfasst werden.
+   */
+  static void writeTo(Target target, Message[] batch, int count, LoggerMonitor.TargetMetrics metrics)
+  {
+    long start = metrics != null ? System.nanoTime() : 0L;
+    if (target instanceof BatchTarget)
+    {
+      try
+      {
+        ((BatchTarget)target).write(batch,count);
+      }
+      catch (Exception e)
+      {
+        if (metrics != null)
+          metrics.error();
+        for (int k=0;k<count;++k)
+          println("alert: error while logging the following message: " + batch[k].toString());
+      }
+    }
+    else
+    {
+      for (int k=0;k<count;++k)
+      {
+        try
+        {
+          target.write(batch[k]);
+        }
+        catch (Exception e)
+        {
+          if (metrics != null)
+            metrics.error();
+          println("alert: error while logging the following message: " + batch[k].toString());
+        }
+      }
+    }
+    if (metrics != null)
+      metrics.written(count,System.nanoTime() - start);
+  }
+
+  /**
+   * Schreibt den Puffer des Targets, falls es {@link Flushable} implementiert.
+   * @param target das Target.
+   */
+  static void flush(Target target)
+  {
+    if (!(target instanceof Flushable))
+      return;
+    try
+    {
+      ((Flushable)target).flush();
+    }
+    catch (Exception e)
+    {
+      println("alert: error while flushing log target " + target + ": " + e);
+    }
+  }
+
+  /**
+   * Gibt den Text auf STDOUT aus.
+   * @param text auszugebender Text.
+   */
+  static void println(String text)
+  {
+    try
+    {
+      System.out.println(text);
+    }
+    catch (Exception e)
+    {
+      // ignore - wenn STDOUT kaputt ist, koennen wir uns eh nicht mehr artikulieren ;)
+    }
+  }
+
+  /**
+   * @see java.lang.Runnable#run()
+   */
+  public void run()
+  {
+    try
+    {
+      Message msg = null;
+      Message[] batch = new Message[BATCH_SIZE];
+      int count = 0;
+      while(true)
+      {
+        // Alles abholen, was gerade in der Queue liegt
+        count = 0;
+        while (count < batch.length && (msg = queue.poll()) != null)
+          batch[count++] = msg;
+
+        if (count == 0)
+        {
+          if (quit && queue.size() == 0)
+          {
+            idle();
+            return;
+          }
+
+          // nichts zum Schreiben da, dann legen wir uns schlafen, bis
+          // wir von einem Producer geweckt werden. Vorher koennen noch
+          // Puffer geschrieben werden und wir checken nochmal, ob
+          // nicht gerade noch was reinkam.
+          idle();
+          long timeout = idleTimeout();
+          parked = true;
+          if (queue.size() == 0 && !quit)
+          {
+            if (timeout > 0L)
+              LockSupport.parkNanos(timeout * 1000L * 1000L);
+            else
+              LockSupport.park();
+          }
+          parked = false;
+          continue;
+        }
+
+        dispatch(batch,count);
+        for (int i=0;i<count;++i)
+        {
+          done(batch[i]);
+          batch[i] = null;
+        }
+        complete();
+      }
+    }
+    finally
+    {
+      // Wartende bekommen so auch mit, wenn der Thread beendet ist
+      finished.countDown();
+      complete();
+    }
+  }
+}
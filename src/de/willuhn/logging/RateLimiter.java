@@ -0,0 +1,326 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Begrenzt die Anzahl der Meldungen pro Aufrufer (Klasse und Methode) und Level.
+ * Ist die Aufrufer-Position nicht bekannt (z.Bsp. im Garbage-freien Modus),
+ * werden die Meldungen stattdessen nach ihrem Pattern bzw. Text unterschieden.
+ * Pro Sekunde werden hoechstens so viele Meldungen durchgelassen wie
+ * festgelegt, danach nur noch jede n-te. Die Anzahl der unterdrueckten
+ * Meldungen wird regelmaessig in einer zusammenfassenden Meldung ausgegeben.
+ * Wird ein Aufrufer verdraengt, weil zu viele gemerkt sind, bleibt seine
+ * Anzahl fuer die naechste Zusammenfassung erhalten.
+ * <p>
+ * Die Limits koennen jederzeit geaendert werden. Die Zaehler werden dagegen
+ * nur vom Logger-Thread verwendet und sind nicht thread-safe.
+ */
+class RateLimiter
+{
+  // Abstand der zusammenfassenden Meldungen
+  private final static long SUMMARY_INTERVAL = 10 * 1000L;
+
+  // Maximale Anzahl der gemerkten Aufrufer
+  private final static int MAX_SITES = 4096;
+
+  // Die Limits. Das Array wird bei Aenderungen komplett ersetzt.
+  private volatile Limit[] limits = new Limit[0];
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Map<Site,Site> sites = new LinkedHashMap<Site,Site>(64,0.75f,true) {
+    protected boolean removeEldestEntry(Map.Entry<Site,Site> eldest)
+    {
+      if (size() <= MAX_SITES)
+        return false;
+      evict(eldest.getValue());
+      return true;
+    }
+  };
+
+  // Zusammenfassungen verdraengter Aufrufer, die noch ausgegeben werden muessen
+  private final List<Message> evicted = new ArrayList<Message>();
+
+  // Unterdrueckte Meldungen verdraengter Aufrufer, wenn die Liste voll ist
+  private long lost = 0L;
+
+  // Wird fuer das Nachschlagen wiederverwendet, damit dabei kein Objekt erzeugt wird
+  private final Site probe = new Site(0,null,null,null);
+
+  private long pending     = 0L;
+  private long lastSummary = System.currentTimeMillis();
+
+  /**
+   * Legt das Limit fuer das Level fest.
+   * @param level das Level.
+   * @param perSecond maximale Anzahl der Meldungen pro Sekunde und Aufrufer. Bei 0 wird das Limit entfernt.
+   * @param sampling danach wird nur noch jede n-te Meldung durchgelassen. Bei 0 keine mehr.
+   */
+  void setLimit(Level level, int perSecond, int sampling)
+  {
+    lock.lock();
+    try
+    {
+      List<Limit> list = new ArrayList<Limit>();
+      for (int i=0;i<this.limits.length;++i)
+      {
+        if (this.limits[i].value != level.getValue())
+          list.add(this.limits[i]);
+      }
+      if (perSecond > 0)
+        list.add(new Limit(level.getValue(),perSecond,Math.max(0,sampling)));
+      this.limits = list.toArray(new Limit[list.size()]);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Prueft, ob ueberhaupt Limits festgelegt sind.
+   * @return true, wenn Limits festgelegt sind.
+   */
+  boolean isActive()
+  {
+    return this.limits.length > 0;
+  }
+
+  /**
+   * Prueft, ob die Meldung geschrieben werden darf.
+   * @param msg die Meldung.
+   * @return true, wenn sie geschrieben werden darf, false, wenn sie unterdrueckt wird.
+   */
+  boolean allow(Message msg)
+  {
+    Level level = msg.getLevel();
+    if (level == null)
+      return true;
+    Limit limit = null;
+    Limit[] list = this.limits;
+    for (int i=0;i<list.length;++i)
+    {
+      if (list[i].value == level.getValue())
+      {
+        limit = list[i];
+        break;
+      }
+    }
+    if (limit == null)
+      return true;
+
+    String clazz  = msg.getLoggingClass();
+    String method = msg.getLoggingMethod();
+    String pattern = (clazz == null || method == null) ? msg.getPattern() : null;
+    this.probe.set(level.getValue(),clazz,method,pattern);
+    Site site = this.sites.get(this.probe);
+    if (site == null)
+    {
+      site = new Site(level.getValue(),clazz,method,pattern);
+      site.level = level;
+      this.sites.put(site,site);
+    }
+
+    long second = msg.getTime() / 1000L;
+    if (second != site.second)
+    {
+      site.second = second;
+      site.count  = 0;
+    }
+
+    int n = ++site.count;
+    if (n <= limit.perSecond)
+      return true;
+    if (limit.sampling > 0 && (n - limit.perSecond) % limit.sampling == 0)
+      return true;
+
+    site.suppressed++;
+    this.pending++;
+    return false;
+  }
+
+  /**
+   * Liefert die Zeit bis zur naechsten faelligen zusammenfassenden Meldung.
+   * @param now aktueller Zeitstempel in Millisekunden.
+   * @return Wartezeit in Millisekunden oder -1, wenn keine Meldungen unterdrueckt wurden.
+   */
+  long nextSummary(long now)
+  {
+    if (this.pending == 0L)
+      return -1L;
+    return Math.max(0L,this.lastSummary + SUMMARY_INTERVAL - now);
+  }
+
+  /**
+   * Erzeugt die zusammenfassenden Meldungen, sofern sie faellig sind.
+   * @param now aktueller Zeitstempel in Millisekunden.
+   * @param force true, wenn sie unabhaengig vom Intervall erzeugt werden sollen.
+   * @return die Meldungen oder <code>null</code>, wenn keine faellig sind.
+   */
+  Message[] summary(long now, boolean force)
+  {
+    long wait = nextSummary(now);
+    if (wait < 0L || (wait > 0L && !force))
+      return null;
+
+    List<Message> list = new ArrayList<Message>(this.evicted);
+    this.evicted.clear();
+    if (this.lost > 0L)
+    {
+      list.add(new Message(new Date(now),Level.WARN,null,null,"suppressed " + this.lost + " messages from evicted callers"));
+      this.lost = 0L;
+    }
+    Iterator<Site> it = this.sites.values().iterator();
+    while (it.hasNext())
+    {
+      Site site = it.next();
+      if (site.suppressed == 0L)
+        continue;
+      list.add(summary(site,now));
+      site.suppressed = 0L;
+    }
+    this.pending = 0L;
+    this.lastSummary = now;
+    return list.toArray(new Message[list.size()]);
+  }
+
+  /**
+   * Merkt sich die unterdrueckten Meldungen eines Aufrufers, bevor er verdraengt wird.
+   * Ist die Liste voll, wird nur noch die Anzahl gezaehlt.
+   * @param site der verdraengte Aufrufer.
+   */
+  private void evict(Site site)
+  {
+    if (site.suppressed == 0L)
+      return;
+    if (this.evicted.size() < MAX_SITES)
+      this.evicted.add(summary(site,System.currentTimeMillis()));
+    else
+      this.lost += site.suppressed;
+    site.suppressed = 0L;
+  }
+
+  /**
+   * Erzeugt die zusammenfassende Meldung fuer einen Aufrufer.
+   * @param site der Aufrufer.
+   * @param now aktueller Zeitstempel in Millisekunden.
+   * @return die Meldung.
+   */
+  private static Message summary(Site site, long now)
+  {
+    String name = site.pattern != null ? "\"" + site.pattern + "\"" : site.clazz + "." + site.method;
+    return new Message(new Date(now),site.level,site.clazz,site.method,"suppressed " + site.suppressed + " messages from " + name);
+  }
+
+  /**
+   * Ein Limit.
+   */
+  private static class Limit
+  {
+    private final int value;
+    private final int perSecond;
+    private final int sampling;
+
+    /**
+     * ct.
+     * @param value Wertigkeit des Levels.
+     * @param perSecond maximale Anzahl pro Sekunde.
+     * @param sampling danach jede n-te.
+     */
+    private Limit(int value, int perSecond, int sampling)
+    {
+      this.value     = value;
+      this.perSecond = perSecond;
+      this.sampling  = sampling;
+    }
+  }
+
+  /**
+   * Ein Aufrufer mit seinen Zaehlern.
+   */
+  private static class Site
+  {
+    private int value;
+    private String clazz;
+    private String method;
+    private String pattern;
+
+    private Level level      = null;
+    private long second      = 0L;
+    private int count        = 0;
+    private long suppressed  = 0L;
+
+    /**
+     * ct.
+     * @param value Wertigkeit des Levels.
+     * @param clazz Klasse.
+     * @param method Methode.
+     * @param pattern Pattern der Meldung, wenn der Aufrufer nicht bekannt ist.
+     */
+    private Site(int value, String clazz, String method, String pattern)
+    {
+      set(value,clazz,method,pattern);
+    }
+
+    /**
+     * Setzt die Schluessel-Werte.
+     * @param value Wertigkeit des Levels.
+     * @param clazz Klasse.
+     * @param method Methode.
+     * @param pattern Pattern der Meldung, wenn der Aufrufer nicht bekannt ist.
+     */
+    private void set(int value, String clazz, String method, String pattern)
+    {
+      this.value   = value;
+      this.clazz   = clazz;
+      this.method  = method;
+      this.pattern = pattern;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    public int hashCode()
+    {
+      int h = this.value;
+      h = 31 * h + (this.clazz == null ? 0 : this.clazz.hashCode());
+      h = 31 * h + (this.method == null ? 0 : this.method.hashCode());
+      h = 31 * h + (this.pattern == null ? 0 : this.pattern.hashCode());
+      return h;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Site))
+        return false;
+      Site other = (Site) o;
+      return this.value == other.value && equals(this.clazz,other.clazz) && equals(this.method,other.method) && equals(this.pattern,other.pattern);
+    }
+
+    /**
+     * Vergleicht zwei Strings, die auch <code>null</code> sein koennen.
+     * @param a String 1.
+     * @param b String 2.
+     * @return true, wenn sie gleich sind.
+     */
+    private static boolean equals(String a, String b)
+    {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+}
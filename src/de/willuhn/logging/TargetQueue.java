@@ -0,0 +1,226 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.util.concurrent.locks.LockSupport;
+
+import de.willuhn.logging.Logger.OverflowPolicy;
+import de.willuhn.logging.targets.BatchTarget;
+import de.willuhn.logging.targets.Target;
+import de.willuhn.util.RingBuffer;
+
+/**
+ * Kapselt ein Target mit eigener Queue und eigenem Thread.
+ * Der Logger-Thread kopiert die Meldungen nur in die Queue, geschrieben
+ * werden sie dann von einem separaten Thread. Ein langsames Target haelt
+ * so die anderen nicht auf.
+ * Die Kopien werden in vorab angelegte Slots geschrieben, damit der
+ * Logger die Original-Meldungen wiederverwenden kann.
+ */
+class TargetQueue extends QueueWorker implements BatchTarget
+{
+  /**
+   * Maximale Wartezeit in Millisekunden bei voller Queue und BLOCK, wenn kein Timeout angegeben ist.
+   * Schreibt der Thread des Targets selbst ins Log, wartet er unter Umstaenden
+   * auf den Logger-Thread, der wiederum auf ihn wartet. Daher wird nie unbegrenzt gewartet.
+   */
+  final static long MAX_BLOCK = 10000L;
+
+  private final Target target;
+  private final OverflowPolicy policy;
+  private final long timeout;
+  private final LoggerMonitor.TargetMetrics metrics;
+
+  // Die noch freien Slots
+  private final RingBuffer<Message> free;
+
+  /**
+   * ct.
+   * @param target das eigentliche Target.
+   * @param capacity Kapazitaet der Queue.
+   * @param policy Verhalten bei voller Queue.
+   * @param timeout maximale Wartezeit in Millisekunden bei voller Queue und BLOCK
+   * sowie beim Schliessen. Bei 0 wird beim Schliessen unbegrenzt und bei voller
+   * Queue hoechstens {@link #MAX_BLOCK} Millisekunden gewartet.
+   * @param metrics Statistik des Targets.
+   */
+  TargetQueue(Target target, int capacity, OverflowPolicy policy, long timeout, LoggerMonitor.TargetMetrics metrics)
+  {
+    super("Logger-Thread-" + target.getClass().getSimpleName(),capacity);
+    this.target  = target;
+    this.policy  = policy;
+    this.timeout = timeout;
+    this.metrics = metrics;
+
+    // Es gibt genau so viele Slots wie Platz in der Queue ist. Hat man
+    // einen freien Slot, passt er also auch in die Queue.
+    this.free = new RingBuffer<Message>(this.queue.capacity());
+    for (int i=0;i<this.queue.capacity();++i)
+      this.free.offer(new Message());
+  }
+
+  /**
+   * Liefert das eigentliche Target.
+   * @return das eigentliche Target.
+   */
+  Target getTarget()
+  {
+    return this.target;
+  }
+
+  /**
+   * Wartet, bis alle bisher eingegangenen Meldungen geschrieben wurden.
+   * @param timeout maximale Wartezeit in Millisekunden. Bei 0 wird unbegrenzt gewartet.
+   * @return true, wenn alle Meldungen geschrieben wurden, false bei Timeout.
+   * @throws InterruptedException
+   */
+  boolean await(long timeout) throws InterruptedException
+  {
+    return await(this.queue.getWritePosition(),timeout);
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.Target#write(de.willuhn.logging.Message)
+   */
+  public void write(Message message) throws Exception
+  {
+    if (message != null)
+      enqueue(message);
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.BatchTarget#write(de.willuhn.logging.Message[], int)
+   */
+  public void write(Message[] batch, int count) throws Exception
+  {
+    for (int i=0;i<count;++i)
+    {
+      if (batch[i] != null)
+        enqueue(batch[i]);
+    }
+  }
+
+  /**
+   * Schreibt die restlichen Meldungen, beendet den Thread und schliesst das Target.
+   * @see de.willuhn.logging.targets.Target#close()
+   */
+  public void close() throws Exception
+  {
+    shutdown();
+    if (!awaitFinished(this.timeout))
+      println("alert: timeout while closing log target " + this.target);
+    this.target.close();
+  }
+
+  /**
+   * Kopiert die Meldung in einen freien Slot und stellt sie in die Queue.
+   * @param msg die Meldung.
+   */
+  private void enqueue(Message msg)
+  {
+    if (quit)
+    {
+      metrics.dropped();
+      return;
+    }
+
+    Message slot = free.poll();
+    if (slot == null)
+      slot = overflow(msg);
+    if (slot == null)
+      return; // wurde verworfen bzw. direkt ausgegeben
+
+    slot.copyFrom(msg);
+    queue.offer(slot);
+    wakeup();
+  }
+
+  /**
+   * Behandelt eine volle Queue gemaess der festgelegten Policy.
+   * @param msg die neue Meldung.
+   * @return ein Slot fuer die neue Meldung oder <code>null</code>, wenn sie
+   * verworfen bzw. direkt ausgegeben wurde.
+   */
+  private Message overflow(Message msg)
+  {
+    Message slot = null;
+    switch (policy)
+    {
+      case BLOCK:
+        // Der Thread des Targets darf nicht auf sich selbst warten
+        if (Thread.currentThread() == this)
+        {
+          metrics.dropped();
+          return null;
+        }
+        long max = timeout > 0L ? timeout : MAX_BLOCK;
+        long start = System.currentTimeMillis();
+        while ((slot = free.poll()) == null)
+        {
+          if (quit || System.currentTimeMillis() - start >= max)
+          {
+            metrics.dropped();
+            return null;
+          }
+          wakeup();
+          LockSupport.parkNanos(100000L);
+        }
+        return slot;
+
+      case DROP_NEWEST:
+        metrics.dropped();
+        return null;
+
+      case DROP_OLDEST:
+        // Den Slot der aeltesten Meldung wiederverwenden. Hat der Thread
+        // gerade alle Meldungen abgeholt, warten wir, bis er Slots freigibt.
+        while ((slot = queue.poll()) == null && (slot = free.poll()) == null)
+        {
+          if (quit)
+          {
+            metrics.dropped();
+            return null;
+          }
+          Thread.yield();
+        }
+        if (slot.getTime() != 0L)
+          metrics.dropped();
+        return slot;
+
+      default:
+        println("***** [WARN] Logger queue of " + target + " full, writing to STDOUT *****");
+        println(msg.toString());
+        return null;
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.QueueWorker#dispatch(de.willuhn.logging.Message[], int)
+   */
+  void dispatch(Message[] batch, int count)
+  {
+    writeTo(this.target,batch,count,this.metrics);
+  }
+
+  /**
+   * @see de.willuhn.logging.QueueWorker#done(de.willuhn.logging.Message)
+   */
+  void done(Message msg)
+  {
+    msg.init(0L,null,null,null,null,null,false);
+    free.offer(msg);
+  }
+
+  /**
+   * @see de.willuhn.logging.QueueWorker#idle()
+   */
+  void idle()
+  {
+    flush(this.target);
+  }
+}
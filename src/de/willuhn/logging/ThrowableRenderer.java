@@ -0,0 +1,135 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Erzeugt die Text-Darstellung von Exceptions.
+ * Gleiche Stacktraces werden anhand eines Fingerabdrucks erkannt. Innerhalb
+ * des Zeitfensters wird ein Stacktrace nur einmal vollstaendig ausgegeben,
+ * danach nur noch die erste Zeile mit einem Verweis auf dessen Nummer.
+ * Tritt die selbe Exception waehrend eines Ausfalls tausendfach auf, spart
+ * das sowohl Rechenzeit als auch Platz im Log.
+ * <p>
+ * Die Klasse ist nicht thread-safe und wird nur vom Logger-Thread verwendet.
+ */
+class ThrowableRenderer
+{
+  // Maximale Anzahl der gemerkten Fingerabdruecke
+  private final static int MAX_ENTRIES = 1024;
+
+  private final Map<Long,Trace> seen = new LinkedHashMap<Long,Trace>(64,0.75f,true) {
+    protected boolean removeEldestEntry(Map.Entry<Long,Trace> eldest)
+    {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  private int nextId = 1;
+
+  /**
+   * Erzeugt die Text-Darstellung der Nachricht mit der Exception.
+   * @param text Text der Nachricht.
+   * @param t die Exception.
+   * @param time Zeitstempel der Nachricht in Millisekunden seit 1970.
+   * @param window Zeitfenster in Millisekunden, innerhalb dessen gleiche
+   * Stacktraces nur einmal vollstaendig ausgegeben werden. Bei 0 wird
+   * jeder Stacktrace vollstaendig ausgegeben.
+   * @return die Text-Darstellung.
+   */
+  String render(String text, Throwable t, long time, long window)
+  {
+    if (window <= 0L)
+      return render(text,t);
+
+    Long key = Long.valueOf(fingerprint(t));
+    Trace e = this.seen.get(key);
+    if (e != null && time >= e.time && time - e.time < window)
+    {
+      e.repeated++;
+      return text + "\n" + t + " [stack trace #" + e.id + "]";
+    }
+
+    if (e == null)
+    {
+      e = new Trace(this.nextId++);
+      this.seen.put(key,e);
+    }
+    String s = (e.repeated > 0 ? " [stack trace #" + e.id + ", repeated " + e.repeated + " times]" : " [stack trace #" + e.id + "]");
+    e.time = time;
+    e.repeated = 0;
+    return render(text + s,t);
+  }
+
+  /**
+   * Erzeugt die Text-Darstellung der Nachricht mit dem vollstaendigen Stacktrace.
+   * @param text Text der Nachricht.
+   * @param t die Exception.
+   * @return die Text-Darstellung.
+   */
+  static String render(String text, Throwable t)
+  {
+    StringWriter sw = new StringWriter();
+    sw.write(String.valueOf(text));
+    sw.write("\n");
+    t.printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+
+  /**
+   * Berechnet den Fingerabdruck des Stacktraces.
+   * Beruecksichtigt werden Klassen und Stacktraces der Exception und aller
+   * Ursachen, nicht jedoch die Texte, da diese oft variable Werte enthalten.
+   * @param t die Exception.
+   * @return der Fingerabdruck.
+   */
+  static long fingerprint(Throwable t)
+  {
+    long h = 1125899906842597L;
+    int depth = 0;
+    while (t != null && depth++ < 16)
+    {
+      h = 31L * h + t.getClass().getName().hashCode();
+      StackTraceElement[] stack = t.getStackTrace();
+      for (int i=0;i<stack.length;++i)
+      {
+        StackTraceElement e = stack[i];
+        h = 31L * h + e.getClassName().hashCode();
+        h = 31L * h + e.getMethodName().hashCode();
+        h = 31L * h + e.getLineNumber();
+      }
+      if (t.getCause() == t)
+        break;
+      t = t.getCause();
+    }
+    return h;
+  }
+
+  /**
+   * Ein gemerkter Stacktrace.
+   */
+  private static class Trace
+  {
+    private final int id;
+    private long time    = 0L;
+    private int repeated = 0;
+
+    /**
+     * ct.
+     * @param id Nummer des Stacktraces.
+     */
+    private Trace(int id)
+    {
+      this.id = id;
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formatiert die Zeitstempel der Log-Meldungen.
+ * Datum und Uhrzeit werden nur einmal pro Sekunde berechnet. Innerhalb der
+ * Sekunde werden nur noch die Millisekunden in den gecachten Text eingesetzt.
+ * <p>
+ * Instanzen sind nicht thread-safe und duerfen jeweils nur von einem Thread
+ * verwendet werden. Weitere Threads holen sich per {@link #newInstance()}
+ * eine eigene Instanz mit der gleichen Konfiguration.
+ * @see Logger#setTimestampFormat(TimestampFormat)
+ */
+public abstract class TimestampFormat
+{
+  /**
+   * Haengt den formatierten Zeitstempel an.
+   * @param time Zeitstempel in Millisekunden seit 1970.
+   * @param sb der StringBuilder.
+   */
+  public abstract void format(long time, StringBuilder sb);
+
+  /**
+   * Erzeugt eine neue Instanz mit der gleichen Konfiguration fuer einen anderen Thread.
+   * @return die neue Instanz.
+   */
+  public abstract TimestampFormat newInstance();
+
+  /**
+   * Liefert den formatierten Zeitstempel.
+   * @param time Zeitstempel in Millisekunden seit 1970.
+   * @return der formatierte Zeitstempel.
+   */
+  public String format(long time)
+  {
+    StringBuilder sb = new StringBuilder(32);
+    format(time,sb);
+    return sb.toString();
+  }
+
+  /**
+   * Wandelt einen formatierten Zeitstempel zurueck in Millisekunden.
+   * Wird beim Durchsuchen der Log-Archive verwendet.
+   * Die Default-Implementierung unterstuetzt das nicht.
+   * @param text der formatierte Zeitstempel.
+   * @return Zeitstempel in Millisekunden seit 1970.
+   * @throws ParseException wenn der Text nicht diesem Format entspricht.
+   */
+  public long parse(String text) throws ParseException
+  {
+    throw new ParseException("parsing not supported",0);
+  }
+
+  /**
+   * Parst den Text komplett mit dem SimpleDateFormat.
+   * @param df das Format.
+   * @param text der Text.
+   * @return Zeitstempel in Millisekunden seit 1970.
+   * @throws ParseException
+   */
+  static long parse(SimpleDateFormat df, String text) throws ParseException
+  {
+    ParsePosition pos = new ParsePosition(0);
+    Date d = df.parse(text,pos);
+    if (d == null || pos.getIndex() != text.length())
+      throw new ParseException("invalid timestamp: " + text,pos.getErrorIndex());
+    return d.getTime();
+  }
+
+  /**
+   * Liefert das bisherige Format von java.util.Date, z.Bsp.
+   * "Sat Oct 17 14:03:12 CEST 2026". Es enthaelt keine Millisekunden.
+   * Das ist der Default.
+   * @return das Format.
+   */
+  public static TimestampFormat date()
+  {
+    return new DateText();
+  }
+
+  /**
+   * Liefert das Format nach ISO 8601 in der lokalen Zeitzone,
+   * z.Bsp. "2026-10-17T14:03:12.345+0200".
+   * @return das Format.
+   */
+  public static TimestampFormat iso8601()
+  {
+    return new Pattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ",TimeZone.getDefault(),Locale.US);
+  }
+
+  /**
+   * Liefert das Format nach ISO 8601 in UTC, z.Bsp. "2026-10-17T12:03:12.345Z".
+   * @return das Format.
+   */
+  public static TimestampFormat iso8601UTC()
+  {
+    return new Pattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",TimeZone.getTimeZone("UTC"),Locale.US);
+  }
+
+  /**
+   * Liefert die Millisekunden seit 1970 als Zahl.
+   * @return das Format.
+   */
+  public static TimestampFormat epoch()
+  {
+    return new Epoch();
+  }
+
+  /**
+   * Liefert ein Format nach dem Muster von {@link SimpleDateFormat} in der lokalen Zeitzone.
+   * @param pattern das Muster, z.Bsp. "dd.MM.yyyy HH:mm:ss.SSS".
+   * @return das Format.
+   */
+  public static TimestampFormat pattern(String pattern)
+  {
+    return pattern(pattern,TimeZone.getDefault());
+  }
+
+  /**
+   * Liefert ein Format nach dem Muster von {@link SimpleDateFormat}.
+   * Die Millisekunden koennen nur dann nachtraeglich eingesetzt werden, wenn
+   * sie im Muster dreistellig ("SSS") vorkommen. Bei anderen Mustern mit
+   * Millisekunden wird jeder Zeitstempel komplett formatiert.
+   * @param pattern das Muster, z.Bsp. "dd.MM.yyyy HH:mm:ss.SSS".
+   * @param tz die Zeitzone.
+   * @return das Format.
+   */
+  public static TimestampFormat pattern(String pattern, TimeZone tz)
+  {
+    // Wirft eine IllegalArgumentException bei ungueltigem Muster
+    new SimpleDateFormat(pattern);
+    return new Pattern(pattern,tz,Locale.getDefault());
+  }
+
+  /**
+   * Schreibt eine Zahl mit fester Stellenzahl in das Array.
+   * @param target das Array.
+   * @param pos Position der ersten Stelle.
+   * @param value die Zahl.
+   * @param digits Anzahl der Stellen.
+   */
+  static void putDigits(char[] target, int pos, int value, int digits)
+  {
+    for (int i=pos + digits - 1;i>=pos;--i)
+    {
+      target[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  /**
+   * Das Format von java.util.Date.
+   */
+  private static class DateText extends TimestampFormat
+  {
+    private final Date date = new Date();
+    private long second     = Long.MIN_VALUE;
+    private String text     = null;
+
+    private SimpleDateFormat parser = null;
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#format(long, java.lang.StringBuilder)
+     */
+    public void format(long time, StringBuilder sb)
+    {
+      long sec = time / 1000L;
+      if (sec != this.second || this.text == null)
+      {
+        this.date.setTime(time);
+        this.text   = this.date.toString();
+        this.second = sec;
+      }
+      sb.append(this.text);
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#parse(java.lang.String)
+     */
+    public long parse(String text) throws ParseException
+    {
+      if (this.parser == null)
+        this.parser = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy",Locale.US);
+      return parse(this.parser,text);
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#newInstance()
+     */
+    public TimestampFormat newInstance()
+    {
+      return new DateText();
+    }
+  }
+
+  /**
+   * Millisekunden seit 1970.
+   */
+  private static class Epoch extends TimestampFormat
+  {
+    /**
+     * @see de.willuhn.logging.TimestampFormat#format(long, java.lang.StringBuilder)
+     */
+    public void format(long time, StringBuilder sb)
+    {
+      sb.append(time);
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#parse(java.lang.String)
+     */
+    public long parse(String text) throws ParseException
+    {
+      try
+      {
+        return Long.parseLong(text);
+      }
+      catch (NumberFormatException e)
+      {
+        throw new ParseException("invalid timestamp: " + text,0);
+      }
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#newInstance()
+     */
+    public TimestampFormat newInstance()
+    {
+      return new Epoch();
+    }
+  }
+
+  /**
+   * Format nach einem Muster von SimpleDateFormat.
+   */
+  private static class Pattern extends TimestampFormat
+  {
+    private final String pattern;
+    private final TimeZone tz;
+    private final Locale locale;
+    private final SimpleDateFormat df;
+    private final Date date = new Date();
+
+    private long second  = Long.MIN_VALUE;
+    private char[] text  = null;
+
+    // Position der Millisekunden im Text, -1 wenn sie nicht vorkommen,
+    // -2 wenn sie nicht eingesetzt werden koennen
+    private int millisPos = -1;
+
+    /**
+     * ct.
+     * @param pattern das Muster.
+     * @param tz die Zeitzone.
+     * @param locale die Sprache fuer Namen von Monaten und Wochentagen.
+     */
+    private Pattern(String pattern, TimeZone tz, Locale locale)
+    {
+      this.pattern = pattern;
+      this.tz      = tz;
+      this.locale  = locale;
+      this.df      = new SimpleDateFormat(pattern,locale);
+      this.df.setTimeZone(tz);
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#format(long, java.lang.StringBuilder)
+     */
+    public void format(long time, StringBuilder sb)
+    {
+      long sec = time / 1000L;
+      int millis = (int) (time % 1000L);
+      if (millis < 0)
+      {
+        sec--;
+        millis += 1000;
+      }
+
+      if (sec != this.second || this.text == null)
+      {
+        // Einmal mit 000 und einmal mit 999 Millisekunden formatieren. Wo
+        // sich die Texte unterscheiden, stehen die Millisekunden.
+        long start = sec * 1000L;
+        String s1 = formatDate(start);
+        String s2 = formatDate(start + 999L);
+        this.text = s1.toCharArray();
+        this.millisPos = locateMillis(s1,s2);
+        this.second = sec;
+      }
+
+      if (this.millisPos == -2)
+      {
+        sb.append(formatDate(time));
+        return;
+      }
+      if (this.millisPos >= 0)
+        putDigits(this.text,this.millisPos,millis,3);
+      sb.append(this.text);
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#parse(java.lang.String)
+     */
+    public long parse(String text) throws ParseException
+    {
+      return parse(this.df,text);
+    }
+
+    /**
+     * Formatiert den Zeitstempel komplett.
+     * @param time der Zeitstempel.
+     * @return der Text.
+     */
+    private String formatDate(long time)
+    {
+      this.date.setTime(time);
+      return this.df.format(this.date);
+    }
+
+    /**
+     * Ermittelt die Position der dreistelligen Millisekunden.
+     * @param s1 Text mit 000 Millisekunden.
+     * @param s2 Text mit 999 Millisekunden.
+     * @return Position, -1 wenn sie nicht vorkommen, -2 wenn sie nicht eingesetzt werden koennen.
+     */
+    private static int locateMillis(String s1, String s2)
+    {
+      if (s1.equals(s2))
+        return -1;
+      if (s1.length() != s2.length())
+        return -2;
+
+      int first = -1;
+      int last  = -1;
+      for (int i=0;i<s1.length();++i)
+      {
+        if (s1.charAt(i) == s2.charAt(i))
+          continue;
+        if (first < 0)
+          first = i;
+        last = i;
+      }
+      if (last - first != 2 || !s1.regionMatches(first,"000",0,3) || !s2.regionMatches(first,"999",0,3))
+        return -2;
+      return first;
+    }
+
+    /**
+     * @see de.willuhn.logging.TimestampFormat#newInstance()
+     */
+    public TimestampFormat newInstance()
+    {
+      return new Pattern(this.pattern,this.tz,this.locale);
+    }
+  }
+}
@@ -0,0 +1,545 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import de.willuhn.io.IOUtil;
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Message;
+
+/**
+ * Index zu einem rotierten Log-Archiv.
+ * {@link LogrotateTarget} teilt die Log-Datei beim Schreiben in Bloecke von
+ * etwa {@link #BLOCK_SIZE} Bytes und merkt sich pro Block Zeitraum,
+ * Anzahl der Meldungen pro Level und die vorkommenden Klassen. Beim
+ * Komprimieren wird jeder Block als eigenstaendiges gzip-Member geschrieben,
+ * das einzeln entpackt werden kann. Der Index liegt neben dem Archiv in einer
+ * Datei mit der Endung {@link #SUFFIX}. Gesucht wird darin mit
+ * {@link de.willuhn.logging.LogArchiveReader}.
+ * <p>
+ * Aufbau der Datei (Zahlen big-endian, Texte als modified UTF-8 von {@link DataOutputStream}):
+ * <pre>
+ * Datei:  "WLIX" Version(1 Byte) Komprimiert(1 Byte) Zeichensatz(UTF) Anzahl(int) Block*
+ * Block:  Offset(long) Laenge(long) Roh-Offset(long) Roh-Laenge(long)
+ *         Meldungen(int) Von(long) Bis(long)
+ *         Anzahl(short) {Level-Name(UTF) Level-Wert(int) Meldungen(int)}*
+ *         Anzahl(short) {Klasse(UTF)}*
+ * </pre>
+ * Offset und Laenge beziehen sich auf die Archiv-Datei, Roh-Offset und
+ * Roh-Laenge auf die unkomprimierte Log-Datei. Bei Bloecken mit unbekanntem
+ * Inhalt (z.Bsp. der beim Anhaengen schon vorhandene Teil der Datei) ist die
+ * Anzahl der Meldungen -1. Enthaelt ein Block mehr als {@link #MAX_CLASSES}
+ * Klassen, ist die Anzahl der Klassen -1.
+ */
+public class ArchiveIndex
+{
+  /**
+   * Kennung am Anfang der Datei.
+   */
+  public final static byte[] MAGIC = new byte[]{'W','L','I','X'};
+
+  /**
+   * Version des Formats.
+   */
+  public final static int VERSION = 1;
+
+  /**
+   * Endung der Index-Datei, wird an den Namen des Archivs angehaengt.
+   */
+  public final static String SUFFIX = ".idx";
+
+  /**
+   * Ungefaehre Groesse eines Blocks in Bytes (unkomprimiert).
+   */
+  public final static int BLOCK_SIZE = 256 * 1024;
+
+  /**
+   * Maximale Anzahl der Klassen pro Block.
+   */
+  public final static int MAX_CLASSES = 256;
+
+  private boolean compressed = false;
+  private String charset     = null;
+  private final List<Block> blocks = new ArrayList<Block>();
+
+  /**
+   * ct.
+   */
+  ArchiveIndex()
+  {
+  }
+
+  /**
+   * Liefert die Index-Datei zum Archiv.
+   * @param archive das Archiv.
+   * @return die Index-Datei.
+   */
+  public static File getFile(File archive)
+  {
+    return new File(archive.getPath() + SUFFIX);
+  }
+
+  /**
+   * Prueft, ob die Bloecke im Archiv als einzelne gzip-Member vorliegen.
+   * @return true, wenn das Archiv komprimiert ist.
+   */
+  public boolean isCompressed()
+  {
+    return this.compressed;
+  }
+
+  /**
+   * Legt fest, ob die Bloecke im Archiv als einzelne gzip-Member vorliegen.
+   * @param b true, wenn das Archiv komprimiert ist.
+   */
+  void setCompressed(boolean b)
+  {
+    this.compressed = b;
+  }
+
+  /**
+   * Liefert den Zeichensatz der Log-Datei.
+   * @return der Zeichensatz.
+   */
+  public String getCharset()
+  {
+    return this.charset;
+  }
+
+  /**
+   * Legt den Zeichensatz der Log-Datei fest.
+   * @param charset der Zeichensatz.
+   */
+  void setCharset(String charset)
+  {
+    this.charset = charset;
+  }
+
+  /**
+   * Liefert die Bloecke in der Reihenfolge, in der sie in der Datei stehen.
+   * @return die Bloecke.
+   */
+  public List<Block> getBlocks()
+  {
+    return Collections.unmodifiableList(this.blocks);
+  }
+
+  /**
+   * Beginnt einen neuen Block.
+   * @param rawOffset Position des Blocks in der unkomprimierten Datei.
+   * @return der neue Block.
+   */
+  Block newBlock(long rawOffset)
+  {
+    Block b = new Block();
+    b.rawOffset = rawOffset;
+    this.blocks.add(b);
+    return b;
+  }
+
+  /**
+   * Fuegt einen Block mit unbekanntem Inhalt hinzu.
+   * @param rawOffset Position des Blocks in der unkomprimierten Datei.
+   * @param rawLength Laenge des Blocks in der unkomprimierten Datei.
+   */
+  void addUnknown(long rawOffset, long rawLength)
+  {
+    Block b = newBlock(rawOffset);
+    b.rawLength = rawLength;
+    b.messages  = -1;
+    b.classes   = null;
+  }
+
+  /**
+   * Gleicht die Bloecke mit der tatsaechlichen Laenge der Log-Datei ab.
+   * Ist beim Schreiben ein Fehler aufgetreten, passen die Bloecke eventuell
+   * nicht mehr zur Datei. Ab dem ersten unpassenden Block werden sie durch
+   * einen Block mit unbekanntem Inhalt ersetzt.
+   * @param length Laenge der unkomprimierten Log-Datei.
+   */
+  void fit(long length)
+  {
+    long pos = 0L;
+    for (int i=0;i<this.blocks.size();++i)
+    {
+      Block b = this.blocks.get(i);
+      if (b.rawOffset != pos || pos + b.rawLength > length)
+      {
+        this.blocks.subList(i,this.blocks.size()).clear();
+        break;
+      }
+      pos += b.rawLength;
+    }
+    if (pos < length)
+      addUnknown(pos,length - pos);
+  }
+
+  /**
+   * Liest den Index aus der Datei.
+   * @param file die Index-Datei.
+   * @return der Index.
+   * @throws IOException
+   */
+  public static ArchiveIndex read(File file) throws IOException
+  {
+    DataInputStream is = null;
+    try
+    {
+      is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      for (int i=0;i<MAGIC.length;++i)
+      {
+        if (is.read() != MAGIC[i])
+          throw new IOException("not a log archive index: " + file);
+      }
+      int version = is.read();
+      if (version < 1 || version > VERSION)
+        throw new IOException("unsupported version of log archive index: " + version);
+
+      boolean compressed = is.readBoolean();
+      ArchiveIndex index = new ArchiveIndex();
+      index.compressed = compressed;
+      index.charset    = is.readUTF();
+      int count = is.readInt();
+      for (int i=0;i<count;++i)
+      {
+        Block b = index.newBlock(0L);
+        b.offset    = is.readLong();
+        b.length    = is.readLong();
+        b.rawOffset = is.readLong();
+        b.rawLength = is.readLong();
+        b.messages  = is.readInt();
+        b.from      = is.readLong();
+        b.to        = is.readLong();
+        int levels = is.readShort();
+        for (int k=0;k<levels;++k)
+        {
+          String name = is.readUTF();
+          int value   = is.readInt();
+          b.levels.add(new LevelCount(name,value,is.readInt()));
+        }
+        int classes = is.readShort();
+        if (classes < 0)
+          b.classes = null;
+        for (int k=0;k<classes;++k)
+          b.classes.add(is.readUTF());
+      }
+      return index;
+    }
+    finally
+    {
+      IOUtil.close(is);
+    }
+  }
+
+  /**
+   * Schreibt den Index in die Datei.
+   * Es wird zuerst in eine temporaere Datei geschrieben, damit bei einem
+   * Abbruch kein halber Index uebrig bleibt.
+   * @param file die Index-Datei.
+   * @throws IOException
+   */
+  void write(File file) throws IOException
+  {
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream os = null;
+    try
+    {
+      os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      os.write(MAGIC);
+      os.write(VERSION);
+      os.writeBoolean(this.compressed);
+      os.writeUTF(this.charset);
+      os.writeInt(this.blocks.size());
+      for (Block b:this.blocks)
+      {
+        os.writeLong(b.offset);
+        os.writeLong(b.length);
+        os.writeLong(b.rawOffset);
+        os.writeLong(b.rawLength);
+        os.writeInt(b.messages);
+        os.writeLong(b.from);
+        os.writeLong(b.to);
+        os.writeShort(b.levels.size());
+        for (LevelCount c:b.levels)
+        {
+          os.writeUTF(c.name);
+          os.writeInt(c.value);
+          os.writeInt(c.count);
+        }
+        if (b.classes == null)
+        {
+          os.writeShort(-1);
+        }
+        else
+        {
+          os.writeShort(b.classes.size());
+          for (String s:b.classes)
+            os.writeUTF(s);
+        }
+      }
+      os.close();
+      os = null;
+
+      if (file.exists() && !file.delete())
+        throw new IOException("unable to delete " + file);
+      if (!tmp.renameTo(file))
+        throw new IOException("unable to rename " + tmp + " to " + file);
+    }
+    finally
+    {
+      IOUtil.close(os);
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Ein Block der Log-Datei.
+   */
+  public static class Block
+  {
+    private long offset    = 0L;
+    private long length    = 0L;
+    private long rawOffset = 0L;
+    private long rawLength = 0L;
+
+    private int messages = 0;
+    private long from    = Long.MAX_VALUE;
+    private long to      = Long.MIN_VALUE;
+
+    private final List<LevelCount> levels = new ArrayList<LevelCount>();
+    private Set<String> classes = new HashSet<String>();
+
+    /**
+     * ct.
+     */
+    private Block()
+    {
+    }
+
+    /**
+     * Liefert die Position des Blocks im Archiv.
+     * @return Position in Bytes.
+     */
+    public long getOffset()
+    {
+      return this.offset;
+    }
+
+    /**
+     * Liefert die Laenge des Blocks im Archiv.
+     * @return Laenge in Bytes.
+     */
+    public long getLength()
+    {
+      return this.length;
+    }
+
+    /**
+     * Liefert die Position des Blocks in der unkomprimierten Log-Datei.
+     * @return Position in Bytes.
+     */
+    public long getRawOffset()
+    {
+      return this.rawOffset;
+    }
+
+    /**
+     * Liefert die Laenge des Blocks in der unkomprimierten Log-Datei.
+     * @return Laenge in Bytes.
+     */
+    public long getRawLength()
+    {
+      return this.rawLength;
+    }
+
+    /**
+     * Liefert die Anzahl der Meldungen.
+     * @return Anzahl der Meldungen oder -1, wenn der Inhalt unbekannt ist.
+     */
+    public int getMessages()
+    {
+      return this.messages;
+    }
+
+    /**
+     * Liefert den Zeitstempel der aeltesten Meldung.
+     * @return Zeitstempel in Millisekunden.
+     */
+    public long getFrom()
+    {
+      return this.from;
+    }
+
+    /**
+     * Liefert den Zeitstempel der neuesten Meldung.
+     * @return Zeitstempel in Millisekunden.
+     */
+    public long getTo()
+    {
+      return this.to;
+    }
+
+    /**
+     * Liefert die Anzahl der Meldungen des Levels.
+     * @param level das Level.
+     * @return Anzahl der Meldungen oder -1, wenn der Inhalt unbekannt ist.
+     */
+    public int getCount(Level level)
+    {
+      if (this.messages < 0)
+        return -1;
+      for (LevelCount c:this.levels)
+      {
+        if (c.value == level.getValue() && c.name.equals(level.getName()))
+          return c.count;
+      }
+      return 0;
+    }
+
+    /**
+     * Prueft, ob der Block Meldungen enthalten kann, die den Kriterien entsprechen.
+     * @param from nur Meldungen ab diesem Zeitpunkt (Millisekunden).
+     * @param to nur Meldungen bis zu diesem Zeitpunkt (Millisekunden).
+     * @param level nur Meldungen ab diesem Level. Optional.
+     * @param clazz nur Meldungen von Klassen, die damit beginnen. Optional.
+     * @return true, wenn der Block passende Meldungen enthalten kann.
+     */
+    public boolean matches(long from, long to, Level level, String clazz)
+    {
+      if (this.messages < 0)
+        return true;
+      if (this.messages == 0)
+        return false;
+
+      // Meldungen ohne Zeitstempel sind im Zeitraum nicht enthalten
+      if (this.from > to || this.to < from)
+        return false;
+
+      if (level != null)
+      {
+        boolean found = false;
+        for (int i=0;i<this.levels.size() && !found;++i)
+          found = this.levels.get(i).value >= level.getValue();
+        if (!found)
+          return false;
+      }
+
+      if (clazz != null && this.classes != null)
+      {
+        Iterator<String> it = this.classes.iterator();
+        while (it.hasNext())
+        {
+          if (it.next().startsWith(clazz))
+            return true;
+        }
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Uebernimmt die Meldung in die Statistik des Blocks.
+     * @param msg die Meldung.
+     */
+    void add(Message msg)
+    {
+      this.messages++;
+
+      long time = msg.getTime();
+      if (time != 0L)
+      {
+        if (time < this.from)
+          this.from = time;
+        if (time > this.to)
+          this.to = time;
+      }
+
+      Level level = msg.getLevel();
+      if (level != null)
+      {
+        LevelCount c = null;
+        for (int i=0;i<this.levels.size();++i)
+        {
+          LevelCount lc = this.levels.get(i);
+          if (lc.value == level.getValue() && lc.name.equals(level.getName()))
+          {
+            c = lc;
+            break;
+          }
+        }
+        if (c == null)
+        {
+          c = new LevelCount(level.getName(),level.getValue(),0);
+          this.levels.add(c);
+        }
+        c.count++;
+      }
+
+      String clazz = msg.getLoggingClass();
+      if (clazz != null && this.classes != null && this.classes.add(clazz) && this.classes.size() > MAX_CLASSES)
+        this.classes = null;
+    }
+
+    /**
+     * Legt Position und Laenge im Archiv fest.
+     * @param offset Position in Bytes.
+     * @param length Laenge in Bytes.
+     */
+    void setLocation(long offset, long length)
+    {
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * Vergroessert den Block in der unkomprimierten Datei.
+     * @param bytes Anzahl der hinzugekommenen Bytes.
+     */
+    void grow(long bytes)
+    {
+      this.rawLength += bytes;
+    }
+  }
+
+  /**
+   * Anzahl der Meldungen eines Levels.
+   */
+  private static class LevelCount
+  {
+    private final String name;
+    private final int value;
+    private int count;
+
+    /**
+     * ct.
+     * @param name Name des Levels.
+     * @param value Wertigkeit des Levels.
+     * @param count Anzahl der Meldungen.
+     */
+    private LevelCount(String name, int value, int count)
+    {
+      this.name  = name;
+      this.value = value;
+      this.count = count;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import de.willuhn.logging.Message;
+
+/**
+ * Optionale Erweiterung eines Targets, welches mehrere Nachrichten
+ * auf einmal schreiben kann. Der Logger uebergibt dann alle gerade
+ * in der Queue befindlichen Nachrichten in einem Aufruf, sodass das
+ * Target sie z.Bsp. mit einem einzigen Schreibzugriff rausschreiben kann.
+ */
+public interface BatchTarget extends Target
+{
+  /**
+   * Schreibt die uebergebenen Nachrichten in das Logging-Target.
+   * Das Array wird vom Logger wiederverwendet. Das Target darf sich
+   * also keine Referenz darauf merken.
+   * @param batch Array mit den zu loggenden Nachrichten.
+   * @param count Anzahl der Nachrichten im Array, beginnend bei Index 0.
+   * @throws Exception
+   */
+  public void write(Message[] batch, int count) throws Exception;
+}
@@ -0,0 +1,355 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Message;
+
+/**
+ * Implementierung eines Targets, welches die Log-Meldungen in einem kompakten
+ * Binaer-Format schreibt. Die Meldungen muessen hierbei nicht als Text formatiert
+ * werden. Klassen-, Methoden-, Host- und Level-Namen werden pro Datei nur einmal
+ * in ein Woerterbuch geschrieben und danach nur noch ueber ihre ID referenziert.
+ * Lesbar gemacht werden die Dateien mit {@link de.willuhn.logging.BinaryLogDecoder}.
+ * <p>
+ * Aufbau der Datei:
+ * <pre>
+ * Datei:    "WLOG" Version(1 Byte) Record*
+ * Record:   Laenge(varint) Typ(1 Byte) Daten
+ *
+ * Typ 0 - Reset:   keine Daten. Woerterbuch und Zeitstempel beginnen von vorn.
+ * Typ 1 - String:  ID(varint) Laenge(varint) Text(UTF-8)
+ * Typ 2 - Meldung: Zeit(zigzag-varint, Differenz zur vorherigen Meldung in Millisekunden)
+ *                  Level-ID(varint) Level-Wert(zigzag-varint)
+ *                  Host-ID(varint) Klassen-ID(varint) Methoden-ID(varint)
+ *                  Laenge(varint) Text(UTF-8)
+ * </pre>
+ * Die ID 0 steht fuer "nicht angegeben". Ein Reset wird bei jedem Oeffnen der
+ * Datei geschrieben, sodass auch an bestehende Dateien angehaengt werden kann.
+ * Unbekannte Record-Typen koennen anhand der Laenge uebersprungen werden.
+ */
+public class BinaryTarget implements BatchTarget, Flushable
+{
+  /**
+   * Kennung am Anfang der Datei.
+   */
+  public final static byte[] MAGIC = new byte[]{'W','L','O','G'};
+
+  /**
+   * Version des Datei-Formats.
+   */
+  public final static int VERSION = 1;
+
+  /**
+   * Record-Typ: Woerterbuch und Zeitstempel zuruecksetzen.
+   */
+  public final static int TYPE_RESET   = 0;
+
+  /**
+   * Record-Typ: Eintrag im Woerterbuch.
+   */
+  public final static int TYPE_STRING  = 1;
+
+  /**
+   * Record-Typ: Log-Meldung.
+   */
+  public final static int TYPE_MESSAGE = 2;
+
+  // Maximale Anzahl der Eintraege im Woerterbuch. Danach beginnt es von vorn.
+  private final static int MAX_DICTIONARY = 8192;
+
+  private OutputStream os = null;
+
+  private final Map<String,Integer> dictionary = new HashMap<String,Integer>();
+  private long lastTime = 0L;
+
+  private final Record record = new Record();
+  private final Record entry  = new Record();
+
+  // Kein Monitor, damit wartende virtuelle Threads ihren Carrier-Thread nicht blockieren
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * ct.
+   * @param target Die Ziel-Datei.
+   * @param append Legt fest, ob an die Datei angehaengt oder sie ueberschrieben werden soll.
+   * @throws IOException
+   */
+  public BinaryTarget(File target, boolean append) throws IOException
+  {
+    boolean header = !append || target.length() == 0L;
+    this.os = new BufferedOutputStream(new FileOutputStream(target,append),64 * 1024);
+    if (header)
+    {
+      this.os.write(MAGIC);
+      this.os.write(VERSION);
+    }
+    reset();
+    this.os.flush();
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.Target#write(de.willuhn.logging.Message)
+   */
+  public void write(Message message) throws Exception
+  {
+    if (message == null)
+      return;
+    lock.lock();
+    try
+    {
+      append(message);
+      this.os.flush();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.BatchTarget#write(de.willuhn.logging.Message[], int)
+   */
+  public void write(Message[] batch, int count) throws Exception
+  {
+    if (batch == null || count <= 0)
+      return;
+    lock.lock();
+    try
+    {
+      for (int i=0;i<count;++i)
+      {
+        if (batch[i] != null)
+          append(batch[i]);
+      }
+      this.os.flush();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see java.io.Flushable#flush()
+   */
+  public void flush() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      this.os.flush();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.Target#close()
+   */
+  public void close() throws Exception
+  {
+    lock.lock();
+    try
+    {
+      this.os.close();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schreibt die Meldung als Record.
+   * Noch nicht im Woerterbuch enthaltene Strings werden vorher geschrieben.
+   * @param msg die Meldung.
+   * @throws IOException
+   */
+  private void append(Message msg) throws IOException
+  {
+    if (this.dictionary.size() + 4 > MAX_DICTIONARY)
+      reset();
+
+    Level level   = msg.getLevel();
+    int levelId   = lookup(level == null ? null : level.getName());
+    int hostId    = lookup(msg.getHost());
+    int classId   = lookup(msg.getLoggingClass());
+    int methodId  = lookup(msg.getLoggingMethod());
+
+    long time = msg.getTime();
+    Record r = this.record;
+    r.clear();
+    r.put(TYPE_MESSAGE);
+    r.putZigZag(time - this.lastTime);
+    r.putVarint(levelId);
+    r.putZigZag(level == null ? 0 : level.getValue());
+    r.putVarint(hostId);
+    r.putVarint(classId);
+    r.putVarint(methodId);
+    r.putString(msg.getText());
+    r.writeTo(this.os);
+
+    this.lastTime = time;
+  }
+
+  /**
+   * Liefert die ID des Strings im Woerterbuch.
+   * Ist er noch nicht enthalten, wird er hinzugefuegt und geschrieben.
+   * @param s der String.
+   * @return die ID oder 0, wenn der String <code>null</code> ist.
+   * @throws IOException
+   */
+  private int lookup(String s) throws IOException
+  {
+    if (s == null)
+      return 0;
+
+    Integer id = this.dictionary.get(s);
+    if (id != null)
+      return id.intValue();
+
+    int i = this.dictionary.size() + 1;
+    this.dictionary.put(s,Integer.valueOf(i));
+
+    Record r = this.entry;
+    r.clear();
+    r.put(TYPE_STRING);
+    r.putVarint(i);
+    r.putString(s);
+    r.writeTo(this.os);
+    return i;
+  }
+
+  /**
+   * Setzt Woerterbuch und Zeitstempel zurueck und schreibt einen Reset-Record.
+   * @throws IOException
+   */
+  private void reset() throws IOException
+  {
+    this.dictionary.clear();
+    this.lastTime = 0L;
+
+    Record r = this.entry;
+    r.clear();
+    r.put(TYPE_RESET);
+    r.writeTo(this.os);
+  }
+
+  /**
+   * Wiederverwendbarer Puffer fuer einen Record.
+   */
+  private static class Record
+  {
+    private byte[] data = new byte[1024];
+    private int pos     = 0;
+
+    /**
+     * Leert den Puffer.
+     */
+    private void clear()
+    {
+      this.pos = 0;
+    }
+
+    /**
+     * Stellt sicher, dass noch die angegebene Anzahl Bytes in den Puffer passt.
+     * @param n Anzahl der Bytes.
+     */
+    private void ensure(int n)
+    {
+      if (this.pos + n <= this.data.length)
+        return;
+      byte[] b = new byte[Math.max(this.data.length * 2,this.pos + n)];
+      System.arraycopy(this.data,0,b,0,this.pos);
+      this.data = b;
+    }
+
+    /**
+     * Schreibt ein Byte.
+     * @param b das Byte.
+     */
+    private void put(int b)
+    {
+      ensure(1);
+      this.data[this.pos++] = (byte) b;
+    }
+
+    /**
+     * Schreibt eine positive Zahl mit variabler Laenge (7 Bit pro Byte).
+     * @param value die Zahl.
+     */
+    private void putVarint(long value)
+    {
+      ensure(10);
+      while ((value & ~0x7FL) != 0L)
+      {
+        this.data[this.pos++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      this.data[this.pos++] = (byte) value;
+    }
+
+    /**
+     * Schreibt eine ggf. negative Zahl mit variabler Laenge.
+     * @param value die Zahl.
+     */
+    private void putZigZag(long value)
+    {
+      putVarint((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Schreibt einen String mit vorangestellter Laenge als UTF-8.
+     * @param s der String.
+     * @throws IOException
+     */
+    private void putString(String s) throws IOException
+    {
+      if (s == null || s.length() == 0)
+      {
+        putVarint(0);
+        return;
+      }
+      byte[] b = s.getBytes("UTF-8");
+      putVarint(b.length);
+      ensure(b.length);
+      System.arraycopy(b,0,this.data,this.pos,b.length);
+      this.pos += b.length;
+    }
+
+    /**
+     * Schreibt den Record mit vorangestellter Laenge in den Stream.
+     * @param os der Stream.
+     * @throws IOException
+     */
+    private void writeTo(OutputStream os) throws IOException
+    {
+      long len = this.pos;
+      while ((len & ~0x7FL) != 0L)
+      {
+        os.write((int) ((len & 0x7F) | 0x80));
+        len >>>= 7;
+      }
+      os.write((int) len);
+      os.write(this.data,0,this.pos);
+    }
+  }
+}
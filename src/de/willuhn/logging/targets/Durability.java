@@ -0,0 +1,138 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Message;
+
+/**
+ * Legt fest, wann ein Target die geschriebenen Meldungen auf den Datentraeger
+ * zwingt (fsync). Ein fsync kostet je nach Datentraeger einige Millisekunden.
+ * Moeglich sind:
+ * <ul>
+ *   <li>{@link #NONE}: Das Schreiben bleibt dem Betriebssystem ueberlassen.</li>
+ *   <li>{@link #interval(long)}: Hoechstens alle n Millisekunden ein fsync fuer
+ *   alle in diesem Zeitraum geschriebenen Meldungen (Group-Commit).</li>
+ *   <li>{@link #level(Level)}: Ein fsync, sobald Meldungen ab dem Level geschrieben
+ *   wurden, z.Bsp. damit Fehler garantiert auf der Platte sind, ohne dass jede
+ *   INFO-Meldung einen fsync ausloest.</li>
+ * </ul>
+ * Beides laesst sich per {@link #Durability(long, Level)} kombinieren.
+ */
+public final class Durability
+{
+  /**
+   * Kein fsync.
+   */
+  public final static Durability NONE = new Durability(0L,null);
+
+  private final long interval;
+  private final Level level;
+
+  /**
+   * ct.
+   * @param interval Abstand der fsyncs in Millisekunden. Bei 0 nicht zeitgesteuert.
+   * @param level fsync nach Meldungen ab diesem Level. Bei <code>null</code> nicht abhaengig vom Level.
+   */
+  public Durability(long interval, Level level)
+  {
+    this.interval = Math.max(0L,interval);
+    this.level    = level;
+  }
+
+  /**
+   * Liefert eine Durability mit fsync hoechstens alle n Millisekunden.
+   * @param millis Abstand in Millisekunden.
+   * @return die Durability.
+   */
+  public static Durability interval(long millis)
+  {
+    return new Durability(millis,null);
+  }
+
+  /**
+   * Liefert eine Durability mit fsync nach jeder Meldung ab dem Level.
+   * @param level das Level.
+   * @return die Durability.
+   */
+  public static Durability level(Level level)
+  {
+    return new Durability(0L,level);
+  }
+
+  /**
+   * Liefert den Abstand der fsyncs.
+   * @return Abstand in Millisekunden oder 0.
+   */
+  public long getInterval()
+  {
+    return this.interval;
+  }
+
+  /**
+   * Liefert das Level, ab dem nach jeder Meldung ein fsync erfolgt.
+   * @return das Level oder <code>null</code>.
+   */
+  public Level getLevel()
+  {
+    return this.level;
+  }
+
+  /**
+   * Prueft, ob ueberhaupt ein fsync erfolgt.
+   * @return true, wenn ein fsync erfolgt.
+   */
+  public boolean isEnabled()
+  {
+    return this.interval > 0L || this.level != null;
+  }
+
+  /**
+   * Prueft, ob nach dem Schreiben der Meldung sofort ein fsync noetig ist.
+   * @param msg die Meldung.
+   * @return true, wenn ein fsync noetig ist.
+   */
+  boolean requiresSync(Message msg)
+  {
+    Level l = this.level;
+    return l != null && msg != null && msg.getLevel() != null && msg.getLevel().getValue() >= l.getValue();
+  }
+
+  /**
+   * Prueft, ob nach dem Schreiben der Meldungen sofort ein fsync noetig ist.
+   * @param batch die Meldungen.
+   * @param count Anzahl der Meldungen.
+   * @return true, wenn ein fsync noetig ist.
+   */
+  boolean requiresSync(Message[] batch, int count)
+  {
+    if (this.level == null)
+      return false;
+    for (int i=0;i<count;++i)
+    {
+      if (requiresSync(batch[i]))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  public String toString()
+  {
+    if (!isEnabled())
+      return "none";
+    StringBuffer sb = new StringBuffer();
+    if (this.interval > 0L)
+      sb.append("every " + this.interval + "ms");
+    if (this.level != null)
+      sb.append((sb.length() > 0 ? ", " : "") + "from " + this.level.getName());
+    return sb.toString();
+  }
+}
@@ -0,0 +1,135 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.willuhn.logging.Logger;
+
+/**
+ * Fuehrt in festem Abstand einen fsync auf einem Target aus, sofern seitdem
+ * geschrieben wurde. Alle in diesem Zeitraum geschriebenen Meldungen teilen
+ * sich so einen fsync (Group-Commit).
+ */
+class GroupCommit implements Runnable
+{
+  private final String name;
+  private final Syncable target;
+
+  private ScheduledExecutorService worker = null;
+
+  // Kein Monitor, damit wartende virtuelle Threads ihren Carrier-Thread nicht blockieren
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // true, wenn seit dem letzten fsync geschrieben wurde
+  private volatile boolean dirty = false;
+
+  /**
+   * ct.
+   * @param name Name des Hintergrund-Threads.
+   * @param target das Target.
+   */
+  GroupCommit(String name, Syncable target)
+  {
+    this.name   = name;
+    this.target = target;
+  }
+
+  /**
+   * Legt den Abstand der fsyncs fest.
+   * @param millis Abstand in Millisekunden. Bei 0 wird der Hintergrund-Thread beendet.
+   */
+  void setInterval(long millis)
+  {
+    lock.lock();
+    try
+    {
+      stop();
+      if (millis <= 0L)
+        return;
+
+      final String threadName = this.name;
+      this.worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r,threadName);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      this.worker.scheduleWithFixedDelay(this,millis,millis,TimeUnit.MILLISECONDS);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Vermerkt, dass geschrieben wurde.
+   */
+  void written()
+  {
+    this.dirty = true;
+  }
+
+  /**
+   * Vermerkt, dass das Target gerade einen fsync ausgefuehrt hat.
+   */
+  void synced()
+  {
+    this.dirty = false;
+  }
+
+  /**
+   * Beendet den Hintergrund-Thread.
+   */
+  void stop()
+  {
+    lock.lock();
+    try
+    {
+      if (this.worker != null)
+      {
+        this.worker.shutdown();
+        this.worker = null;
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see java.lang.Runnable#run()
+   */
+  public void run()
+  {
+    if (!this.dirty)
+      return;
+
+    // Vor dem fsync zuruecksetzen, damit waehrenddessen Geschriebenes
+    // beim naechsten Mal dran ist
+    this.dirty = false;
+    try
+    {
+      this.target.sync();
+    }
+    catch (Exception e)
+    {
+      // Beim naechsten Mal erneut versuchen
+      this.dirty = true;
+      Logger.error("unable to sync log target " + this.target,e);
+    }
+  }
+}
@@ -16,38 +16,94 @@ package de.willuhn.logging.targets;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.zip.GZIPOutputStream;
 
-import de.willuhn.io.FileCopy;
+import de.willuhn.io.IOUtil;
 import de.willuhn.logging.Logger;
 import de.willuhn.logging.Message;
 
 /**
  * Implementierung eines Targets, welches nach einer definierten Dateigroesse
  * das Log-File rotiert und optional zippt.
+ * Die Ausgaben werden gepuffert ueber einen FileChannel geschrieben. Die
+ * aktuelle Dateigroesse wird mitgezaehlt, statt sie vor jeder Zeile vom
+ * Dateisystem abzufragen.
+ * <p>
+ * Zu jedem Archiv wird ein {@link ArchiveIndex} geschrieben. Komprimierte
+ * Archive bestehen aus mehreren gzip-Membern, die einzeln entpackt werden
+ * koennen. Standard-Tools wie gunzip lesen sie trotzdem als eine Datei.
  * @author willuhn
  */
-public class LogrotateTarget implements Target
+public class LogrotateTarget implements BatchTarget, Flushable, Syncable
 {
 
   private File file = null;
-  private OutputStream os = null;
+  private FileChannel channel = null;
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
   private boolean append = true;
   private boolean skipRotate = false;
+
+  // Anzahl der bisher in die Datei geschriebenen Bytes (inclusive Puffer)
+  private long length = 0L;
+
+  private long flushInterval = 0L;
+  private long lastFlush = 0L;
   
   private long maxLength = 1L * 1024L * 1024L;
   private boolean zip = true;
+
+  private volatile int maxArchives = 0;
+  private volatile long maxArchiveSize = 0L;
+
+  // Hintergrund-Thread zum Komprimieren der rotierten Dateien
+  private ExecutorService worker = null;
+
+  // Namen der rotierten Dateien, die noch auf ihre Komprimierung warten
+  private final Set<String> pending = Collections.synchronizedSet(new HashSet<String>());
+
+  // Zeitstempel und laufende Nummer der letzten Rotation
+  private String lastPrefix = null;
+  private int lastIndex = 0;
   
   private final static DateFormat DF = new SimpleDateFormat("yyyyMMdd-HHmm_ss");
-  private final static String lineSep = System.getProperty("line.separator");
+  private MessageEncoder encoder = new MessageEncoder();
+
+  // Index der aktuellen Datei und der aktuelle Block darin
+  private boolean indexing = true;
+  private ArchiveIndex index = null;
+  private ArchiveIndex.Block block = null;
+
+  private volatile Durability durability = Durability.NONE;
+  private GroupCommit commit = null;
+
+  // Kein Monitor, damit wartende virtuelle Threads ihren Carrier-Thread
+  // nicht blockieren, waehrend wir die Datei schreiben oder rotieren.
+  private final ReentrantLock lock = new ReentrantLock();
 
   /**
    * ct.
@@ -59,7 +115,7 @@ public class LogrotateTarget implements Target
   {
     this.file = target;
     this.append = append;
-    this.os = new FileOutputStream(this.file,this.append);
+    openFile();
   }
 
   /**
@@ -82,6 +138,106 @@ public class LogrotateTarget implements Target
   {
     this.zip = zip;
   }
+
+  /**
+   * Legt die maximale Anzahl der rotierten Archive fest.
+   * Werden es mehr, werden die aeltesten geloescht.
+   * Default: 0 - unbegrenzt.
+   * @param count maximale Anzahl.
+   */
+  public void setMaxArchives(int count)
+  {
+    this.maxArchives = count;
+  }
+
+  /**
+   * Legt die maximale Gesamtgroesse der rotierten Archive fest.
+   * Wird sie ueberschritten, werden die aeltesten geloescht.
+   * Default: 0 - unbegrenzt.
+   * @param bytes maximale Gesamtgroesse in Bytes.
+   */
+  public void setMaxArchiveSize(long bytes)
+  {
+    this.maxArchiveSize = bytes;
+  }
+
+  /**
+   * Legt fest, wie lange die Ausgaben maximal im Puffer bleiben duerfen, bevor
+   * sie in die Datei geschrieben werden. Unabhaengig davon wird der Puffer
+   * geschrieben, wenn er voll ist oder der Logger nichts mehr zu tun hat.
+   * Default: 0 - der Puffer wird nach jedem Schreibvorgang geschrieben.
+   * @param millis Zeit in Millisekunden.
+   */
+  public void setFlushInterval(long millis)
+  {
+    this.flushInterval = millis;
+  }
+
+  /**
+   * Legt fest, ob zu den Archiven ein {@link ArchiveIndex} geschrieben wird.
+   * Default: true.
+   * @param b true, wenn ein Index geschrieben werden soll.
+   */
+  public void setIndex(boolean b)
+  {
+    lock.lock();
+    try
+    {
+      this.indexing = b;
+      this.block = null;
+      this.index = null;
+      if (b)
+      {
+        this.index = new ArchiveIndex();
+        if (this.length > 0L)
+          this.index.addUnknown(0L,this.length);
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Legt fest, wann die Log-Datei per fsync auf die Platte geschrieben wird.
+   * Default: {@link Durability#NONE}.
+   * @param durability die Durability.
+   */
+  public void setDurability(Durability durability)
+  {
+    lock.lock();
+    try
+    {
+      this.durability = (durability == null ? Durability.NONE : durability);
+      if (this.commit == null && this.durability.getInterval() > 0L)
+        this.commit = new GroupCommit("logrotate sync " + this.file.getName(),this);
+      if (this.commit != null)
+        this.commit.setInterval(this.durability.getInterval());
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Legt den Zeichensatz fest, in dem die Log-Datei geschrieben wird.
+   * Default: Der Default-Zeichensatz der Plattform.
+   * @param encoding Name des Zeichensatzes, z.Bsp. "UTF-8".
+   */
+  public void setEncoding(String encoding)
+  {
+    lock.lock();
+    try
+    {
+      this.encoder = new MessageEncoder(Charset.forName(encoding));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
   
   /**
    * @see de.willuhn.logging.targets.Target#write(de.willuhn.logging.Message)
@@ -91,123 +247,534 @@ public class LogrotateTarget implements Target
     if (message == null)
       return;
 
-    checkRotate();
-    os.write((message.toString() + lineSep).getBytes());
+    lock.lock();
+    try
+    {
+      checkRotate();
+      long start = this.length;
+      append(encoder.encode(message));
+      if (this.index != null)
+        currentBlock(start).add(message);
+      indexed(start);
+      written(durability.requiresSync(message));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.BatchTarget#write(de.willuhn.logging.Message[], int)
+   */
+  public void write(Message[] batch, int count) throws Exception
+  {
+    if (batch == null || count <= 0)
+      return;
+
+    lock.lock();
+    try
+    {
+      checkRotate();
+      long start = this.length;
+      append(encoder.encode(batch,count));
+      if (this.index != null)
+      {
+        ArchiveIndex.Block b = currentBlock(start);
+        for (int i=0;i<count;++i)
+        {
+          if (batch[i] != null)
+            b.add(batch[i]);
+        }
+      }
+      indexed(start);
+      written(durability.requiresSync(batch,count));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schreibt den Puffer in die Datei.
+   * @see java.io.Flushable#flush()
+   */
+  public void flush() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      buffer.clear();
+      lastFlush = System.currentTimeMillis();
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
+   * Schreibt den Puffer in die Datei und wartet, bis die Daten auf der Platte sind.
+   * @see de.willuhn.logging.targets.Syncable#sync()
+   */
+  public void sync() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      flush();
+      channel.force(false);
+      if (this.commit != null)
+        this.commit.synced();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schliesst die Datei und wartet, bis noch laufende Komprimierungen beendet sind.
    * @see de.willuhn.logging.targets.Target#close()
    */
   public void close() throws Exception
   {
-    os.close();
+    ExecutorService w = null;
+    lock.lock();
+    try
+    {
+      if (this.commit != null)
+        this.commit.stop();
+      closeFile();
+      w = this.worker;
+      if (w != null)
+        w.shutdown();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    // Gewartet wird ohne Lock, damit andere Threads nicht solange haengen
+    if (w != null)
+      w.awaitTermination(60L,TimeUnit.SECONDS);
+  }
+
+  /**
+   * Haengt die Bytes an den Puffer an und schreibt ihn ggf. in die Datei.
+   * @param data die Bytes.
+   * @throws IOException
+   */
+  private void append(ByteBuffer data) throws IOException
+  {
+    this.length += data.remaining();
+
+    if (data.remaining() > buffer.remaining())
+    {
+      flush();
+
+      // Passt auch in den leeren Puffer nicht rein. Dann direkt schreiben
+      if (data.remaining() > buffer.remaining())
+      {
+        while (data.hasRemaining())
+          channel.write(data);
+        return;
+      }
+    }
+    buffer.put(data);
+
+    if (flushInterval <= 0L || System.currentTimeMillis() - lastFlush >= flushInterval)
+      flush();
+  }
+
+  /**
+   * Liefert den aktuellen Block des Index und beginnt ggf. einen neuen.
+   * @param start aktuelle Position in der Datei.
+   * @return der Block.
+   */
+  private ArchiveIndex.Block currentBlock(long start)
+  {
+    if (this.block == null)
+      this.block = this.index.newBlock(start);
+    return this.block;
+  }
+
+  /**
+   * Vermerkt die geschriebenen Bytes im aktuellen Block des Index.
+   * Ist der Block voll, beginnt mit dem naechsten Schreibvorgang ein neuer.
+   * Die Meldungen eines Schreibvorgangs landen so immer im selben Block.
+   * @param start Position in der Datei vor dem Schreiben.
+   */
+  private void indexed(long start)
+  {
+    if (this.block == null)
+      return;
+    this.block.grow(this.length - start);
+    if (this.block.getRawLength() >= ArchiveIndex.BLOCK_SIZE)
+      this.block = null;
+  }
+
+  /**
+   * Wird nach dem Schreiben aufgerufen und fuehrt ggf. einen fsync aus.
+   * @param sync true, wenn sofort ein fsync erfolgen soll.
+   * @throws IOException
+   */
+  private void written(boolean sync) throws IOException
+  {
+    if (sync)
+      sync();
+    else if (this.commit != null)
+      this.commit.written();
+  }
+
+  /**
+   * Oeffnet die Log-Datei.
+   * Das ist auch die einzige Stelle, an der die Dateigroesse abgefragt wird.
+   * @throws IOException
+   */
+  private void openFile() throws IOException
+  {
+    this.channel = new FileOutputStream(this.file,this.append).getChannel();
+    this.length = this.append ? this.file.length() : 0L;
+    this.lastFlush = System.currentTimeMillis();
+
+    // Den Inhalt einer schon vorhandenen Datei kennen wir nicht
+    this.block = null;
+    this.index = null;
+    if (this.indexing)
+    {
+      this.index = new ArchiveIndex();
+      if (this.length > 0L)
+        this.index.addUnknown(0L,this.length);
+    }
+  }
+
+  /**
+   * Schreibt den Puffer und schliesst die Log-Datei.
+   * Ist eine Durability festgelegt, wird vorher noch ein fsync ausgefuehrt.
+   * @throws IOException
+   */
+  private void closeFile() throws IOException
+  {
+    try
+    {
+      flush();
+      if (durability.isEnabled())
+        channel.force(false);
+    }
+    finally
+    {
+      this.channel.close();
+    }
   }
   
   /**
    * Prueft die Dateigroesse und rotiert ggf.
+   * Die Datei wird hierbei nur umbenannt und sofort eine neue angelegt.
+   * Das Komprimieren und Aufraeumen alter Archive passiert im Hintergrund,
+   * damit das Logging waehrenddessen weiterlaufen kann.
    * @throws IOException
    */
-  private synchronized void checkRotate() throws IOException
+  private void checkRotate() throws IOException
   {
-    if (skipRotate)
+    if (skipRotate || this.length < this.maxLength)
       return;
-    
-    synchronized(os)
+
+    Logger.info("rotating log file " + this.file.getAbsolutePath());
+
+    Logger.debug("closing old log file");
+    closeFile();
+
+    String name = this.file.getName();
+    String prefix = name + "-" + DF.format(new Date());
+
+    // Falls in derselben Sekunde schon rotiert wurde, haengen wir eine laufende
+    // Nummer an. Die merken wir uns, da aeltere Archive mit demselben Zeitstempel
+    // beim Aufraeumen schon geloescht worden sein koennen.
+    int index = prefix.equals(this.lastPrefix) ? this.lastIndex + 1 : 0;
+    File archiveFile = new File(this.file.getParent(),index == 0 ? prefix : (prefix + "-" + index));
+    while (archiveFile.exists() || new File(archiveFile.getPath() + ".gz").exists())
+      archiveFile = new File(this.file.getParent(),prefix + "-" + (++index));
+    this.lastPrefix = prefix;
+    this.lastIndex  = index;
+
+    Logger.info("moving log file to " + archiveFile.getAbsolutePath());
+    if (this.file.renameTo(archiveFile))
     {
-      if (this.file.length() < this.maxLength)
-        return;
+      Logger.info("creating new log file " + name);
+      this.file = new File(this.file.getParent(),name);
+      if (this.index != null)
+        this.index.setCharset(this.encoder.getCharset().name());
+      this.pending.add(archiveFile.getName());
+      getWorker().execute(new Archiver(archiveFile,this.index));
+    }
+    else
+    {
+      Logger.error("unable to rename old log file " + name + ", disable rotating");
+      skipRotate = true;
+    }
 
-      Logger.info("rotating log file " + this.file.getAbsolutePath());
+    openFile();
+    Logger.info("logrotation done");
+  }
 
-      Logger.debug("closing old log file");
-      os.close();
+  /**
+   * Liefert den Hintergrund-Thread zum Komprimieren und Aufraeumen der Archive.
+   * @return der Hintergrund-Thread.
+   */
+  private ExecutorService getWorker()
+  {
+    if (this.worker == null)
+    {
+      final String threadName = "Logrotate-" + this.file.getName();
+      this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r,threadName);
+          t.setDaemon(true);
+          t.setPriority(Thread.MIN_PRIORITY);
+          return t;
+        }
+      });
+    }
+    return this.worker;
+  }
 
-      String name = this.file.getName();
+  /**
+   * Komprimiert eine rotierte Log-Datei und loescht anschliessend
+   * die Archive, die ueber die festgelegten Grenzen hinausgehen.
+   */
+  private class Archiver implements Runnable
+  {
+    private File archive = null;
+    private ArchiveIndex index = null;
 
-      if (zip)
-      {
-        File archiveFile = new File(this.file.getParent(),name + "-" + DF.format(new Date()) + ".gz");
+    /**
+     * ct.
+     * @param archive die rotierte Log-Datei.
+     * @param index Index der Log-Datei oder <code>null</code>.
+     */
+    private Archiver(File archive, ArchiveIndex index)
+    {
+      this.archive = archive;
+      this.index   = index;
+    }
 
-        Logger.info("compressing old log file to " + archiveFile.getAbsolutePath());
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+      if (this.index != null)
+        this.index.fit(this.archive.length());
 
-        OutputStream os = null;
-        InputStream is  = null;
-        try
+      try
+      {
+        boolean compressed = zip && compress();
+        if (!compressed && this.index != null)
         {
-          os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(archiveFile)));
-          is = new BufferedInputStream(new FileInputStream(this.file));
-          byte[] buf = new byte[4096];
-          int read = 0;
-          do
-          {
-            read = is.read(buf);
-            if (read > 0)
-              os.write(buf,0,read);
-          }
-          while(read != -1);
-          Logger.info("old log file compressed");
+          // Unkomprimiert liegen die Bloecke an ihrer urspruenglichen Position
+          for (ArchiveIndex.Block b:this.index.getBlocks())
+            b.setLocation(b.getRawOffset(),b.getRawLength());
+          writeIndex(this.archive);
         }
-        catch (Throwable t)
+      }
+      finally
+      {
+        pending.remove(this.archive.getName());
+      }
+      cleanup();
+    }
+
+    /**
+     * Schreibt den Index zum Archiv.
+     * @param target das Archiv.
+     */
+    private void writeIndex(File target)
+    {
+      File f = ArchiveIndex.getFile(target);
+      try
+      {
+        this.index.write(f);
+      }
+      catch (Throwable t)
+      {
+        // Ohne Index wird beim Suchen einfach die ganze Datei gelesen
+        Logger.error("error while writing " + f.getAbsolutePath(),t);
+      }
+    }
+
+    /**
+     * Komprimiert die Datei.
+     * Es wird zuerst in eine temporaere Datei geschrieben, damit bei einem
+     * Abbruch keine halbe Archiv-Datei uebrig bleibt. Mit Index wird jeder
+     * Block als eigenes gzip-Member geschrieben und seine Position im Index
+     * vermerkt.
+     * @return true, wenn die Datei komprimiert wurde.
+     */
+    private boolean compress()
+    {
+      File target = new File(this.archive.getPath() + ".gz");
+      File tmp    = new File(this.archive.getPath() + ".gz.tmp");
+
+      Logger.info("compressing old log file to " + target.getAbsolutePath());
+
+      OutputStream os = null;
+      InputStream is  = null;
+      try
+      {
+        if (this.index == null)
         {
-          Logger.error("error while rotating logfile, disable rotating",t);
-          skipRotate = true;
+          os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp)));
+          is = new BufferedInputStream(new FileInputStream(this.archive));
+          IOUtil.copy(is,os);
         }
-        finally
+        else
         {
-          if (os != null)
+          FileOutputStream fos = new FileOutputStream(tmp);
+          os = fos;
+          is = new BufferedInputStream(new FileInputStream(this.archive));
+          byte[] buf = new byte[64 * 1024];
+          for (ArchiveIndex.Block b:this.index.getBlocks())
           {
+            long start = fos.getChannel().position();
+            Member member = new Member(fos);
             try
             {
-              os.close();
+              long remaining = b.getRawLength();
+              while (remaining > 0L)
+              {
+                int read = is.read(buf,0,(int) Math.min(buf.length,remaining));
+                if (read == -1)
+                  throw new IOException("unexpected end of " + this.archive);
+                member.write(buf,0,read);
+                remaining -= read;
+              }
             }
-            catch (Exception e)
+            finally
             {
-              Logger.error("error while closing outputstream, disable rotating");
-              skipRotate = true;
-            }
-          }
-          if (is != null)
-          {
-            try
-            {
-              is.close();
-            }
-            catch (Exception e)
-            {
-              Logger.error("error while closing inputstream, disable rotating");
-              skipRotate = true;
+              member.end();
             }
+            b.setLocation(start,fos.getChannel().position() - start);
           }
+          this.index.setCompressed(true);
         }
+        os.close();
+        os = null;
+
+        if (!tmp.renameTo(target))
+          throw new IOException("unable to rename " + tmp + " to " + target);
+        if (!this.archive.delete())
+          Logger.warn("unable to delete " + this.archive.getAbsolutePath());
+        if (this.index != null)
+          writeIndex(target);
+        Logger.info("old log file compressed");
+        return true;
       }
-      else
+      catch (Throwable t)
       {
-        File archiveFile = new File(this.file.getParent(),name + "-" + DF.format(new Date()));
-        Logger.info("copying log file to " + archiveFile.getAbsolutePath());
-        try
+        // Die unkomprimierte Datei bleibt in dem Fall einfach liegen
+        Logger.error("error while compressing " + this.archive.getAbsolutePath(),t);
+        tmp.delete();
+        return false;
+      }
+      finally
+      {
+        IOUtil.close(os,is);
+      }
+    }
+
+    /**
+     * Loescht die aeltesten Archive, bis die maximale Anzahl bzw. Gesamtgroesse eingehalten ist.
+     * Dateien, die noch auf ihre Komprimierung warten, werden dabei ausgelassen.
+     */
+    private void cleanup()
+    {
+      if (maxArchives <= 0 && maxArchiveSize <= 0L)
+        return;
+
+      File dir = this.archive.getAbsoluteFile().getParentFile();
+      final Pattern pattern = Pattern.compile(Pattern.quote(file.getName()) + "-(\\d{8}-\\d{4}_\\d{2})(?:-(\\d+))?(?:\\.gz)?");
+      File[] archives = dir.listFiles(new FileFilter() {
+        public boolean accept(File f)
         {
-          FileCopy.copy(this.file,archiveFile,true);
+          return f.isFile() && pattern.matcher(f.getName()).matches() && !pending.contains(f.getName());
         }
-        catch (FileCopy.FileExistsException e)
+      });
+      if (archives == null)
+        return;
+
+      // Neueste zuerst. Sortiert wird nach Zeitstempel und laufender Nummer im Dateinamen
+      Arrays.sort(archives,new Comparator<File>() {
+        public int compare(File f1, File f2)
         {
-          Logger.error("unable to copy log file, disable rotating",e);
-          skipRotate = true;
+          Matcher m1 = pattern.matcher(f1.getName());
+          Matcher m2 = pattern.matcher(f2.getName());
+          m1.matches();
+          m2.matches();
+          int c = m2.group(1).compareTo(m1.group(1));
+          if (c != 0)
+            return c;
+          int n1 = m1.group(2) == null ? 0 : Integer.parseInt(m1.group(2));
+          int n2 = m2.group(2) == null ? 0 : Integer.parseInt(m2.group(2));
+          return n2 - n1;
         }
+      });
+
+      long total = 0L;
+      for (int i=0;i<archives.length;++i)
+      {
+        total += archives[i].length();
+        boolean tooMany = maxArchives > 0 && i >= maxArchives;
+        boolean tooBig  = maxArchiveSize > 0L && total > maxArchiveSize;
+        if (!tooMany && !tooBig)
+          continue;
+
+        Logger.info("deleting old log archive " + archives[i].getAbsolutePath());
+        if (!archives[i].delete())
+          Logger.warn("unable to delete " + archives[i].getAbsolutePath());
+        File idx = ArchiveIndex.getFile(archives[i]);
+        if (idx.exists() && !idx.delete())
+          Logger.warn("unable to delete " + idx.getAbsolutePath());
       }
- 
-      Logger.info("deleting old log file");
-      if (this.file.delete())
+    }
+  }
+
+  /**
+   * Ein einzelnes gzip-Member.
+   * Schliesst den darunterliegenden Stream nicht, damit das naechste Member
+   * direkt dahinter geschrieben werden kann.
+   */
+  private static class Member extends GZIPOutputStream
+  {
+    /**
+     * ct.
+     * @param os der Stream, in den das Member geschrieben wird.
+     * @throws IOException
+     */
+    private Member(OutputStream os) throws IOException
+    {
+      super(os,64 * 1024);
+    }
+
+    /**
+     * Schreibt das Ende des Members und gibt den Deflater frei.
+     * @throws IOException
+     */
+    private void end() throws IOException
+    {
+      try
       {
-        Logger.info("creating new log file " + name);
-        this.file = new File(this.file.getParent(),name);
+        finish();
       }
-      else
+      finally
       {
-        Logger.error("unable to delete old log file " + name + ", disable rotating");
-        skipRotate = true;
+        def.end();
       }
-      this.os = new FileOutputStream(this.file,this.append);
-      Logger.info("logrotation done");
     }
   }
 }
@@ -0,0 +1,518 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import de.willuhn.logging.Message;
+
+/**
+ * Implementierung eines Targets, welches die Log-Meldungen in eine per
+ * Memory-Mapping eingeblendete Datei schreibt.
+ * Die Meldungen werden beim Schreiben nur in den eingeblendeten Speicher
+ * kopiert, es findet also kein Systemaufruf pro Schreibvorgang statt. Die
+ * Daten liegen damit sofort im Page-Cache des Betriebssystems und ueberstehen
+ * auch einen Absturz der Anwendung. Auf die Platte geschrieben werden sie
+ * vom Betriebssystem bzw. optional periodisch von einem Hintergrund-Thread.
+ * <p>
+ * Die Datei wird in Segmenten fester Groesse angelegt. Ist ein Segment voll,
+ * wird das naechste begonnen. Die Segmente heissen wie die angegebene Datei
+ * mit angehaengter laufender Nummer, z.Bsp. "jameica.log.000001". Beim
+ * Oeffnen wird immer ein neues Segment begonnen. Volle Segmente werden auf
+ * die tatsaechlich geschriebene Groesse gekuerzt. Damit das auch unter Windows
+ * klappt, wird das Segment vorher ausgeblendet. Gelingt das nicht (die JVM
+ * bietet dafuer keine offizielle API), bleibt das Ende der Datei mit
+ * Null-Bytes aufgefuellt.
+ */
+public class MappedFileTarget implements BatchTarget, Syncable
+{
+  private final File file;
+  private final long segmentSize;
+
+  private int index = 0;
+  private FileChannel channel = null;
+  private volatile MappedByteBuffer mapped = null;
+
+  // true, wenn seit dem letzten force() geschrieben wurde
+  private volatile boolean dirty = false;
+
+  private long flushInterval = 0L;
+  private ScheduledExecutorService worker = null;
+
+  private MessageEncoder encoder = new MessageEncoder();
+
+  // Kein Monitor, damit wartende virtuelle Threads ihren Carrier-Thread nicht blockieren
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * ct.
+   * Segment-Groesse: 8MB.
+   * @param file Die Ziel-Datei. An den Namen wird die Nummer des Segments angehaengt.
+   * @throws IOException
+   */
+  public MappedFileTarget(File file) throws IOException
+  {
+    this(file,8L * 1024L * 1024L);
+  }
+
+  /**
+   * ct.
+   * @param file Die Ziel-Datei. An den Namen wird die Nummer des Segments angehaengt.
+   * @param segmentSize Groesse eines Segments in Bytes.
+   * @throws IOException
+   */
+  public MappedFileTarget(File file, long segmentSize) throws IOException
+  {
+    if (segmentSize <= 0L || segmentSize > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+
+    this.file        = file.getAbsoluteFile();
+    this.segmentSize = segmentSize;
+    this.index       = findLastIndex();
+    openSegment();
+  }
+
+  /**
+   * Legt fest, in welchem Abstand ein Hintergrund-Thread die geschriebenen
+   * Daten auf die Platte schreibt (per {@link MappedByteBuffer#force()}).
+   * Default: 0 - das Schreiben wird allein dem Betriebssystem ueberlassen.
+   * @param millis Zeit in Millisekunden.
+   */
+  public void setFlushInterval(long millis)
+  {
+    lock.lock();
+    try
+    {
+      this.flushInterval = millis;
+      if (this.worker != null)
+      {
+        this.worker.shutdown();
+        this.worker = null;
+      }
+      if (millis <= 0L)
+        return;
+
+      getWorker().scheduleWithFixedDelay(new Runnable() {
+        public void run()
+        {
+          force();
+        }
+      },millis,millis,TimeUnit.MILLISECONDS);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Legt den Zeichensatz fest, in dem die Log-Datei geschrieben wird.
+   * Default: Der Default-Zeichensatz der Plattform.
+   * @param encoding Name des Zeichensatzes, z.Bsp. "UTF-8".
+   */
+  public void setEncoding(String encoding)
+  {
+    lock.lock();
+    try
+    {
+      this.encoder = new MessageEncoder(Charset.forName(encoding));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Liefert das aktuell beschriebene Segment.
+   * @return das aktuelle Segment.
+   */
+  public File getSegment()
+  {
+    lock.lock();
+    try
+    {
+      return getSegment(this.index);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.Target#write(de.willuhn.logging.Message)
+   */
+  public void write(Message message) throws Exception
+  {
+    if (message == null)
+      return;
+
+    lock.lock();
+    try
+    {
+      append(encoder.encode(message));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.BatchTarget#write(de.willuhn.logging.Message[], int)
+   */
+  public void write(Message[] batch, int count) throws Exception
+  {
+    if (batch == null || count <= 0)
+      return;
+
+    lock.lock();
+    try
+    {
+      ByteBuffer data = encoder.encode(batch,count);
+      if (data.remaining() <= mapped.remaining())
+      {
+        append(data);
+        return;
+      }
+
+      // Passt nicht mehr komplett ins Segment. Dann einzeln, damit
+      // die Zeilen nicht auf zwei Segmente verteilt werden.
+      for (int i=0;i<count;++i)
+      {
+        if (batch[i] != null)
+          append(encoder.encode(batch[i]));
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schreibt die Daten auf die Platte, kuerzt das Segment auf die
+   * geschriebene Groesse und schliesst es.
+   * @see de.willuhn.logging.targets.Target#close()
+   */
+  public void close() throws Exception
+  {
+    ScheduledExecutorService w = null;
+    lock.lock();
+    try
+    {
+      w = this.worker;
+      this.worker = null;
+      this.flushInterval = 0L;
+      if (w != null)
+        w.shutdown();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+
+    // Gewartet wird ohne Lock, da der Hintergrund-Thread ihn fuer force() braucht
+    if (w != null)
+      w.awaitTermination(60L,TimeUnit.SECONDS);
+
+    lock.lock();
+    try
+    {
+      MappedByteBuffer buffer = this.mapped;
+      FileChannel ch = this.channel;
+      this.mapped  = null;
+      this.channel = null;
+      if (buffer != null)
+        new Closer(ch,buffer).run();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Kopiert die Bytes in das Segment. Ist es voll, wird das naechste begonnen.
+   * @param data die Bytes.
+   * @throws IOException
+   */
+  private void append(ByteBuffer data) throws IOException
+  {
+    if (this.mapped == null)
+      throw new IOException("log target already closed");
+
+    // Nur wenn die Zeile nicht in ein leeres Segment passt, wird sie aufgeteilt
+    if (data.remaining() > this.mapped.remaining() && this.mapped.position() > 0)
+      nextSegment();
+
+    while (data.remaining() > this.mapped.remaining())
+    {
+      int limit = data.limit();
+      data.limit(data.position() + this.mapped.remaining());
+      this.mapped.put(data);
+      data.limit(limit);
+      nextSegment();
+    }
+    this.mapped.put(data);
+    this.dirty = true;
+  }
+
+  /**
+   * Beginnt das naechste Segment.
+   * Das Schliessen des bisherigen passiert im Hintergrund.
+   * @throws IOException
+   */
+  private void nextSegment() throws IOException
+  {
+    Closer closer = new Closer(this.channel,this.mapped);
+    openSegment();
+
+    if (this.worker != null || this.flushInterval > 0L)
+      getWorker().execute(closer);
+    else
+      closer.run();
+  }
+
+  /**
+   * Legt das naechste Segment an und blendet es ein.
+   * @throws IOException
+   */
+  private void openSegment() throws IOException
+  {
+    File f = getSegment(++this.index);
+    RandomAccessFile raf = new RandomAccessFile(f,"rw");
+    try
+    {
+      raf.setLength(0L);
+      FileChannel ch = raf.getChannel();
+      this.mapped  = ch.map(FileChannel.MapMode.READ_WRITE,0L,this.segmentSize);
+      this.channel = ch;
+    }
+    catch (IOException e)
+    {
+      raf.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Liefert die Datei des Segments.
+   * @param i Nummer des Segments.
+   * @return die Datei.
+   */
+  private File getSegment(int i)
+  {
+    return new File(this.file.getParentFile(),this.file.getName() + "." + String.format("%06d",i));
+  }
+
+  /**
+   * Ermittelt die Nummer des letzten vorhandenen Segments.
+   * @return Nummer des letzten Segments oder 0, wenn noch keines existiert.
+   */
+  private int findLastIndex()
+  {
+    final String prefix = this.file.getName() + ".";
+    File[] segments = this.file.getParentFile().listFiles(new FileFilter() {
+      public boolean accept(File f)
+      {
+        String name = f.getName();
+        return f.isFile() && name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+");
+      }
+    });
+
+    int last = 0;
+    for (int i=0;segments != null && i<segments.length;++i)
+    {
+      try
+      {
+        last = Math.max(last,Integer.parseInt(segments[i].getName().substring(prefix.length())));
+      }
+      catch (NumberFormatException e)
+      {
+        // ignore
+      }
+    }
+    return last;
+  }
+
+  /**
+   * Schreibt die Daten des aktuellen Segments auf die Platte.
+   * Volle Segmente werden ohnehin beim Schliessen auf die Platte geschrieben.
+   * @see de.willuhn.logging.targets.Syncable#sync()
+   */
+  public void sync() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      if (this.mapped == null)
+        throw new IOException("log target already closed");
+      force();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Schreibt die Daten des aktuellen Segments auf die Platte, falls
+   * seit dem letzten Aufruf etwas geschrieben wurde.
+   * Wird auch vom Hintergrund-Thread aufgerufen. Der Lock verhindert, dass
+   * das Segment waehrenddessen geschlossen und ausgeblendet wird.
+   */
+  private void force()
+  {
+    lock.lock();
+    try
+    {
+      MappedByteBuffer buffer = this.mapped;
+      if (!this.dirty || buffer == null)
+        return;
+      this.dirty = false;
+      buffer.force();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Liefert den Hintergrund-Thread zum Schreiben und Schliessen der Segmente.
+   * @return der Hintergrund-Thread.
+   */
+  private ScheduledExecutorService getWorker()
+  {
+    if (this.worker == null)
+    {
+      final String threadName = "MappedFile-" + this.file.getName();
+      this.worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r)
+        {
+          Thread t = new Thread(r,threadName);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return this.worker;
+  }
+
+  /**
+   * Schreibt ein Segment auf die Platte, blendet es aus, kuerzt es auf
+   * die geschriebene Groesse und schliesst es.
+   */
+  private static class Closer implements Runnable
+  {
+    private FileChannel channel = null;
+    private MappedByteBuffer buffer = null;
+
+    /**
+     * ct.
+     * @param channel der Channel des Segments.
+     * @param buffer der eingeblendete Speicher des Segments.
+     */
+    private Closer(FileChannel channel, MappedByteBuffer buffer)
+    {
+      this.channel = channel;
+      this.buffer  = buffer;
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+      try
+      {
+        this.buffer.force();
+        int size = this.buffer.position();
+        boolean full = size >= this.buffer.capacity();
+        unmap(this.buffer);
+        this.buffer = null;
+        if (!full)
+        {
+          try
+          {
+            this.channel.truncate(size);
+          }
+          catch (IOException e)
+          {
+            // ignore - dann bleiben die Null-Bytes am Ende stehen
+          }
+        }
+      }
+      finally
+      {
+        try
+        {
+          this.channel.close();
+        }
+        catch (IOException e)
+        {
+          System.err.println("unable to close log segment: " + e);
+        }
+      }
+    }
+
+    /**
+     * Blendet das Segment sofort aus, statt auf die Garbage Collection zu warten.
+     * Unter Windows laesst sich die Datei vorher nicht kuerzen. Danach darf
+     * auf den Buffer nicht mehr zugegriffen werden.
+     * @param buffer der eingeblendete Speicher.
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+      try
+      {
+        // Ab Java 9
+        Class<?> c = Class.forName("sun.misc.Unsafe");
+        Field f = c.getDeclaredField("theUnsafe");
+        f.setAccessible(true);
+        Method m = c.getMethod("invokeCleaner",ByteBuffer.class);
+        m.invoke(f.get(null),buffer);
+        return;
+      }
+      catch (Throwable t)
+      {
+        // dann probieren wir es auf dem alten Weg
+      }
+
+      try
+      {
+        // Bis Java 8
+        Method m = buffer.getClass().getMethod("cleaner");
+        m.setAccessible(true);
+        Object cleaner = m.invoke(buffer);
+        if (cleaner != null)
+          cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+      catch (Throwable t)
+      {
+        // ignore - dann wird erst bei der naechsten Garbage Collection ausgeblendet
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import de.willuhn.logging.Message;
+
+/**
+ * Wandelt Log-Meldungen in Bytes um und verwendet dabei fuer jede Meldung
+ * dieselben Puffer wieder. Jedes Target sollte eine eigene Instanz verwenden,
+ * da die Klasse nicht thread-safe ist.
+ */
+public class MessageEncoder
+{
+  private final static String lineSep = System.getProperty("line.separator");
+
+  private StringBuilder sb = new StringBuilder(256);
+  private char[] chars     = new char[256];
+  private CharBuffer cb    = CharBuffer.wrap(chars);
+  private ByteBuffer bb    = ByteBuffer.allocate(512);
+
+  private CharsetEncoder encoder = null;
+
+  /**
+   * ct.
+   * Verwendet den Default-Zeichensatz der Plattform.
+   */
+  public MessageEncoder()
+  {
+    this(Charset.defaultCharset());
+  }
+
+  /**
+   * ct.
+   * @param charset der zu verwendende Zeichensatz.
+   */
+  public MessageEncoder(Charset charset)
+  {
+    this.encoder = charset.newEncoder()
+                          .onMalformedInput(CodingErrorAction.REPLACE)
+                          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  /**
+   * Liefert den verwendeten Zeichensatz.
+   * @return der Zeichensatz.
+   */
+  public Charset getCharset()
+  {
+    return this.encoder.charset();
+  }
+
+  /**
+   * Wandelt die Meldung inclusive Zeilenumbruch in Bytes um.
+   * Der zurueckgelieferte Puffer wird beim naechsten Aufruf wiederverwendet.
+   * @param message die Meldung.
+   * @return Puffer mit den Bytes, bereit zum Lesen.
+   * @throws CharacterCodingException
+   */
+  public ByteBuffer encode(Message message) throws CharacterCodingException
+  {
+    sb.setLength(0);
+    message.format(sb);
+    sb.append(lineSep);
+    return encodeBuffer();
+  }
+
+  /**
+   * Wandelt mehrere Meldungen inclusive Zeilenumbruch am Stueck in Bytes um.
+   * Der zurueckgelieferte Puffer wird beim naechsten Aufruf wiederverwendet.
+   * @param messages die Meldungen.
+   * @param count Anzahl der Meldungen im Array, beginnend bei Index 0.
+   * @return Puffer mit den Bytes, bereit zum Lesen.
+   * @throws CharacterCodingException
+   */
+  public ByteBuffer encode(Message[] messages, int count) throws CharacterCodingException
+  {
+    sb.setLength(0);
+    for (int i=0;i<count;++i)
+    {
+      if (messages[i] == null)
+        continue;
+      messages[i].format(sb);
+      sb.append(lineSep);
+    }
+    return encodeBuffer();
+  }
+
+  /**
+   * Wandelt den Inhalt des StringBuilders in Bytes um.
+   * @return Puffer mit den Bytes, bereit zum Lesen.
+   * @throws CharacterCodingException
+   */
+  private ByteBuffer encodeBuffer() throws CharacterCodingException
+  {
+    int len = sb.length();
+    if (len > chars.length)
+    {
+      chars = new char[Math.max(len,chars.length * 2)];
+      cb = CharBuffer.wrap(chars);
+    }
+    sb.getChars(0,len,chars,0);
+    cb.clear();
+    cb.limit(len);
+
+    int required = (int) (len * encoder.maxBytesPerChar()) + 16;
+    if (bb.capacity() < required)
+      bb = ByteBuffer.allocate(required);
+    bb.clear();
+
+    encoder.reset();
+    CoderResult cr = encoder.encode(cb,bb,true);
+    if (cr.isError())
+      cr.throwException();
+    encoder.flush(bb);
+    bb.flip();
+    return bb;
+  }
+
+  /**
+   * Wandelt die Meldung in Bytes um und schreibt sie in den Stream.
+   * @param message die Meldung.
+   * @param os der Stream.
+   * @throws IOException
+   */
+  public void write(Message message, OutputStream os) throws IOException
+  {
+    ByteBuffer buf = encode(message);
+    os.write(buf.array(),buf.arrayOffset() + buf.position(),buf.remaining());
+  }
+
+  /**
+   * Wandelt die Meldungen in Bytes um und schreibt sie am Stueck in den Stream.
+   * @param messages die Meldungen.
+   * @param count Anzahl der Meldungen im Array, beginnend bei Index 0.
+   * @param os der Stream.
+   * @throws IOException
+   */
+  public void write(Message[] messages, int count, OutputStream os) throws IOException
+  {
+    ByteBuffer buf = encode(messages,count);
+    os.write(buf.array(),buf.arrayOffset() + buf.position(),buf.remaining());
+  }
+}
@@ -12,18 +12,32 @@
  **********************************************************************/
 package de.willuhn.logging.targets;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
 
 import de.willuhn.logging.Message;
 
 /**
  * Target, welches in einen OutputStream schreibt.
+ * Ein fsync ist nur moeglich, wenn der zugehoerige FileDescriptor bekannt ist.
+ * Bei einem FileOutputStream wird er automatisch ermittelt.
  */
-public class OutputStreamTarget implements Target
+public class OutputStreamTarget implements BatchTarget, Flushable, Syncable
 {
 
 	private OutputStream os = null;
-  private final static String lineSep = System.getProperty("line.separator");
+  private FileDescriptor fd = null;
+  private MessageEncoder encoder = new MessageEncoder();
+
+  private volatile Durability durability = Durability.NONE;
+  private GroupCommit commit = null;
+
+  // Schuetzt den Stream, da sync() auch von anderen Threads aufgerufen wird
+  private final ReentrantLock lock = new ReentrantLock();
 
   /**
    * ct.
@@ -31,7 +45,41 @@ public class OutputStreamTarget implements Target
    */
   public OutputStreamTarget(OutputStream os)
   {
-  	this.os = os;
+  	this(os,getFD(os));
+  }
+
+  /**
+   * ct.
+   * @param os OutputStream, in den geschrieben werden soll.
+   * @param fd FileDescriptor der Datei, in die der Stream schreibt. Wird fuer den fsync benoetigt.
+   */
+  public OutputStreamTarget(OutputStream os, FileDescriptor fd)
+  {
+    this.os = os;
+    this.fd = fd;
+  }
+
+  /**
+   * Legt fest, wann die Daten per fsync auf die Platte geschrieben werden.
+   * Hat ohne FileDescriptor keine Wirkung ausser einem Flush des Streams.
+   * Default: {@link Durability#NONE}.
+   * @param durability die Durability.
+   */
+  public void setDurability(Durability durability)
+  {
+    lock.lock();
+    try
+    {
+      this.durability = (durability == null ? Durability.NONE : durability);
+      if (this.commit == null && this.durability.getInterval() > 0L)
+        this.commit = new GroupCommit("outputstream sync",this);
+      if (this.commit != null)
+        this.commit.setInterval(this.durability.getInterval());
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -42,7 +90,74 @@ public class OutputStreamTarget implements Target
   	if (message == null)
   		return;
   	
-		os.write((message.toString() + lineSep).getBytes());
+    lock.lock();
+    try
+    {
+      encoder.write(message,os);
+      written(durability.requiresSync(message));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see de.willuhn.logging.targets.BatchTarget#write(de.willuhn.logging.Message[], int)
+   */
+  public void write(Message[] batch, int count) throws Exception
+  {
+    if (batch == null || count <= 0)
+      return;
+
+    lock.lock();
+    try
+    {
+      encoder.write(batch,count,os);
+      written(durability.requiresSync(batch,count));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @see java.io.Flushable#flush()
+   */
+  public void flush() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      os.flush();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Flusht den Stream und wartet, bis die Daten auf der Platte sind.
+   * Ohne FileDescriptor wird nur der Stream geflusht.
+   * @see de.willuhn.logging.targets.Syncable#sync()
+   */
+  public void sync() throws IOException
+  {
+    lock.lock();
+    try
+    {
+      os.flush();
+      if (fd != null && fd.valid())
+        fd.sync();
+      if (this.commit != null)
+        this.commit.synced();
+    }
+    finally
+    {
+      lock.unlock();
+    }
   }
 
   /**
@@ -50,7 +165,51 @@ public class OutputStreamTarget implements Target
    */
   public void close() throws Exception
   {
-  	os.close();
+    lock.lock();
+    try
+    {
+      if (this.commit != null)
+        this.commit.stop();
+      if (durability.isEnabled())
+        sync();
+      os.close();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wird nach dem Schreiben aufgerufen und fuehrt ggf. einen fsync aus.
+   * @param sync true, wenn sofort ein fsync erfolgen soll.
+   * @throws IOException
+   */
+  private void written(boolean sync) throws IOException
+  {
+    if (sync)
+      sync();
+    else if (this.commit != null)
+      this.commit.written();
+  }
+
+  /**
+   * Liefert den FileDescriptor, falls es ein FileOutputStream ist.
+   * @param os der Stream.
+   * @return der FileDescriptor oder <code>null</code>.
+   */
+  private static FileDescriptor getFD(OutputStream os)
+  {
+    if (!(os instanceof FileOutputStream))
+      return null;
+    try
+    {
+      return ((FileOutputStream) os).getFD();
+    }
+    catch (IOException e)
+    {
+      return null;
+    }
   }
 
 }
@@ -0,0 +1,25 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.io.IOException;
+
+/**
+ * Targets, die diese Interface implementieren, koennen sicherstellen, dass
+ * die bisher geschriebenen Meldungen auf dem Datentraeger angekommen sind.
+ * @see de.willuhn.logging.Logger#sync()
+ */
+public interface Syncable
+{
+  /**
+   * Schreibt alle Puffer und wartet, bis die Daten auf dem Datentraeger sind (fsync).
+   * Kann von beliebigen Threads aufgerufen werden.
+   * @throws IOException
+   */
+  public void sync() throws IOException;
+}
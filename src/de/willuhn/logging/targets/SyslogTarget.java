@@ -12,22 +12,114 @@
  **********************************************************************/
 package de.willuhn.logging.targets;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.Flushable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 
+import de.willuhn.logging.Level;
 import de.willuhn.logging.Logger;
 import de.willuhn.logging.Message;
+import de.willuhn.logging.TimestampFormat;
 
 /**
  * Target, welches an einen Syslog-Server loggen kann.
+ * Die Meldungen werden im Format nach RFC 5424 gesendet, wahlweise per UDP
+ * (RFC 5426) oder per TCP mit vorangestellter Laenge (Octet-Counting nach RFC 6587).
+ * Die Meldungen werden in wiederverwendete Puffer formatiert, es entstehen
+ * also keine neuen Objekte pro Meldung.
+ * <p>
+ * Bei UDP werden Meldungen, die nicht in ein Datagramm passen, gekuerzt
+ * (RFC 5424, Abschnitt 6.1). Kann ein Datagramm nicht gesendet werden,
+ * wird nur dieses verworfen.
+ * <p>
+ * Bei TCP werden die Meldungen in einem Puffer begrenzter Groesse gesammelt
+ * und ohne zu blockieren gesendet. Ist der Server nicht erreichbar, wird in
+ * regelmaessigen Abstaenden ein neuer Verbindungsversuch unternommen. Meldungen,
+ * die bis dahin nicht mehr in den Puffer passen, werden verworfen. Ebenso eine
+ * beim Abbruch der Verbindung erst teilweise gesendete Meldung, da deren Rest
+ * auf einer neuen Verbindung nicht mehr zugeordnet werden koennte.
+ * Da der Verbindungsaufbau den Logger-Thread blockieren kann, empfiehlt es
+ * sich, das Target per {@link Logger#addTarget(Target, int, de.willuhn.logging.Logger.OverflowPolicy, long)}
+ * mit eigener Queue zu registrieren.
+ * <p>
+ * Das Target ist nicht thread-safe und darf nur vom Logger verwendet werden.
  */
-public class SyslogTarget implements Target
+public class SyslogTarget implements BatchTarget, Flushable
 {
+  /**
+   * Das Transport-Protokoll.
+   */
+  public static enum Protocol
+  {
+    /**
+     * Eine Meldung pro Datagramm (RFC 5426).
+     */
+    UDP,
+
+    /**
+     * TCP-Stream mit vorangestellter Laenge jeder Meldung (RFC 6587).
+     */
+    TCP
+  }
+
+  private final static Charset UTF8 = Charset.forName("UTF-8");
+
+  // Facility "user-level messages"
+  private int facility = 1;
+  private String appName = "-";
+  private String hostname = "-";
+  private String procId = "-";
 
 	private int port 								= 514;
 	private InetAddress targetHost 	= null;
-	private DatagramSocket socket 	= null;
+	private Protocol protocol       = Protocol.UDP;
+
+  private InetSocketAddress address = null;
+  private DatagramChannel udp = null;
+  private SocketChannel tcp = null;
+
+  private int maxPacketSize = 2048;
+  private boolean packDatagrams = false;
+  private long reconnectInterval = 5000L;
+  private int connectTimeout = 2000;
+  private long lastConnect = 0L;
+  private long dropped = 0L;
+
+  // UDP: true, solange das Senden fehlschlaegt
+  private boolean failing = false;
+
+  // UDP: Anzahl der Meldungen im gesammelten Datagramm
+  private int packed = 0;
+
+  // TCP: Anzahl der Bytes am Anfang von "out", die den Rest einer bereits
+  // teilweise gesendeten Meldung bilden. Die naechste Meldung beginnt dahinter.
+  private int partial = 0;
+
+  // Formatierung
+  private final StringBuilder sb = new StringBuilder(256);
+  private char[] chars           = new char[256];
+  private CharBuffer cb          = CharBuffer.wrap(chars);
+  private final CharsetEncoder encoder = UTF8.newEncoder()
+                                             .onMalformedInput(CodingErrorAction.REPLACE)
+                                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  // Zeitstempel nach RFC 3339 in UTC
+  private final TimestampFormat stamp = TimestampFormat.iso8601UTC();
+
+  // Die formatierte Meldung
+  private ByteBuffer frame = ByteBuffer.allocateDirect(2048);
+
+  // UDP: das zu sendende Datagramm. TCP: die noch zu sendenden Daten.
+  private ByteBuffer out = null;
 
 	/**
 	 * ct.
@@ -49,6 +141,19 @@ public class SyslogTarget implements Target
    * @throws Exception
    */
   public SyslogTarget(String hostname, int port) throws Exception
+  {
+    this(hostname,port,Protocol.UDP);
+  }
+
+  /**
+   * ct.
+   * @param hostname Hostname des Servers, auf dem der Syslog-Server laeuft.
+   * Ist dieser nicht angegeben, wird an Localhost geloggt.
+   * @param port Port, an den gesendet werden soll.
+   * @param protocol das Transport-Protokoll.
+   * @throws Exception
+   */
+  public SyslogTarget(String hostname, int port, Protocol protocol) throws Exception
   {
 		try
 		{
@@ -60,7 +165,146 @@ public class SyslogTarget implements Target
 			targetHost = InetAddress.getByName("localhost");
 		}
 		this.port = port;
-		this.socket = new DatagramSocket();
+		this.protocol = protocol == null ? Protocol.UDP : protocol;
+		this.address = new InetSocketAddress(this.targetHost,this.port);
+
+		try
+		{
+		  setHostname(InetAddress.getLocalHost().getHostName());
+		}
+		catch (Exception e)
+		{
+		  // dann eben "-"
+		}
+
+		// Die Prozess-ID steht bei den gaengigen JVMs im Namen der Runtime ("pid@host")
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int at = name == null ? -1 : name.indexOf('@');
+		if (at > 0)
+		  this.procId = name.substring(0,at);
+
+		if (this.protocol == Protocol.UDP)
+		{
+		  this.udp = DatagramChannel.open();
+		  this.out = ByteBuffer.allocateDirect(this.maxPacketSize);
+		}
+		else
+		{
+		  this.out = ByteBuffer.allocateDirect(256 * 1024);
+		  connect();
+		}
+  }
+
+  /**
+   * Legt die Syslog-Facility fest.
+   * Default: 1 (user-level messages).
+   * @param facility die Facility (0-23).
+   */
+  public void setFacility(int facility)
+  {
+    if (facility < 0 || facility > 23)
+      throw new IllegalArgumentException("invalid facility: " + facility);
+    this.facility = facility;
+  }
+
+  /**
+   * Legt den Namen der Anwendung fest, der in jeder Meldung mitgesendet wird.
+   * Default: "-".
+   * @param name Name der Anwendung.
+   */
+  public void setAppName(String name)
+  {
+    this.appName = sanitize(name,48);
+  }
+
+  /**
+   * Legt den Hostnamen fest, der in den Meldungen ohne eigenen Hostnamen mitgesendet wird.
+   * Default: Der Name des lokalen Rechners.
+   * @param name der Hostname.
+   */
+  public void setHostname(String name)
+  {
+    this.hostname = sanitize(name,255);
+  }
+
+  /**
+   * Legt die maximale Groesse eines Datagramms bei UDP fest.
+   * Default: 2048 Bytes.
+   * @param size maximale Groesse in Bytes.
+   */
+  public void setMaxPacketSize(int size)
+  {
+    if (size < 480)
+      throw new IllegalArgumentException("packet size must be at least 480 bytes");
+    this.maxPacketSize = size;
+    if (this.protocol == Protocol.UDP)
+    {
+      sendDatagram();
+      this.out = ByteBuffer.allocateDirect(size);
+    }
+  }
+
+  /**
+   * Legt fest, ob bei UDP mehrere kurze Meldungen, getrennt durch Zeilenumbrueche,
+   * in ein Datagramm gepackt werden duerfen. Das reduziert die Anzahl der Pakete
+   * deutlich, wird aber nicht von jedem Syslog-Server unterstuetzt.
+   * Damit der Server die Meldungen wieder trennen kann, werden Zeilenumbrueche
+   * im Text dann als "#012" gesendet - so wie rsyslog Steuerzeichen ersetzt.
+   * Default: false.
+   * @param b true, wenn mehrere Meldungen pro Datagramm gesendet werden duerfen.
+   */
+  public void setPackDatagrams(boolean b)
+  {
+    this.packDatagrams = b;
+  }
+
+  /**
+   * Legt die maximale Groesse des Sende-Puffers bei TCP fest.
+   * Default: 256KB.
+   * @param size Groesse in Bytes.
+   */
+  public void setMaxBuffer(int size)
+  {
+    if (this.protocol != Protocol.TCP)
+      return;
+    // Der Rest einer teilweise gesendeten Meldung muss in jedem Fall noch rein
+    ByteBuffer b = ByteBuffer.allocateDirect(Math.max(size,this.partial));
+    this.out.flip();
+    if (this.out.remaining() > b.remaining())
+    {
+      // Nur vollstaendige Meldungen uebernehmen
+      int end = this.partial;
+      while (end < this.out.limit())
+      {
+        int next = frameEnd(this.out,end);
+        if (next > b.capacity())
+          break;
+        end = next;
+      }
+      this.out.limit(end);
+    }
+    b.put(this.out);
+    this.out = b;
+  }
+
+  /**
+   * Legt den Abstand fuer neue Verbindungsversuche bei TCP fest.
+   * Default: 5 Sekunden.
+   * @param millis Abstand in Millisekunden.
+   */
+  public void setReconnectInterval(long millis)
+  {
+    this.reconnectInterval = millis;
+  }
+
+  /**
+   * Liefert die Anzahl der Meldungen, die mangels Verbindung bzw. Platz
+   * im Puffer verworfen wurden.
+   * @return Anzahl der verworfenen Meldungen.
+   */
+  public long getDropped()
+  {
+    return this.dropped;
   }
 
   /**
@@ -70,19 +314,418 @@ public class SyslogTarget implements Target
   {
   	if (message == null)
   		return;
-		String s = "[" + message.getLevel().getName() + "] " + message.getText();
-  	byte[] data = s.getBytes();
-
-		DatagramPacket packet = new DatagramPacket(data, data.length, targetHost, port);
-		socket.send(packet);
+  	append(message);
+  	flush();
 	}
 
+  /**
+   * @see de.willuhn.logging.targets.BatchTarget#write(de.willuhn.logging.Message[], int)
+   */
+  public void write(Message[] batch, int count) throws Exception
+  {
+    if (batch == null)
+      return;
+    for (int i=0;i<count;++i)
+    {
+      if (batch[i] != null)
+        append(batch[i]);
+    }
+    flush();
+  }
+
+  /**
+   * Sendet die noch gepufferten Daten.
+   * @see java.io.Flushable#flush()
+   */
+  public void flush() throws IOException
+  {
+    if (this.protocol == Protocol.UDP)
+      sendDatagram();
+    else
+      sendStream();
+  }
+
   /**
    * @see de.willuhn.logging.targets.Target#close()
    */
   public void close() throws Exception
   {
-  	socket.close();
+    try
+    {
+      flush();
+    }
+    finally
+    {
+      if (this.udp != null)
+        this.udp.close();
+      disconnect();
+    }
+  }
+
+  /**
+   * Formatiert die Meldung und haengt sie an die zu sendenden Daten an.
+   * @param message die Meldung.
+   * @throws IOException
+   */
+  private void append(Message message) throws IOException
+  {
+    ByteBuffer f = format(message);
+
+    if (this.protocol == Protocol.UDP)
+    {
+      truncate(f,this.maxPacketSize);
+      if (!this.packDatagrams)
+      {
+        send(f,1);
+        return;
+      }
+
+      int sep = this.out.position() > 0 ? 1 : 0;
+      if (sep + f.remaining() > this.out.remaining())
+      {
+        sendDatagram();
+        sep = 0;
+      }
+      if (sep > 0)
+        this.out.put((byte) '\n');
+      this.out.put(f);
+      this.packed++;
+      return;
+    }
+
+    // TCP: "LAENGE LEERZEICHEN MELDUNG"
+    int len = f.remaining();
+    int digits = len < 10 ? 1 : len < 100 ? 2 : len < 1000 ? 3 : len < 10000 ? 4 : len < 100000 ? 5 : 10;
+    if (digits + 1 + len > this.out.remaining())
+    {
+      sendStream();
+      if (digits + 1 + len > this.out.remaining())
+      {
+        this.dropped++;
+        return;
+      }
+    }
+    putNumber(this.out,len);
+    this.out.put((byte) ' ');
+    this.out.put(f);
+  }
+
+  /**
+   * Formatiert die Meldung nach RFC 5424.
+   * @param message die Meldung.
+   * @return Puffer mit der formatierten Meldung, bereit zum Lesen.
+   * @throws IOException
+   */
+  private ByteBuffer format(Message message) throws IOException
+  {
+    StringBuilder sb = this.sb;
+    sb.setLength(0);
+
+    // <PRI>VERSION TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA
+    sb.append('<').append(this.facility * 8 + severity(message.getLevel())).append(">1 ");
+    appendTimestamp(sb,message.getTime());
+    sb.append(' ');
+    String host = message.getHost();
+    sb.append(host != null && host.length() > 0 ? sanitize(host,255) : this.hostname);
+    sb.append(' ').append(this.appName);
+    sb.append(' ').append(this.procId);
+    sb.append(" - - ");
+
+    // MSG als UTF-8 mit BOM
+    sb.append('\uFEFF');
+    String clazz  = message.getLoggingClass();
+    String method = message.getLoggingMethod();
+    if (clazz != null && method != null)
+      sb.append('[').append(clazz).append('.').append(method).append("] ");
+    if (this.packDatagrams && this.protocol == Protocol.UDP)
+      appendEscaped(sb,message.getText());
+    else
+      sb.append(message.getText());
+
+    int len = sb.length();
+    if (len > this.chars.length)
+    {
+      this.chars = new char[Math.max(len,this.chars.length * 2)];
+      this.cb = CharBuffer.wrap(this.chars);
+    }
+    sb.getChars(0,len,this.chars,0);
+    this.cb.clear();
+    this.cb.limit(len);
+
+    int required = len * 3 + 16;
+    if (this.frame.capacity() < required)
+      this.frame = ByteBuffer.allocateDirect(Math.max(required,this.frame.capacity() * 2));
+    this.frame.clear();
+
+    this.encoder.reset();
+    this.encoder.encode(this.cb,this.frame,true);
+    this.encoder.flush(this.frame);
+    this.frame.flip();
+    return this.frame;
+  }
+
+  /**
+   * Haengt den Zeitstempel im Format nach RFC 3339 in UTC an.
+   * Datum und Uhrzeit werden nur einmal pro Sekunde berechnet.
+   * @param sb der StringBuilder.
+   * @param time Zeitstempel in Millisekunden oder 0, wenn er nicht bekannt ist.
+   */
+  private void appendTimestamp(StringBuilder sb, long time)
+  {
+    if (time == 0L)
+    {
+      sb.append('-');
+      return;
+    }
+
+    this.stamp.format(time,sb);
+  }
+
+  /**
+   * Haengt den Text an und ersetzt dabei Zeilenumbrueche durch "#012".
+   * @param sb der StringBuilder.
+   * @param text der Text.
+   */
+  private static void appendEscaped(StringBuilder sb, String text)
+  {
+    if (text == null || text.indexOf('\n') == -1)
+    {
+      sb.append(text);
+      return;
+    }
+    for (int i=0;i<text.length();++i)
+    {
+      char c = text.charAt(i);
+      if (c == '\n')
+        sb.append("#012");
+      else
+        sb.append(c);
+    }
+  }
+
+  /**
+   * Kuerzt die formatierte Meldung auf die angegebene Laenge.
+   * Dabei wird kein UTF-8-Zeichen zerteilt.
+   * @param f die formatierte Meldung.
+   * @param max maximale Laenge in Bytes.
+   */
+  private static void truncate(ByteBuffer f, int max)
+  {
+    if (f.remaining() <= max)
+      return;
+    int limit = f.position() + max;
+
+    // Folge-Bytes eines Zeichens haben die Form 10xxxxxx
+    while (limit > f.position() && (f.get(limit) & 0xC0) == 0x80)
+      limit--;
+    f.limit(limit);
+  }
+
+  /**
+   * Sendet das gesammelte Datagramm.
+   */
+  private void sendDatagram()
+  {
+    if (this.out.position() == 0)
+      return;
+    this.out.flip();
+    send(this.out,this.packed);
+    this.out.clear();
+    this.packed = 0;
+  }
+
+  /**
+   * Sendet ein Datagramm. Schlaegt das fehl, wird nur dieses verworfen.
+   * @param data das Datagramm.
+   * @param count Anzahl der darin enthaltenen Meldungen.
+   */
+  private void send(ByteBuffer data, int count)
+  {
+    try
+    {
+      this.udp.send(data,this.address);
+      this.failing = false;
+    }
+    catch (IOException e)
+    {
+      this.dropped += count;
+      if (!this.failing)
+        System.err.println("unable to send to syslog server " + this.targetHost + ":" + this.port + ": " + e);
+      this.failing = true;
+    }
+  }
+
+  /**
+   * Sendet so viele der gepufferten Daten wie ohne Blockieren moeglich.
+   * Besteht keine Verbindung, wird ggf. eine neue aufgebaut.
+   */
+  private void sendStream()
+  {
+    if (this.out.position() == 0)
+      return;
+
+    if (this.tcp == null && System.currentTimeMillis() - this.lastConnect >= this.reconnectInterval)
+      connect();
+    if (this.tcp == null)
+      return;
+
+    this.out.flip();
+    boolean lost = false;
+    try
+    {
+      while (this.out.hasRemaining())
+      {
+        if (this.tcp.write(this.out) == 0)
+          break; // Socket-Puffer voll, den Rest schicken wir beim naechsten Mal
+      }
+    }
+    catch (IOException e)
+    {
+      // Was schon im Socket-Puffer war, ist ggf. verloren. Die restlichen
+      // vollstaendigen Meldungen werden nach dem naechsten Verbindungsaufbau gesendet.
+      System.err.println("syslog connection to " + this.targetHost + ":" + this.port + " lost: " + e);
+      lost = true;
+    }
+    finally
+    {
+      // Wo endet die Meldung, die gerade gesendet wurde?
+      int sent = this.out.position();
+      int end  = this.partial;
+      while (end < sent)
+        end = frameEnd(this.out,end);
+      this.partial = end - sent;
+      this.out.compact();
+    }
+
+    if (lost)
+      disconnect();
+  }
+
+  /**
+   * Liefert das Ende der Meldung, die an der angegebenen Position beginnt.
+   * Die Laenge steht nach RFC 6587 als Zahl vor dem ersten Leerzeichen.
+   * @param buf der Puffer mit den Meldungen.
+   * @param start Beginn der Meldung.
+   * @return Position hinter der Meldung.
+   */
+  private static int frameEnd(ByteBuffer buf, int start)
+  {
+    int len = 0;
+    int pos = start;
+    byte b;
+    while ((b = buf.get(pos++)) != ' ')
+      len = len * 10 + (b - '0');
+    return pos + len;
+  }
+
+  /**
+   * Baut die TCP-Verbindung auf.
+   */
+  private void connect()
+  {
+    this.lastConnect = System.currentTimeMillis();
+    SocketChannel ch = null;
+    try
+    {
+      ch = SocketChannel.open();
+      ch.socket().connect(this.address,this.connectTimeout);
+      ch.configureBlocking(false);
+      this.tcp = ch;
+      if (this.dropped > 0)
+        System.err.println("syslog connection to " + this.targetHost + ":" + this.port + " established, " + this.dropped + " messages dropped so far");
+    }
+    catch (IOException e)
+    {
+      System.err.println("unable to connect to syslog server " + this.targetHost + ":" + this.port + ": " + e);
+      try
+      {
+        if (ch != null)
+          ch.close();
+      }
+      catch (IOException e2)
+      {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Schliesst die TCP-Verbindung.
+   * Eine erst teilweise gesendete Meldung wird verworfen, da ihr Rest
+   * auf einer neuen Verbindung nicht mehr als Teil der Meldung erkennbar waere.
+   */
+  private void disconnect()
+  {
+    if (this.tcp == null)
+      return;
+    try
+    {
+      this.tcp.close();
+    }
+    catch (IOException e)
+    {
+      // ignore
+    }
+    this.tcp = null;
+
+    if (this.partial > 0)
+    {
+      this.out.flip();
+      this.out.position(this.partial);
+      this.out.compact();
+      this.partial = 0;
+      this.dropped++;
+    }
+  }
+
+  /**
+   * Liefert die Syslog-Severity fuer das Log-Level.
+   * @param level das Log-Level.
+   * @return die Severity.
+   */
+  private static int severity(Level level)
+  {
+    int value = level == null ? Level.INFO.getValue() : level.getValue();
+    if (value >= Level.ERROR.getValue()) return 3; // Error
+    if (value >= Level.WARN.getValue())  return 4; // Warning
+    if (value >= Level.INFO.getValue())  return 6; // Informational
+    return 7;                                      // Debug
+  }
+
+  /**
+   * Bereinigt einen Header-Wert. Erlaubt sind nur druckbare ASCII-Zeichen ohne Leerzeichen.
+   * @param s der Wert.
+   * @param max maximale Laenge.
+   * @return der bereinigte Wert oder "-", wenn er leer ist.
+   */
+  private static String sanitize(String s, int max)
+  {
+    if (s == null || s.length() == 0)
+      return "-";
+    StringBuffer sb = new StringBuffer(Math.min(s.length(),max));
+    for (int i=0;i<s.length() && sb.length() < max;++i)
+    {
+      char c = s.charAt(i);
+      sb.append(c > 32 && c < 127 ? c : '_');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Schreibt eine positive Zahl als ASCII-Ziffern in den Puffer.
+   * @param buf der Puffer.
+   * @param value die Zahl.
+   */
+  private static void putNumber(ByteBuffer buf, int value)
+  {
+    int div = 1;
+    while (value / div >= 10)
+      div *= 10;
+    while (div > 0)
+    {
+      buf.put((byte) ('0' + (value / div) % 10));
+      div /= 10;
+    }
   }
 
 }
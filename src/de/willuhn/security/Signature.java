@@ -119,12 +119,12 @@ public class Signature
 
     ////////////////////////////////////////////////////////////////////////////
     // Queue zum Abarbeiten der Parameter
-    Queue queue = new Queue(100);
+    Queue<String> queue = new Queue<String>(args.length);
     for (String s:args)
       queue.push(s.trim());
 
     // Das Kommando ist der erste Parameter.
-    String command = (String) queue.pop();
+    String command = queue.pop();
     if (!command.equals("sign") && !command.equals("verify"))
       usage();
 
@@ -133,7 +133,7 @@ public class Signature
     String s = null;
     while (queue.size() > 0)
     {
-      String curr = (String) queue.pop();
+      String curr = queue.pop();
       if (curr == null || curr.length() == 0)
         continue;
       if (curr.startsWith("-"))
@@ -16,8 +16,9 @@ package de.willuhn.util;
 /**
  * Bildet eine History ab, die immer eine definierte Anzahl der letzten
  * Elemente enthaelt.
+ * @param <T> der Typ der Elemente.
  */
-public class History extends Queue
+public class History<T> extends Queue<T>
 {
 
   /**
@@ -30,17 +31,12 @@ public class History extends Queue
   }
 
   /**
+   * Ist die History voll, wird das aelteste Element entfernt.
    * @see de.willuhn.util.Queue#push(java.lang.Object)
    */
-  public synchronized void push(Object o)
+  public void push(T o)
   {
-  	if (full())
-  		pop();
-    try
-    {
-      super.push(o);
-    }
-    catch (QueueFullException e){}
+    pushEvict(o);
   }
 
 }
@@ -13,61 +13,194 @@
 
 package de.willuhn.util;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Bildet eine Queue nach FIFO-Prinzip ab (First in, First out).
  * Die Queue enthaelt eine definierte Anzahl von Elementen. Diese werden
  * in der Reihenfolge abgearbeitet, wie sie hinzugefuegt wurden.
- * Sie ist synchronized.
+ * Sie ist thread-safe. Die Elemente liegen in einem Ring-Puffer fester
+ * Groesse, Hinzufuegen und Entnehmen sind daher unabhaengig von der
+ * Anzahl der Elemente.
+ * Neben den nicht-blockierenden Funktionen {@link #push(Object)} und
+ * {@link #pop()} gibt es {@link #put(Object)} und {@link #take()}, die
+ * warten, bis Platz bzw. ein Element vorhanden ist.
+ * @param <T> der Typ der Elemente.
  */
-public class Queue
+public class Queue<T>
 {
 
-	private int capacity = 10;
-	private Vector v = null;
+	private final Object[] items;
+	private int head  = 0;
+	private int count = 0;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull  = lock.newCondition();
 
 	/**
 	 * Die Minimal-Kapazitaet der Queue.
+	 * @deprecated Wird nicht mehr verwendet. Die Kapazitaet muss nur noch groesser 0 sein.
 	 */
+	@Deprecated
 	public static int CAPACITY_MIN = 2;
 
 	/**
 	 * Die Maximal-Kapazitaet der Queue.
+	 * @deprecated Wird nicht mehr verwendet. Die Kapazitaet ist nicht mehr nach oben begrenzt.
 	 */
+	@Deprecated
 	public static int CAPACITY_MAX = 1000;
 
   /**
    * ct.
    * @param capacity maximale Kapazitaet, die die Queue haben soll.
+   * Ist sie kleiner als 1, wird wie bisher eine Kapazitaet von 10 verwendet.
    */
   public Queue(int capacity)
   {
-  	if (capacity >= CAPACITY_MIN && capacity <= CAPACITY_MAX)
-  		this.capacity = capacity;
-  	v = new Vector(this.capacity);
+    this.items = new Object[capacity < 1 ? 10 : capacity];
+  }
+
+  /**
+   * Liefert die Kapazitaet der Queue.
+   * @return Kapazitaet der Queue.
+   */
+  public int capacity()
+  {
+    return this.items.length;
   }
 
 	/**
-	 * Entfernt das naechste zu bearbeitende Objekt aus der Queue und liefert es zurueck. 
+	 * Entfernt das naechste zu bearbeitende Objekt aus der Queue und liefert es zurueck.
    * @return naechstes zu bearbeitendes Objekt.
+   * @throws ArrayIndexOutOfBoundsException wenn die Queue leer ist.
    */
-  public synchronized Object pop()
+  public T pop()
 	{
-		Object o = v.get(0);
-		v.removeElementAt(0);
-		return o;
+    lock.lock();
+    try
+    {
+      if (count == 0)
+        throw new ArrayIndexOutOfBoundsException("queue is empty");
+      return dequeue();
+    }
+    finally
+    {
+      lock.unlock();
+    }
 	}
-	
+
+  /**
+   * Entfernt das naechste Objekt aus der Queue und liefert es zurueck.
+   * Ist die Queue leer, wird gewartet, bis ein Objekt hinzugefuegt wurde.
+   * @return naechstes zu bearbeitendes Objekt.
+   * @throws InterruptedException
+   */
+  public T take() throws InterruptedException
+  {
+    lock.lockInterruptibly();
+    try
+    {
+      while (count == 0)
+        notEmpty.await();
+      return dequeue();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Entfernt das naechste Objekt aus der Queue und liefert es zurueck.
+   * @return naechstes zu bearbeitendes Objekt oder <code>null</code>, wenn die Queue leer ist.
+   */
+  public T poll()
+  {
+    lock.lock();
+    try
+    {
+      return count == 0 ? null : dequeue();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Entfernt das naechste Objekt aus der Queue und liefert es zurueck.
+   * Ist die Queue leer, wird maximal die angegebene Zeit gewartet.
+   * @param timeout maximale Wartezeit.
+   * @param unit Einheit der Wartezeit.
+   * @return naechstes zu bearbeitendes Objekt oder <code>null</code>, wenn die Queue nach Ablauf der Zeit noch leer ist.
+   * @throws InterruptedException
+   */
+  public T poll(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try
+    {
+      while (count == 0)
+      {
+        if (nanos <= 0L)
+          return null;
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Entfernt bis zu <code>max</code> Objekte aus der Queue und fuegt sie der Collection hinzu.
+   * @param c die Collection.
+   * @param max maximale Anzahl der Objekte.
+   * @return Anzahl der entnommenen Objekte.
+   */
+  public int drainTo(Collection<? super T> c, int max)
+  {
+    if (c == null)
+      throw new NullPointerException();
+    lock.lock();
+    try
+    {
+      int n = Math.min(max,count);
+      for (int i=0;i<n;++i)
+        c.add(dequeue());
+      return Math.max(n,0);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
 	/**
 	 * Liefert die aktuelle Groesse der Queue.
-   * @return aktuelle Groesse der Queue. 
+   * @return aktuelle Groesse der Queue.
    */
   public int size()
 	{
-		return v.size();
+    lock.lock();
+    try
+    {
+      return count;
+    }
+    finally
+    {
+      lock.unlock();
+    }
 	}
 
 	/**
@@ -75,19 +208,30 @@ public class Queue
 	 * Es wird nur eine Kopie ausgegeben.
    * @return Liste aller Elemente.
    */
-  public synchronized List elements()
+  public List<T> elements()
 	{
-		return Arrays.asList(v.toArray());
+    lock.lock();
+    try
+    {
+      List<T> list = new ArrayList<T>(count);
+      for (int i=0;i<count;++i)
+        list.add(itemAt((head + i) % items.length));
+      return list;
+    }
+    finally
+    {
+      lock.unlock();
+    }
 	}
 
   /**
-	 * Liefert ein Object-Array mit allen momentan in der Queue befindlichen Objekten.
-   * @param type Objekt-Typ, der fuer das Array verwendet werden soll.
-	 * @return Array mit Objects.
+	 * Liefert ein Array mit allen momentan in der Queue befindlichen Objekten.
+   * @param type Array, dessen Typ fuer das Ergebnis verwendet werden soll.
+	 * @return Array mit den Objekten.
 	 */
-	public Object[] toArray(Object[] type)
+	public <E> E[] toArray(E[] type)
 	{
-		return v.toArray(type);
+		return elements().toArray(type);
 	}
 
 	/**
@@ -96,7 +240,15 @@ public class Queue
    */
   public boolean full()
 	{
-		return (v.size() >= capacity);
+    lock.lock();
+    try
+    {
+      return count == items.length;
+    }
+    finally
+    {
+      lock.unlock();
+    }
 	}
 
   /**
@@ -105,13 +257,142 @@ public class Queue
    * @param o das hinzuzufuegende Objekt.
    * @throws QueueFullException Wenn die Queue voll ist.
    */
-  public synchronized void push(Object o) throws QueueFullException
+  public void push(T o) throws QueueFullException
 	{
-		if (full())
-			throw new QueueFullException("maximum queue size reached");
-		v.addElement(o);
+    if (!offer(o))
+      throw new QueueFullException("maximum queue size reached");
 	}
 
+  /**
+   * Fuegt der Queue ein weiteres Objekt hinzu.
+   * @param o das hinzuzufuegende Objekt.
+   * @return true, wenn es hinzugefuegt wurde, false, wenn die Queue voll ist.
+   */
+  public boolean offer(T o)
+  {
+    lock.lock();
+    try
+    {
+      if (count == items.length)
+        return false;
+      enqueue(o);
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fuegt der Queue ein weiteres Objekt hinzu.
+   * Ist die Queue voll, wird maximal die angegebene Zeit gewartet.
+   * @param o das hinzuzufuegende Objekt.
+   * @param timeout maximale Wartezeit.
+   * @param unit Einheit der Wartezeit.
+   * @return true, wenn es hinzugefuegt wurde, false, wenn die Queue nach Ablauf der Zeit noch voll ist.
+   * @throws InterruptedException
+   */
+  public boolean offer(T o, long timeout, TimeUnit unit) throws InterruptedException
+  {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try
+    {
+      while (count == items.length)
+      {
+        if (nanos <= 0L)
+          return false;
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(o);
+      return true;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fuegt der Queue ein weiteres Objekt hinzu.
+   * Ist die Queue voll, wird gewartet, bis wieder Platz ist.
+   * @param o das hinzuzufuegende Objekt.
+   * @throws InterruptedException
+   */
+  public void put(T o) throws InterruptedException
+  {
+    lock.lockInterruptibly();
+    try
+    {
+      while (count == items.length)
+        notFull.await();
+      enqueue(o);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fuegt der Queue ein weiteres Objekt hinzu.
+   * Ist die Queue voll, wird vorher das aelteste entfernt.
+   * @param o das hinzuzufuegende Objekt.
+   */
+  void pushEvict(T o)
+  {
+    lock.lock();
+    try
+    {
+      if (count == items.length)
+        dequeue();
+      enqueue(o);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Haengt das Objekt an. Muss innerhalb des Locks bei freiem Platz aufgerufen werden.
+   * @param o das Objekt.
+   */
+  private void enqueue(T o)
+  {
+    items[(head + count) % items.length] = o;
+    count++;
+    notEmpty.signal();
+  }
+
+  /**
+   * Entnimmt das erste Objekt. Muss innerhalb des Locks bei nicht leerer Queue aufgerufen werden.
+   * @return das Objekt.
+   */
+  private T dequeue()
+  {
+    T o = itemAt(head);
+    items[head] = null;
+    head = (head + 1) % items.length;
+    count--;
+    notFull.signal();
+    return o;
+  }
+
+  /**
+   * Liefert das Objekt an der angegebenen Position des Arrays.
+   * @param i die Position.
+   * @return das Objekt.
+   */
+  private T itemAt(int i)
+  {
+    // Im Array landen nur Objekte vom Typ T
+    @SuppressWarnings("unchecked")
+    T t = (T) items[i];
+    return t;
+  }
+
 	/**
 	 * Wird geworfen, wenn die Queue voll ist und trotzdem versucht wird, Daten
 	 * hineinzuschreiben.
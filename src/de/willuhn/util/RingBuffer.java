@@ -0,0 +1,154 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-freier Ringpuffer mit fester Kapazitaet nach FIFO-Prinzip.
+ * Beliebig viele Threads koennen gleichzeitig schreiben und lesen, ohne
+ * sich gegenseitig ueber einen Monitor zu blockieren. Die Slots werden
+ * bei der Erzeugung einmalig angelegt, <code>offer</code> und <code>poll</code>
+ * erzeugen danach keine weiteren Objekte.
+ * Die Kapazitaet wird auf die naechste Zweierpotenz aufgerundet.
+ * @param <T> der Typ der Elemente.
+ */
+public class RingBuffer<T>
+{
+  private final int mask;
+  private final AtomicReferenceArray<T> slots;
+
+  // Pro Slot die Sequenz-Nummer, ab der er beschrieben bzw. gelesen werden darf
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong head = new AtomicLong(0L);
+  private final AtomicLong tail = new AtomicLong(0L);
+
+  /**
+   * ct.
+   * @param capacity gewuenschte Kapazitaet. Sie wird auf die naechste Zweierpotenz aufgerundet.
+   */
+  public RingBuffer(int capacity)
+  {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity must be > 0");
+
+    int size = 1;
+    while (size < capacity)
+      size <<= 1;
+
+    this.mask      = size - 1;
+    this.slots     = new AtomicReferenceArray<T>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i=0;i<size;++i)
+      this.sequences.set(i,i);
+  }
+
+  /**
+   * Fuegt ein Element hinzu.
+   * @param o das hinzuzufuegende Element.
+   * @return true, wenn es hinzugefuegt wurde, false wenn der Puffer voll ist.
+   */
+  public boolean offer(T o)
+  {
+    if (o == null)
+      throw new NullPointerException("null elements not allowed");
+
+    long pos = tail.get();
+    while (true)
+    {
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0)
+      {
+        if (tail.compareAndSet(pos,pos + 1))
+        {
+          slots.set(index,o);
+          sequences.set(index,pos + 1);
+          return true;
+        }
+      }
+      else if (diff < 0)
+      {
+        return false; // voll
+      }
+      pos = tail.get();
+    }
+  }
+
+  /**
+   * Entfernt das aelteste Element und liefert es zurueck.
+   * @return das aelteste Element oder <code>null</code>, wenn der Puffer leer ist.
+   */
+  public T poll()
+  {
+    long pos = head.get();
+    while (true)
+    {
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - (pos + 1);
+      if (diff == 0)
+      {
+        if (head.compareAndSet(pos,pos + 1))
+        {
+          T o = slots.get(index);
+          slots.set(index,null);
+          sequences.set(index,pos + mask + 1);
+          return o;
+        }
+      }
+      else if (diff < 0)
+      {
+        return null; // leer
+      }
+      pos = head.get();
+    }
+  }
+
+  /**
+   * Liefert die ungefaehre Anzahl der Elemente im Puffer.
+   * Da parallel geschrieben und gelesen werden kann, ist der Wert nur eine Momentaufnahme.
+   * @return Anzahl der Elemente.
+   */
+  public int size()
+  {
+    long size = tail.get() - head.get();
+    if (size < 0)
+      return 0;
+    return (int) Math.min(size,capacity());
+  }
+
+  /**
+   * Liefert die Anzahl der bisher insgesamt hinzugefuegten Elemente (Schreib-Position).
+   * @return Schreib-Position.
+   */
+  public long getWritePosition()
+  {
+    return tail.get();
+  }
+
+  /**
+   * Liefert die Anzahl der bisher insgesamt entnommenen Elemente (Lese-Position).
+   * @return Lese-Position.
+   */
+  public long getReadPosition()
+  {
+    return head.get();
+  }
+
+  /**
+   * Liefert die Kapazitaet des Puffers.
+   * @return Kapazitaet.
+   */
+  public int capacity()
+  {
+    return mask + 1;
+  }
+}
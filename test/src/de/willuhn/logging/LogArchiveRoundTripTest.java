@@ -0,0 +1,493 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.willuhn.io.IOUtil;
+import de.willuhn.logging.targets.ArchiveIndex;
+import de.willuhn.logging.targets.LogrotateTarget;
+
+/**
+ * Schreibt Meldungen per {@link LogrotateTarget}, laesst sie rotieren und
+ * indizieren und sucht sie anschliessend per {@link LogArchiveReader}.
+ * Jede Suche ueber den Index muss dasselbe liefern wie das Durchsuchen der
+ * ganzen Datei ohne Index und wie das Filtern der geschriebenen Meldungen.
+ */
+public class LogArchiveRoundTripTest
+{
+  // 2020-01-01 00:00:00 UTC. Die Zeitstempel im Log haben Sekunden-Aufloesung.
+  private final static long BASE = 1577836800000L;
+
+  private final static Level[] LEVELS = new Level[]{Level.DEBUG,Level.INFO,Level.INFO,Level.WARN,Level.ERROR};
+
+  private File dir = null;
+  private File log = null;
+  private List<Message> written = null;
+
+  /**
+   * Legt das Verzeichnis fuer die Log-Dateien an.
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception
+  {
+    this.dir = File.createTempFile("roundtrip",".dir");
+    this.dir.delete();
+    this.dir.mkdirs();
+    this.log = new File(this.dir,"test.log");
+    this.written = new ArrayList<Message>();
+  }
+
+  /**
+   * Loescht die Log-Dateien.
+   */
+  @After
+  public void tearDown()
+  {
+    delete(this.dir);
+  }
+
+  /**
+   * Komprimierte Archive: Jeder Block ist ein eigenes gzip-Member.
+   * Die beim Anhaengen schon vorhandenen Meldungen landen in einem Block
+   * mit unbekanntem Inhalt.
+   * @throws Exception
+   */
+  @Test
+  public void testCompressed() throws Exception
+  {
+    List<File> archives = write(true);
+    for (File f:archives)
+    {
+      Assert.assertTrue(f.getName(),f.getName().endsWith(".gz"));
+      ArchiveIndex index = ArchiveIndex.read(ArchiveIndex.getFile(f));
+      Assert.assertTrue(index.isCompressed());
+      assertMembers(f,index);
+    }
+    check(archives);
+  }
+
+  /**
+   * Unkomprimierte Archive: Die Bloecke liegen an ihrer urspruenglichen Position.
+   * @throws Exception
+   */
+  @Test
+  public void testUncompressed() throws Exception
+  {
+    List<File> archives = write(false);
+    for (File f:archives)
+    {
+      Assert.assertFalse(f.getName(),f.getName().endsWith(".gz"));
+      Assert.assertFalse(ArchiveIndex.read(ArchiveIndex.getFile(f)).isCompressed());
+    }
+    check(archives);
+  }
+
+  /**
+   * Schreibt zuerst ohne und dann per Anhaengen mit Index und laesst dabei mehrfach rotieren.
+   * @param zip true, wenn die Archive komprimiert werden sollen.
+   * @return die Archive.
+   * @throws Exception
+   */
+  private List<File> write(boolean zip) throws Exception
+  {
+    // Bereits vorhandene Datei, deren Inhalt der Index nicht kennt
+    LogrotateTarget target = new LogrotateTarget(this.log,false);
+    target.setEncoding("UTF-8");
+    target.setMaxLength(Long.MAX_VALUE);
+    for (int i=0;i<300;++i)
+      target.write(message(i,"de.willuhn.old.Legacy"));
+    target.close();
+
+    target = new LogrotateTarget(this.log,true);
+    target.setEncoding("UTF-8");
+    target.setZip(zip);
+    target.setMaxLength(700 * 1024L);
+    int i = 300;
+    while (i < 20000)
+    {
+      // Abwechselnd einzeln und als Batch
+      if (i % 7 == 0)
+      {
+        target.write(message(i,null));
+        i++;
+        continue;
+      }
+      int count = 1 + (i % 40);
+      Message[] batch = new Message[count];
+      for (int k=0;k<count;++k)
+        batch[k] = message(i++,null);
+      target.write(batch,count);
+    }
+    target.close(); // wartet auf das Komprimieren
+
+    List<File> archives = new ArrayList<File>();
+    for (File f:this.dir.listFiles())
+    {
+      if (!f.getName().equals(this.log.getName()) && !f.getName().endsWith(ArchiveIndex.SUFFIX))
+        archives.add(f);
+    }
+    Assert.assertTrue("archives: " + archives,archives.size() >= 2);
+    int unknown = 0;
+    for (File f:archives)
+    {
+      ArchiveIndex index = ArchiveIndex.read(ArchiveIndex.getFile(f));
+      Assert.assertTrue("blocks: " + index.getBlocks().size(),index.getBlocks().size() >= 2);
+      for (ArchiveIndex.Block b:index.getBlocks())
+      {
+        if (b.getMessages() == -1)
+          unknown++;
+      }
+    }
+    Assert.assertEquals(1,unknown);
+    return archives;
+  }
+
+  /**
+   * Vergleicht Suchen ueber den Index mit dem Durchsuchen ohne Index und
+   * mit den geschriebenen Meldungen.
+   * @param archives die Archive.
+   * @throws Exception
+   */
+  private void check(List<File> archives) throws Exception
+  {
+    List<File> files = new ArrayList<File>(archives);
+    files.add(this.log);
+
+    // Alles lesen: Jede geschriebene Meldung muss genau einmal vorkommen
+    Query all = new Query();
+    assertSame(filter(all),scan(files,all,true));
+    assertSame(filter(all),scan(files,all,false));
+
+    // Die Meldungen aus der schon vorhandenen Datei stehen im unbekannten Block
+    Query old = new Query();
+    old.clazz = "de.willuhn.old";
+    List<Message> legacy = scan(files,old,true);
+    Assert.assertEquals(300,legacy.size());
+    assertSame(filter(old),legacy);
+
+    // Grenzen zwischen zwei Bloecken: letzte Meldung des einen bis erste des naechsten
+    File archive = archives.get(0);
+    ArchiveIndex index = ArchiveIndex.read(ArchiveIndex.getFile(archive));
+    List<ArchiveIndex.Block> blocks = new ArrayList<ArchiveIndex.Block>();
+    for (ArchiveIndex.Block b:index.getBlocks())
+    {
+      if (b.getMessages() > 0)
+        blocks.add(b);
+    }
+    Assert.assertTrue(blocks.size() >= 2);
+    ArchiveIndex.Block b1 = blocks.get(0);
+    ArchiveIndex.Block b2 = blocks.get(1);
+
+    Query edge = new Query();
+    edge.from = b1.getTo();
+    edge.to   = b2.getFrom();
+    List<Message> found = assertQuery(archive,edge);
+    Assert.assertEquals(2,found.size());
+
+    // Genau ein Block
+    Query block = new Query();
+    block.from = b2.getFrom();
+    block.to   = b2.getTo();
+    found = assertQuery(archive,block);
+    Assert.assertEquals(b2.getMessages(),found.size());
+
+    // Level, Klasse und Kombinationen ueber alle Dateien
+    Query warn = new Query();
+    warn.level = Level.WARN;
+    Query clazz = new Query();
+    clazz.clazz = "de.willuhn.test.pkg3";
+    Query combined = new Query();
+    combined.from  = BASE + 5000 * 1000L;
+    combined.to    = BASE + 12000 * 1000L;
+    combined.level = Level.WARN;
+    combined.clazz = "de.willuhn.test.pkg4";
+    for (File f:files)
+    {
+      assertQuery(f,warn);
+      assertQuery(f,clazz);
+      assertQuery(f,combined);
+    }
+    Assert.assertTrue(scan(files,combined,true).size() > 0);
+  }
+
+  /**
+   * Sucht im Archiv mit und ohne Index und vergleicht das Ergebnis mit den geschriebenen Meldungen.
+   * Mit Index duerfen dabei nicht mehr Bloecke gelesen werden, als laut Index passen koennen.
+   * @param f das Archiv.
+   * @param q die Suche.
+   * @return die gefundenen Meldungen.
+   * @throws Exception
+   */
+  private List<Message> assertQuery(File f, Query q) throws Exception
+  {
+    List<File> files = Collections.singletonList(f);
+    List<Message> indexed = scan(files,q,true);
+    assertSame(scan(files,q,false),indexed);
+
+    List<Message> expected = new ArrayList<Message>();
+    for (Message m:scan(files,new Query(),false))
+    {
+      if (q.accept(m))
+        expected.add(m);
+    }
+    assertSame(expected,indexed);
+    return indexed;
+  }
+
+  /**
+   * Durchsucht die Dateien.
+   * @param files die Dateien.
+   * @param q die Suche.
+   * @param useIndex true, wenn der Index verwendet werden soll. Andernfalls
+   * wird die Datei ohne Index in ein eigenes Verzeichnis kopiert und ganz gelesen.
+   * @return die gefundenen Meldungen, nach Zeit sortiert.
+   * @throws Exception
+   */
+  private List<Message> scan(List<File> files, Query q, boolean useIndex) throws Exception
+  {
+    List<Message> result = new ArrayList<Message>();
+    for (File f:files)
+    {
+      File source = f;
+      if (!useIndex)
+      {
+        File plain = new File(this.dir,"plain");
+        plain.mkdirs();
+        source = new File(plain,f.getName());
+        copy(f,source);
+      }
+
+      LogArchiveReader reader = new LogArchiveReader(source);
+      try
+      {
+        // Gilt nur ohne Index, die aktuelle Datei hat noch keinen
+        reader.setEncoding("UTF-8");
+        int blocks = 0;
+        if (useIndex && reader.getIndex() != null)
+        {
+          for (ArchiveIndex.Block b:reader.getIndex().getBlocks())
+          {
+            if (b.matches(q.from,q.to,q.level,q.clazz))
+              blocks++;
+          }
+        }
+
+        reader.setFrom(q.from);
+        reader.setTo(q.to);
+        reader.setLevel(q.level);
+        reader.setLoggingClass(q.clazz);
+        Message m = null;
+        while ((m = reader.read()) != null)
+          result.add(m);
+
+        if (useIndex && reader.getIndex() != null)
+          Assert.assertEquals(blocks,reader.getBlocksRead());
+      }
+      finally
+      {
+        reader.close();
+      }
+      if (!useIndex)
+        source.delete();
+    }
+    sort(result);
+    return result;
+  }
+
+  /**
+   * Filtert die geschriebenen Meldungen.
+   * @param q die Suche.
+   * @return die passenden Meldungen, nach Zeit sortiert.
+   */
+  private List<Message> filter(Query q)
+  {
+    List<Message> result = new ArrayList<Message>();
+    for (Message m:this.written)
+    {
+      if (q.accept(m))
+        result.add(m);
+    }
+    sort(result);
+    return result;
+  }
+
+  /**
+   * Erzeugt die i-te Meldung und merkt sie sich.
+   * Level, Klasse und Laenge des Textes wechseln, manche Meldungen haben
+   * Folgezeilen wie bei einem Stacktrace.
+   * @param i laufende Nummer, zugleich Sekunde ab {@link #BASE}.
+   * @param clazz optionale Klasse.
+   * @return die Meldung.
+   */
+  private Message message(int i, String clazz)
+  {
+    if (clazz == null)
+      clazz = "de.willuhn.test.pkg" + (i % 5) + ".Class" + (i % 13);
+    StringBuilder sb = new StringBuilder("message " + i + " \u00e4\u00f6\u00fc");
+    for (int k=0;k<i % 17;++k)
+      sb.append(" lorem ipsum");
+    if (i % 11 == 0)
+      sb.append("\n\tat ").append(clazz).append(".run(Test.java:").append(i).append(")");
+    Message m = Messages.create(BASE + i * 1000L,LEVELS[i % LEVELS.length],clazz,"run",sb.toString());
+    this.written.add(m);
+    return m;
+  }
+
+  /**
+   * Vergleicht zwei Listen von Meldungen.
+   * @param expected die erwarteten Meldungen.
+   * @param actual die gefundenen Meldungen.
+   */
+  private static void assertSame(List<Message> expected, List<Message> actual)
+  {
+    Assert.assertEquals(expected.size(),actual.size());
+    for (int i=0;i<expected.size();++i)
+    {
+      Message e = expected.get(i);
+      Message a = actual.get(i);
+      Assert.assertEquals(e.getTime(),a.getTime());
+      Assert.assertEquals(e.getLevel().getName(),a.getLevel().getName());
+      Assert.assertEquals(e.getLoggingClass(),a.getLoggingClass());
+      Assert.assertEquals(e.getLoggingMethod(),a.getLoggingMethod());
+      Assert.assertEquals(e.getText(),a.getText());
+    }
+  }
+
+  /**
+   * Sortiert die Meldungen nach Zeit.
+   * @param list die Meldungen.
+   */
+  private static void sort(List<Message> list)
+  {
+    Collections.sort(list,new Comparator<Message>() {
+      public int compare(Message m1, Message m2)
+      {
+        return m1.getTime() < m2.getTime() ? -1 : (m1.getTime() == m2.getTime() ? 0 : 1);
+      }
+    });
+  }
+
+  /**
+   * Prueft, dass die Bloecke lueckenlos hintereinander liegen und jeder
+   * fuer sich ein gzip-Member ist, das die Roh-Laenge des Blocks ergibt.
+   * @param f das Archiv.
+   * @param index der Index.
+   * @throws IOException
+   */
+  private static void assertMembers(File f, ArchiveIndex index) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(f,"r");
+    try
+    {
+      long pos = 0L;
+      for (ArchiveIndex.Block b:index.getBlocks())
+      {
+        Assert.assertEquals(pos,b.getOffset());
+        byte[] data = new byte[(int) b.getLength()];
+        raf.seek(b.getOffset());
+        raf.readFully(data);
+        pos += data.length;
+
+        GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(data));
+        long raw = 0L;
+        byte[] buf = new byte[8192];
+        int read = 0;
+        while ((read = gz.read(buf)) != -1)
+          raw += read;
+        gz.close();
+        Assert.assertEquals(b.getRawLength(),raw);
+      }
+      Assert.assertEquals(raf.length(),pos);
+    }
+    finally
+    {
+      raf.close();
+    }
+  }
+
+  /**
+   * Kopiert eine Datei.
+   * @param from Quelle.
+   * @param to Ziel.
+   * @throws IOException
+   */
+  private static void copy(File from, File to) throws IOException
+  {
+    FileInputStream is = null;
+    FileOutputStream os = null;
+    try
+    {
+      is = new FileInputStream(from);
+      os = new FileOutputStream(to);
+      IOUtil.copy(is,os);
+    }
+    finally
+    {
+      IOUtil.close(is,os);
+    }
+  }
+
+  /**
+   * Loescht das Verzeichnis samt Inhalt.
+   * @param f das Verzeichnis.
+   */
+  private static void delete(File f)
+  {
+    File[] children = f.listFiles();
+    if (children != null)
+    {
+      for (File c:children)
+        delete(c);
+    }
+    f.delete();
+  }
+
+  /**
+   * Die Kriterien einer Suche.
+   */
+  private static class Query
+  {
+    private long from    = Long.MIN_VALUE;
+    private long to      = Long.MAX_VALUE;
+    private Level level  = null;
+    private String clazz = null;
+
+    /**
+     * Prueft die Meldung wie {@link LogArchiveReader}.
+     * @param m die Meldung.
+     * @return true, wenn sie passt.
+     */
+    private boolean accept(Message m)
+    {
+      if (m.getTime() < this.from || m.getTime() > this.to)
+        return false;
+      if (this.level != null && m.getLevel().getValue() < this.level.getValue())
+        return false;
+      if (this.clazz != null && !m.getLoggingClass().startsWith(this.clazz))
+        return false;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+/**
+ * Erzeugt Messages fuer Tests, die Targets direkt beschreiben.
+ */
+public class Messages
+{
+  /**
+   * Erzeugt eine Message mit dem aktuellen Zeitstempel.
+   * @param level Log-Level.
+   * @param clazz Name der loggenden Klasse.
+   * @param method Name der loggenden Methode.
+   * @param text Text der Nachricht.
+   * @return die Message.
+   */
+  public static Message create(Level level, String clazz, String method, String text)
+  {
+    return create(System.currentTimeMillis(),level,clazz,method,text);
+  }
+
+  /**
+   * Erzeugt eine Message.
+   * @param time Zeitstempel in Millisekunden seit 1970.
+   * @param level Log-Level.
+   * @param clazz Name der loggenden Klasse.
+   * @param method Name der loggenden Methode.
+   * @param text Text der Nachricht.
+   * @return die Message.
+   */
+  public static Message create(long time, Level level, String clazz, String method, String text)
+  {
+    Message m = new Message();
+    m.init(time,level,null,clazz,method,text,false);
+    return m;
+  }
+}
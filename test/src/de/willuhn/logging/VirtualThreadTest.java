@@ -0,0 +1,306 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.willuhn.logging.targets.Durability;
+import de.willuhn.logging.targets.LogrotateTarget;
+import de.willuhn.logging.targets.Target;
+
+/**
+ * Loggt aus vielen virtuellen Threads und prueft per JFR, dass dabei kein
+ * virtueller Thread in unserem Code an seinen Carrier-Thread gebunden wird
+ * (Pinning, Event "jdk.VirtualThreadPinned"). Das passiert, wenn er wartet,
+ * waehrend er einen Monitor haelt.
+ * <p>
+ * Virtuelle Threads gibt es erst ab Java 21. Da der Code fuer Java 5
+ * uebersetzt wird, werden sie und JFR per Reflection verwendet. Auf
+ * aelteren JVMs wird der Test uebersprungen.
+ */
+public class VirtualThreadTest
+{
+  private final static int THREADS  = 500;
+  private final static int MESSAGES = 100;
+
+  private File dir = null;
+  private LogrotateTarget rotate = null;
+  private CountingTarget counter = null;
+  private Level level = null;
+
+  /**
+   * Richtet die Targets ein.
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception
+  {
+    this.dir = File.createTempFile("vthreads",".dir");
+    this.dir.delete();
+    this.dir.mkdirs();
+
+    this.level = Logger.getLevel();
+    Logger.setLevel(Level.INFO);
+    Logger.setOverflowPolicy(Logger.OverflowPolicy.BLOCK);
+
+    this.counter = new CountingTarget();
+    Logger.addTarget(this.counter);
+
+    this.rotate = new LogrotateTarget(new File(this.dir,"test.log"),false);
+    this.rotate.setMaxLength(64 * 1024L);
+    this.rotate.setMaxArchives(3);
+    Logger.addTarget(this.rotate);
+  }
+
+  /**
+   * Entfernt die Targets, setzt die Log-Level zurueck und loescht die Dateien.
+   * @throws Exception
+   */
+  @After
+  public void tearDown() throws Exception
+  {
+    Logger.removeTarget(this.counter);
+    Logger.removeTarget(this.rotate);
+    this.rotate.close();
+    Logger.setOverflowPolicy(Logger.OverflowPolicy.STDOUT);
+    Logger.setLevel(VirtualThreadTest.class.getName(),null);
+    Logger.setLevel(this.level);
+
+    File[] files = this.dir.listFiles();
+    if (files != null)
+    {
+      for (File f:files)
+        f.delete();
+    }
+    this.dir.delete();
+  }
+
+  /**
+   * Virtuelle Threads loggen mit Parametern, Suppliern und Exceptions,
+   * aendern Log-Level und fsync-Intervall und warten per flush() auf den
+   * Logger-Thread. Der Logger-Thread wird durch ein langsames Target
+   * gebremst, sodass die Queue voll laeuft und die Threads warten muessen.
+   * @throws Exception
+   */
+  @Test
+  public void testNoPinning() throws Exception
+  {
+    Method ofVirtual = virtualBuilder();
+    Assume.assumeNotNull(ofVirtual);
+    Object recording = startRecording();
+    Assume.assumeNotNull(recording);
+
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final AtomicInteger logged = new AtomicInteger();
+    final Category category = Logger.getCategory(VirtualThreadTest.class);
+    final Exception e = new Exception("test exception");
+
+    Object builder = ofVirtual.invoke(null);
+    Method start = Class.forName("java.lang.Thread$Builder").getMethod("start",Runnable.class);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i=0;i<THREADS;++i)
+    {
+      final int n = i;
+      threads.add((Thread) start.invoke(builder,new Runnable() {
+        public void run()
+        {
+          try
+          {
+            for (int k=0;k<MESSAGES;++k)
+            {
+              switch (k % 5)
+              {
+                case 0:
+                  Logger.info("thread {0}, message {1}",n,k);
+                  break;
+                case 1:
+                  category.info("category message");
+                  break;
+                case 2:
+                  Logger.info(new MessageSupplier() {
+                    public String get()
+                    {
+                      return "supplied message";
+                    }
+                  });
+                  break;
+                case 3:
+                  Logger.info("with exception",e);
+                  break;
+                default:
+                  Logger.warn("plain message");
+              }
+              logged.incrementAndGet();
+
+              if (k % 50 == 0)
+                Logger.flush();
+            }
+            if (n % 10 == 0)
+            {
+              Logger.setLevel(VirtualThreadTest.class.getName(),n % 20 == 0 ? Level.DEBUG : Level.INFO);
+              rotate.setDurability(Durability.interval(n % 20 == 0 ? 10L : 20L));
+            }
+          }
+          catch (Throwable t)
+          {
+            error.compareAndSet(null,t);
+          }
+        }
+      }));
+    }
+
+    for (Thread t:threads)
+      t.join(60000L);
+    Logger.flush();
+
+    List<String> pinned = stopRecording(recording);
+    if (error.get() != null)
+      throw new Exception("logging thread failed",error.get());
+    Assert.assertEquals(THREADS * MESSAGES,logged.get());
+    Assert.assertTrue("messages written: " + this.counter.count.get(),this.counter.count.get() >= THREADS * MESSAGES);
+    Assert.assertTrue("pinned threads:\n" + pinned,pinned.isEmpty());
+  }
+
+  /**
+   * Liefert die Methode <code>Thread.ofVirtual()</code>.
+   * @return die Methode oder <code>null</code>, wenn die JVM keine virtuellen Threads kennt.
+   */
+  private static Method virtualBuilder()
+  {
+    try
+    {
+      Method m = Thread.class.getMethod("ofVirtual");
+      m.invoke(null); // wirft bei Java 19/20 ohne --enable-preview
+      return m;
+    }
+    catch (NoSuchMethodException e)
+    {
+      return null;
+    }
+    catch (InvocationTargetException e)
+    {
+      return null;
+    }
+    catch (IllegalAccessException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Startet eine JFR-Aufzeichnung der Pinning-Events ohne Schwellwert.
+   * @return die Aufzeichnung oder <code>null</code>, wenn JFR nicht verfuegbar ist.
+   * @throws Exception
+   */
+  private static Object startRecording() throws Exception
+  {
+    Class<?> recordingClass = null;
+    try
+    {
+      recordingClass = Class.forName("jdk.jfr.Recording");
+    }
+    catch (ClassNotFoundException e)
+    {
+      return null;
+    }
+    Class<?> durationClass = Class.forName("java.time.Duration");
+    Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+
+    Object recording = recordingClass.getConstructor().newInstance();
+    Object settings = recordingClass.getMethod("enable",String.class).invoke(recording,"jdk.VirtualThreadPinned");
+    settingsClass.getMethod("withThreshold",durationClass).invoke(settings,durationClass.getField("ZERO").get(null));
+    settingsClass.getMethod("withStackTrace").invoke(settings);
+    recordingClass.getMethod("start").invoke(recording);
+    return recording;
+  }
+
+  /**
+   * Beendet die Aufzeichnung und liefert die Pinning-Events, in deren
+   * Stacktrace unser Code vorkommt.
+   * @param recording die Aufzeichnung.
+   * @return Liste der Events als Text.
+   * @throws Exception
+   */
+  private List<String> stopRecording(Object recording) throws Exception
+  {
+    Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+    Class<?> pathClass      = Class.forName("java.nio.file.Path");
+    Class<?> fileClass      = Class.forName("jdk.jfr.consumer.RecordingFile");
+    Class<?> eventClass     = Class.forName("jdk.jfr.consumer.RecordedEvent");
+    Class<?> stackClass     = Class.forName("jdk.jfr.consumer.RecordedStackTrace");
+    Class<?> frameClass     = Class.forName("jdk.jfr.consumer.RecordedFrame");
+    Class<?> methodClass    = Class.forName("jdk.jfr.consumer.RecordedMethod");
+    Class<?> typeClass      = Class.forName("jdk.jfr.consumer.RecordedClass");
+
+    File file = new File(this.dir,"pinning.jfr");
+    Object path = File.class.getMethod("toPath").invoke(file);
+    recordingClass.getMethod("stop").invoke(recording);
+    recordingClass.getMethod("dump",pathClass).invoke(recording,path);
+    recordingClass.getMethod("close").invoke(recording);
+
+    List<String> result = new ArrayList<String>();
+    List<?> events = (List<?>) fileClass.getMethod("readAllEvents",pathClass).invoke(null,path);
+    for (Object event:events)
+    {
+      Object stack = eventClass.getMethod("getStackTrace").invoke(event);
+      if (stack == null)
+        continue;
+      List<?> frames = (List<?>) stackClass.getMethod("getFrames").invoke(stack);
+      for (Object frame:frames)
+      {
+        Object method = frameClass.getMethod("getMethod").invoke(frame);
+        Object type = methodClass.getMethod("getType").invoke(method);
+        String name = (String) typeClass.getMethod("getName").invoke(type);
+        if (name.startsWith("de.willuhn.") && !name.startsWith(VirtualThreadTest.class.getName()))
+        {
+          result.add(event.toString());
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Zaehlt die Meldungen und bremst dabei den Logger-Thread.
+   */
+  private static class CountingTarget implements Target
+  {
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @see de.willuhn.logging.targets.Target#write(de.willuhn.logging.Message)
+     */
+    public void write(Message message) throws Exception
+    {
+      message.getText();
+      message.getLoggingClass();
+      if (count.incrementAndGet() % 1000 == 0)
+        Thread.sleep(1L);
+    }
+
+    /**
+     * @see de.willuhn.logging.targets.Target#close()
+     */
+    public void close() throws Exception
+    {
+    }
+  }
+}
@@ -0,0 +1,366 @@
+/**********************************************************************
+ *
+ * Copyright (c) by willuhn software & services
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package de.willuhn.logging.targets;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.willuhn.logging.Level;
+import de.willuhn.logging.Message;
+import de.willuhn.logging.Messages;
+
+/**
+ * Testet das Syslog-Target gegen einen lokalen UDP- bzw. TCP-Empfaenger.
+ */
+public class SyslogTargetTest
+{
+  private final static Charset UTF8 = Charset.forName("UTF-8");
+
+  private SyslogTarget target = null;
+  private DatagramSocket udp  = null;
+  private ServerSocket tcp    = null;
+
+  /**
+   * Oeffnet die Empfaenger auf Loopback.
+   * @throws Exception
+   */
+  @Before
+  public void setUp() throws Exception
+  {
+    InetAddress lo = InetAddress.getByName("127.0.0.1");
+    this.udp = new DatagramSocket(0,lo);
+    this.udp.setSoTimeout(5000);
+    this.tcp = new ServerSocket(0,10,lo);
+    this.tcp.setSoTimeout(5000);
+  }
+
+  /**
+   * Schliesst Target und Empfaenger.
+   * @throws Exception
+   */
+  @After
+  public void tearDown() throws Exception
+  {
+    if (this.target != null)
+      this.target.close();
+    this.udp.close();
+    this.tcp.close();
+  }
+
+  /**
+   * Jede Meldung wird als eigenes Datagramm nach RFC 5424 gesendet.
+   * @throws Exception
+   */
+  @Test
+  public void testUdp() throws Exception
+  {
+    this.target = new SyslogTarget("127.0.0.1",this.udp.getLocalPort(),SyslogTarget.Protocol.UDP);
+    this.target.setAppName("test");
+    log(Level.INFO,"first");
+    log(Level.ERROR,"second\nline");
+
+    String first = receive();
+    Assert.assertTrue(first,first.startsWith("<14>1 "));
+    Assert.assertTrue(first,first.indexOf(" test ") != -1);
+    Assert.assertTrue(first,first.endsWith(" - - \uFEFF[Test.run] first"));
+
+    String second = receive();
+    Assert.assertTrue(second,second.startsWith("<11>1 "));
+    Assert.assertTrue(second,second.endsWith("[Test.run] second\nline"));
+  }
+
+  /**
+   * Gepackte Datagramme enthalten mehrere Meldungen, getrennt durch Zeilenumbrueche.
+   * Zeilenumbrueche im Text duerfen die Meldungen nicht zerteilen.
+   * @throws Exception
+   */
+  @Test
+  public void testUdpPacked() throws Exception
+  {
+    this.target = new SyslogTarget("127.0.0.1",this.udp.getLocalPort(),SyslogTarget.Protocol.UDP);
+    this.target.setPackDatagrams(true);
+    Message[] batch = new Message[]{message("one"),message("two\nlines"),message("three")};
+    this.target.write(batch,batch.length);
+
+    List<String> lines = new ArrayList<String>();
+    while (lines.size() < 3)
+    {
+      for (String s:receive().split("\n"))
+        lines.add(s);
+    }
+    Assert.assertEquals(3,lines.size());
+    Assert.assertTrue(lines.get(0),lines.get(0).endsWith("[Test.run] one"));
+    Assert.assertTrue(lines.get(1),lines.get(1).endsWith("[Test.run] two#012lines"));
+    Assert.assertTrue(lines.get(2),lines.get(2).endsWith("[Test.run] three"));
+  }
+
+  /**
+   * Zu lange Meldungen werden auf die Datagramm-Groesse gekuerzt,
+   * ohne ein UTF-8-Zeichen zu zerteilen.
+   * @throws Exception
+   */
+  @Test
+  public void testUdpTruncate() throws Exception
+  {
+    this.target = new SyslogTarget("127.0.0.1",this.udp.getLocalPort(),SyslogTarget.Protocol.UDP);
+    this.target.setMaxPacketSize(480);
+
+    StringBuilder sb = new StringBuilder();
+    for (int i=0;i<1000;++i)
+      sb.append('\u00e4');
+    log(Level.INFO,sb.toString());
+    log(Level.INFO,"after");
+
+    byte[] data = receiveBytes();
+    Assert.assertTrue("length: " + data.length,data.length <= 480);
+    Assert.assertTrue("length: " + data.length,data.length >= 477);
+    String s = decode(data);
+    Assert.assertTrue(s,s.endsWith("\u00e4"));
+
+    Assert.assertTrue(receive().endsWith("[Test.run] after"));
+    Assert.assertEquals(0L,this.target.getDropped());
+  }
+
+  /**
+   * Bei TCP wird jeder Meldung ihre Laenge vorangestellt (Octet-Counting).
+   * @throws Exception
+   */
+  @Test
+  public void testTcpFraming() throws Exception
+  {
+    this.target = new SyslogTarget("127.0.0.1",this.tcp.getLocalPort(),SyslogTarget.Protocol.TCP);
+    Socket s = this.tcp.accept();
+    try
+    {
+      s.setSoTimeout(5000);
+      Message[] batch = new Message[]{message("one"),
+                                      Messages.create(Level.WARN,"Test","run","two\nlines \u00e4\u00f6\u00fc"),
+                                      message("three")};
+      this.target.write(batch,batch.length);
+
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      String one = readFrame(in);
+      Assert.assertTrue(one,one.startsWith("<14>1 ") && one.endsWith("[Test.run] one"));
+      String two = readFrame(in);
+      Assert.assertTrue(two,two.startsWith("<12>1 ") && two.endsWith("[Test.run] two\nlines \u00e4\u00f6\u00fc"));
+      String three = readFrame(in);
+      Assert.assertTrue(three,three.endsWith("[Test.run] three"));
+    }
+    finally
+    {
+      s.close();
+    }
+  }
+
+  /**
+   * Bricht die Verbindung mitten in einer Meldung ab, wird deren Rest
+   * verworfen. Auf der neuen Verbindung beginnt die erste Meldung sauber.
+   * @throws Exception
+   */
+  @Test
+  public void testTcpReconnect() throws Exception
+  {
+    this.target = new SyslogTarget("127.0.0.1",this.tcp.getLocalPort(),SyslogTarget.Protocol.TCP);
+    this.target.setReconnectInterval(0L);
+    this.target.setMaxBuffer(8 * 1024 * 1024);
+    Socket s = this.tcp.accept();
+    s.setReceiveBufferSize(4096);
+
+    // Der Empfaenger liest nicht. Irgendwann ist der Socket-Puffer voll und
+    // eine Meldung wurde nur teilweise gesendet.
+    StringBuilder sb = new StringBuilder();
+    for (int i=0;i<9999;++i)
+      sb.append((char) ('a' + i % 26));
+    final String text = sb.toString();
+    for (int i=0;i<400;++i)
+      this.target.write(message(text));
+
+    // Verbindung hart abbrechen (RST)
+    s.setSoLinger(true,0);
+    s.close();
+
+    // Beim naechsten Senden merkt das Target den Abbruch und verbindet sich neu
+    Socket s2 = null;
+    long timeout = System.currentTimeMillis() + 10000L;
+    this.tcp.setSoTimeout(100);
+    while (s2 == null && System.currentTimeMillis() < timeout)
+    {
+      this.target.write(message("marker"));
+      try
+      {
+        s2 = this.tcp.accept();
+      }
+      catch (IOException e)
+      {
+        // noch nicht verbunden
+      }
+    }
+    Assert.assertNotNull("no reconnect",s2);
+
+    try
+    {
+      // Alle Meldungen auf der neuen Verbindung muessen vollstaendig sein.
+      // Gelesen wird in einem eigenen Thread, bis die erste Markierung kommt.
+      s2.setSoTimeout(5000);
+      final DataInputStream in = new DataInputStream(s2.getInputStream());
+      final List<Object> result = new ArrayList<Object>();
+      Thread reader = new Thread() {
+        public void run()
+        {
+          try
+          {
+            String frame = null;
+            while ((frame = readFrame(in)) != null)
+            {
+              result.add(frame);
+              if (frame.endsWith("[Test.run] marker"))
+                return;
+            }
+          }
+          catch (Exception e)
+          {
+            result.add(e);
+          }
+        }
+      };
+      reader.start();
+
+      // Das Target sendet ohne zu blockieren, also muessen wir es anstossen
+      while (reader.isAlive() && System.currentTimeMillis() < timeout)
+      {
+        this.target.flush();
+        reader.join(10L);
+      }
+      Assert.assertFalse("timeout",reader.isAlive());
+
+      Assert.assertTrue(result.size() > 0);
+      for (Object o:result)
+      {
+        if (o instanceof Exception)
+          throw (Exception) o;
+        String frame = (String) o;
+        Assert.assertTrue(frame.substring(0,Math.min(20,frame.length())),frame.startsWith("<14>1 "));
+        Assert.assertTrue(frame.endsWith("[Test.run] " + text) || frame.endsWith("[Test.run] marker"));
+      }
+    }
+    finally
+    {
+      s2.close();
+    }
+  }
+
+  /**
+   * Schreibt eine Meldung direkt in das Target.
+   * @param level Log-Level.
+   * @param text Text der Meldung.
+   * @throws Exception
+   */
+  private void log(Level level, String text) throws Exception
+  {
+    this.target.write(Messages.create(level,"Test","run",text));
+  }
+
+  /**
+   * Erzeugt eine Meldung vom Typ "info".
+   * @param text Text der Meldung.
+   * @return die Meldung.
+   */
+  private static Message message(String text)
+  {
+    return Messages.create(Level.INFO,"Test","run",text);
+  }
+
+  /**
+   * Empfaengt ein Datagramm als Text.
+   * @return der Text.
+   * @throws Exception
+   */
+  private String receive() throws Exception
+  {
+    return decode(receiveBytes());
+  }
+
+  /**
+   * Empfaengt ein Datagramm.
+   * @return die Bytes des Datagramms.
+   * @throws Exception
+   */
+  private byte[] receiveBytes() throws Exception
+  {
+    byte[] buf = new byte[65536];
+    DatagramPacket p = new DatagramPacket(buf,buf.length);
+    this.udp.receive(p);
+    byte[] data = new byte[p.getLength()];
+    System.arraycopy(buf,0,data,0,data.length);
+    return data;
+  }
+
+  /**
+   * Liest eine Meldung mit vorangestellter Laenge.
+   * @param in der Stream.
+   * @return die Meldung oder <code>null</code> am Ende des Streams.
+   * @throws IOException
+   */
+  private static String readFrame(InputStream in) throws IOException
+  {
+    int len = 0;
+    int digits = 0;
+    int b = 0;
+    while ((b = in.read()) != ' ')
+    {
+      if (b == -1 && digits == 0)
+        return null;
+      if (b < '0' || b > '9')
+        throw new IOException("invalid frame, unexpected byte " + b);
+      len = len * 10 + (b - '0');
+      digits++;
+    }
+    byte[] data = new byte[len];
+    try
+    {
+      new DataInputStream(in).readFully(data);
+    }
+    catch (EOFException e)
+    {
+      throw new IOException("incomplete frame");
+    }
+    return decode(data);
+  }
+
+  /**
+   * Dekodiert die Bytes als UTF-8 und prueft dabei, dass sie gueltig sind.
+   * @param data die Bytes.
+   * @return der Text.
+   * @throws IOException
+   */
+  private static String decode(byte[] data) throws IOException
+  {
+    CharsetDecoder d = UTF8.newDecoder()
+                           .onMalformedInput(CodingErrorAction.REPORT)
+                           .onUnmappableCharacter(CodingErrorAction.REPORT);
+    return d.decode(ByteBuffer.wrap(data)).toString();
+  }
+}